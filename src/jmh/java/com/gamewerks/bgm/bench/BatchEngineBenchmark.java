@@ -0,0 +1,87 @@
+package com.gamewerks.bgm.bench;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gamewerks.bgm.engine.BatchEngine;
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.InputSource;
+import com.gamewerks.bgm.engine.ScriptedInput;
+
+/**
+ * Plays a batch of standard scripted games to the end: one {@link Engine}
+ * after the other, one engine per game in lockstep, and all of them in
+ * one {@link BatchEngine}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchEngineBenchmark {
+    @Param({"256", "4096"})
+    private int games;
+
+    private long[] seeds;
+    private InputSource[] sources;
+
+    /** Picks the seeds and inputs of the batch. */
+    @Setup
+    public void setup() {
+        seeds = new long[games];
+        for (int g = 0; g < games; g++) {
+            seeds[g] = g;
+        }
+        sources = new InputSource[games];
+        Arrays.fill(sources, ScriptedInput.standard());
+    }
+
+    /** @return the total number of frames played, one engine per game */
+    @Benchmark
+    public long engines() {
+        long frames = 0;
+        for (int g = 0; g < games; g++) {
+            frames += new Engine(seeds[g]).stepMany(Integer.MAX_VALUE, sources[g]);
+        }
+        return frames;
+    }
+
+    /**
+     * @return the number of lockstep frames played, one engine per game,
+     *         every game being stepped one frame per round as a server does
+     */
+    @Benchmark
+    public long enginesLockstep() {
+        Engine[] engines = new Engine[games];
+        for (int g = 0; g < games; g++) {
+            engines[g] = new Engine(seeds[g]);
+        }
+        long rounds = 0;
+        for (int running = games; running > 0; rounds++) {
+            running = 0;
+            for (int g = 0; g < games; g++) {
+                running += engines[g].stepMany(1, sources[g]);
+            }
+        }
+        return rounds;
+    }
+
+    /** @return the number of frames the longest game lasts in one batch engine */
+    @Benchmark
+    public long batch() {
+        return new BatchEngine(seeds).stepMany(Integer.MAX_VALUE, sources);
+    }
+}
@@ -0,0 +1,86 @@
+package com.gamewerks.bgm.bench;
+
+import com.gamewerks.bgm.engine.Well;
+import com.gamewerks.bgm.util.Constants;
+
+/**
+ * Fixed board states the benchmarks are measured against. Boards are drawn
+ * top-down, one string per row, with <code>x</code> marking a filled cell;
+ * the last string is row 0 and every row above the drawing is empty.
+ */
+public enum Boards {
+    /** A freshly started game. */
+    EMPTY(),
+
+    /** A mid-game stack, eleven rows high, with a few holes and no completed rows. */
+    HALF_FULL(
+        "....x.....",
+        "...xx.....",
+        "x..xxx...x",
+        "xx.xxxx..x",
+        "xx.xxxxx.x",
+        "xxxxx.xxxx",
+        "xxxx.xxxxx",
+        "xxxxxxx.xx",
+        ".xxxxxxxxx",
+        "xxxxxx.xxx",
+        "xxx.xxxxxx"
+    ),
+
+    /** A stack reaching into the spawn area, one piece away from topping out. */
+    NEAR_TOP_OUT(
+        "xxx.....xx",
+        "xxxx...xxx",
+        "xxxx.xxxxx",
+        "xxx.xxxxxx",
+        "xxxxxx.xxx",
+        "xx.xxxxxxx",
+        "xxxxxxxx.x",
+        "x.xxxxxxxx",
+        "xxxxx.xxxx",
+        "xxx.xxxxxx",
+        "xxxxxxx.xx",
+        ".xxxxxxxxx",
+        "xxxx.xxxxx",
+        "xxxxxx.xxx",
+        "xx.xxxxxxx",
+        "xxxxxxxxx.",
+        "xxxxx.xxxx",
+        "x.xxxxxxxx",
+        "xxxxxxx.xx"
+    ),
+
+    /** A stack with four full rows, just completed by a vertical I piece, above two partial rows. */
+    MULTI_LINE_CLEAR(
+        "xx........",
+        "xxx....x..",
+        "xxxx..xxx.",
+        "xxxxxxxxxx",
+        "xxxxxxxxxx",
+        "xxxxxxxxxx",
+        "xxxxxxxxxx",
+        "xx.xxxxxxx",
+        "xxxxx.xxxx"
+    );
+
+    private final String[] drawing;
+
+    /**
+     * @param drawing the rows of the board, top-down
+     */
+    Boards(String... drawing) {
+        this.drawing = drawing;
+    }
+
+    /** @return a fresh well holding this board */
+    public Well create() {
+        boolean[][] grid = new boolean[Constants.BOARD_HEIGHT][Constants.BOARD_WIDTH];
+        for (int i = 0; i < drawing.length; i++) {
+            int row = drawing.length - 1 - i;
+            for (int col = 0; col < Constants.BOARD_WIDTH; col++) {
+                grid[row][col] = drawing[i].charAt(col) == 'x';
+            }
+        }
+        return new Well(grid);
+    }
+}
@@ -0,0 +1,52 @@
+package com.gamewerks.bgm.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.InputSource;
+import com.gamewerks.bgm.engine.ScriptedInput;
+
+/**
+ * Benchmarks a single frame of the engine playing the standard scripted
+ * game, the same game <code>Headless</code> reports throughput for.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EngineBenchmark {
+    private InputSource script;
+    private Engine game;
+
+    /** Starts a fresh game. */
+    @Setup
+    public void setup() {
+        script = ScriptedInput.standard();
+        game = new Engine();
+    }
+
+    /**
+     * Steps one frame, starting a new game whenever the current one ends.
+     * @return the engine
+     */
+    @Benchmark
+    public Engine step() {
+        if (game.stepMany(1, script) == 0) {
+            game = new Engine();
+        }
+        return game;
+    }
+}
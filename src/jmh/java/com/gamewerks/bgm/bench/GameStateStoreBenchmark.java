@@ -0,0 +1,72 @@
+package com.gamewerks.bgm.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.ScriptedInput;
+import com.gamewerks.bgm.sim.GameStateStore;
+
+/**
+ * Benchmarks saving a game in the middle of the standard scripted game into
+ * a {@link GameStateStore} and loading it back into an engine.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GameStateStoreBenchmark {
+    private GameStateStore store;
+    private Engine game;
+    private Engine copy;
+    private int slot;
+
+    /** Plays a game halfway and saves it. */
+    @Setup
+    public void setup() {
+        store = new GameStateStore();
+        game = new Engine(1);
+        game.stepMany(1500, ScriptedInput.standard());
+        copy = new Engine(2);
+        slot = store.save(game);
+    }
+
+    /** Overwrites the saved state with the game's. */
+    @Benchmark
+    public void save() {
+        store.save(slot, game);
+    }
+
+    /**
+     * Overwrites an engine with the saved state.
+     * @return the engine
+     */
+    @Benchmark
+    public Engine load() {
+        store.load(slot, copy);
+        return copy;
+    }
+
+    /**
+     * Saves the game into a new slot and frees it, as a search frontier does.
+     * @return the slot
+     */
+    @Benchmark
+    public int saveAndFree() {
+        int s = store.save(game);
+        store.free(s);
+        return s;
+    }
+}
@@ -0,0 +1,44 @@
+package com.gamewerks.bgm.bench;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.util.Loader;
+
+/**
+ * Benchmarks loading the rotation data of every piece, from the data files
+ * and from the tables compiled from them, which the game uses. The data
+ * files are read relative to the working directory, so run the benchmarks
+ * from the project root.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoaderBenchmark {
+    /**
+     * @return the rotation data of every piece
+     * @throws IOException if the data directory cannot be read
+     */
+    @Benchmark
+    public HashMap<PieceKind, boolean[][][]> loadAllRotationData() throws IOException {
+        return Loader.loadAllRotationData();
+    }
+
+    /** @return the rotation data of every piece, decoded from the compiled tables */
+    @Benchmark
+    public HashMap<PieceKind, boolean[][][]> loadCompiledRotationData() {
+        return Loader.loadCompiledRotationData();
+    }
+}
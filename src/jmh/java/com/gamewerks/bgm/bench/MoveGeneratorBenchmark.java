@@ -0,0 +1,62 @@
+package com.gamewerks.bgm.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gamewerks.bgm.engine.MoveGenerator;
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Well;
+
+/** Benchmarks for generating and counting reachable placements on fixed boards. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoveGeneratorBenchmark {
+    /** The pieces placed by {@link #perft()}. */
+    private static final PieceKind[] PIECES = {PieceKind.T, PieceKind.S, PieceKind.I};
+
+    @Param
+    private Boards board;
+
+    private Well well;
+    private MoveGenerator generator;
+    private int[] placements;
+
+    /** Builds the board and the generator. */
+    @Setup
+    public void setup() {
+        well = board.create();
+        generator = new MoveGenerator();
+        placements = new int[generator.getMaxPlacements()];
+    }
+
+    /** @return the number of placements of every kind of piece on the board */
+    @Benchmark
+    public int generate() {
+        int count = 0;
+        for (PieceKind kind : PieceKind.ALL) {
+            count += generator.generate(well, kind, placements);
+        }
+        return count;
+    }
+
+    /** @return the number of sequences of three placements on the board */
+    @Benchmark
+    public long perft() {
+        return generator.perft(well, PIECES, PIECES.length);
+    }
+}
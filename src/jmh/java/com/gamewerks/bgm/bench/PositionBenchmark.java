@@ -0,0 +1,48 @@
+package com.gamewerks.bgm.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gamewerks.bgm.util.Constants;
+import com.gamewerks.bgm.util.Position;
+
+/** Benchmarks the gravity path computed for a piece at the spawn position. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PositionBenchmark {
+    /** The gravity, in multiples of 1G. */
+    @Param({ "1", "20" })
+    private int g;
+
+    private Position spawn;
+    private int gravity;
+
+    /** Places the piece at the spawn position. */
+    @Setup
+    public void setup() {
+        spawn = new Position(Constants.BOARD_HEIGHT - 1, Constants.BOARD_WIDTH / 2 - 2);
+        gravity = g * Constants.GRAVITY_1G;
+    }
+
+    /** @return the path of the piece under gravity */
+    @Benchmark
+    public List<Position> getPathFromGravity() {
+        return spawn.getPathFromGravity(gravity);
+    }
+}
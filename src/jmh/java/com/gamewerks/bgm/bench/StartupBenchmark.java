@@ -0,0 +1,38 @@
+package com.gamewerks.bgm.bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gamewerks.bgm.engine.Engine;
+
+/**
+ * Benchmarks starting a game in a fresh JVM: from the first use of the
+ * engine, which loads and initializes <code>Piece</code> and its rotation
+ * data, to the end of the first frame. Each fork measures a single cold
+ * invocation, so the score is dominated by class loading and
+ * initialization rather than by the JIT.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(30)
+public class StartupBenchmark {
+    /**
+     * Starts a game and steps its first frame.
+     * @return the engine
+     */
+    @Benchmark
+    public Engine firstFrame() {
+        Engine game = new Engine(0);
+        game.step();
+        return game;
+    }
+}
@@ -0,0 +1,131 @@
+package com.gamewerks.bgm.bench;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.gamewerks.bgm.engine.PersistentWell;
+import com.gamewerks.bgm.engine.Piece;
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Rotation;
+import com.gamewerks.bgm.engine.Well;
+import com.gamewerks.bgm.util.Constants;
+
+/** Benchmarks for the queries and updates the engine makes on the well. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WellBenchmark {
+    /** The rows at which {@link #collides()} probes every placement. */
+    private static final int[] PROBE_ROWS = { Constants.BOARD_HEIGHT - 1, 10, 3 };
+    /** The column {@link #copyAndPlace()} drops its piece at. */
+    private static final int DROP_COL = 3;
+
+    @Param
+    private Boards board;
+
+    private Well well;
+    private PersistentWell persistent;
+    private Rotation[] rotations;
+    /** A T piece dropped onto the middle of the stack, as a search would place it. */
+    private Rotation drop;
+    private int dropRow;
+
+    /** Builds the board and gathers every piece rotation. */
+    @Setup
+    public void setup() {
+        well = board.create();
+        persistent = PersistentWell.of(well);
+        drop = Piece.getRotation(PieceKind.T, 0);
+        int top = Constants.BOARD_HEIGHT - 1 - drop.getMaxRow();
+        dropRow = top - well.dropDistance(drop, top, DROP_COL, Integer.MAX_VALUE);
+        rotations = new Rotation[PieceKind.ALL.length * 4];
+        for (PieceKind kind : PieceKind.ALL) {
+            for (int orientation = 0; orientation < 4; orientation++) {
+                rotations[kind.ordinal() * 4 + orientation] = Piece.getRotation(kind, orientation);
+            }
+        }
+    }
+
+    /**
+     * Probes every kind, orientation and column at a few rows of the well.
+     * @return the number of colliding placements
+     */
+    @Benchmark
+    public int collides() {
+        int collisions = 0;
+        for (int row : PROBE_ROWS) {
+            for (Rotation rot : rotations) {
+                for (int col = -3; col < Constants.BOARD_WIDTH; col++) {
+                    if (well.collides(rot, row, col)) {
+                        collisions += 1;
+                    }
+                }
+            }
+        }
+        return collisions;
+    }
+
+    /** @return the heuristic surface metrics of the board, as a bot would score it */
+    @Benchmark
+    public int surface() {
+        return well.getAggregateHeight() + well.getHoleCount() + well.getBumpiness();
+    }
+
+    /** @return the completed rows of the board */
+    @Benchmark
+    public List<Integer> getCompletedRows() {
+        return well.getCompletedRows();
+    }
+
+    /**
+     * Baseline for {@link #deleteRows()}, which must copy the board before
+     * mutating it.
+     * @return a copy of the board
+     */
+    @Benchmark
+    public Well copy() {
+        return new Well(well);
+    }
+
+    /** @return a copy of the board with its completed rows deleted */
+    @Benchmark
+    public Well deleteRows() {
+        Well copy = new Well(well);
+        copy.deleteRows(copy.getCompletedRows());
+        return copy;
+    }
+
+    /**
+     * Baseline for {@link #persistentPlace()}: a child board of a search
+     * tree made by copying a mutable well.
+     * @return a copy of the board with a piece placed and lines cleared
+     */
+    @Benchmark
+    public Well copyAndPlace() {
+        Well copy = new Well(well);
+        copy.addToWell(drop, dropRow, DROP_COL);
+        copy.clearCompletedRows();
+        return copy;
+    }
+
+    /** @return the board with a piece placed and lines cleared, as a new persistent well */
+    @Benchmark
+    public PersistentWell persistentPlace() {
+        return persistent.place(drop, dropRow, DROP_COL).clearCompletedRows();
+    }
+}
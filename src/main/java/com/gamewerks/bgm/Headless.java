@@ -0,0 +1,55 @@
+package com.gamewerks.bgm;
+
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.InputSource;
+import com.gamewerks.bgm.engine.ScriptedInput;
+
+/**
+ * Runs Blocky headless, without any window, and reports how many frames per
+ * second the engine sustains on the standard scripted game. Whenever a game
+ * ends a fresh one is started in its place.
+ */
+public class Headless {
+    /** The number of frames stepped before measuring. */
+    private static final int WARMUP_FRAMES = 5_000_000;
+    /** The number of frames stepped per call into the engine. */
+    private static final int BATCH_FRAMES = 10_000;
+
+    /**
+     * The entry point to the headless runner.
+     * @param args optionally, the number of frames to measure (default 20 million)
+     */
+    public static void main(String[] args) {
+        long frames = args.length > 0 ? Long.parseLong(args[0]) : 20_000_000L;
+        InputSource script = ScriptedInput.standard();
+
+        run(WARMUP_FRAMES, script);
+        long start = System.nanoTime();
+        long games = run(frames, script);
+        long elapsed = System.nanoTime() - start;
+
+        double seconds = elapsed / 1e9;
+        System.out.printf("%d frames, %d games in %.2f s: %.0f frames/s%n",
+                frames, games, seconds, frames / seconds);
+    }
+
+    /**
+     * Steps standard scripted games until the given number of frames elapse.
+     * @param frames the total number of frames to step
+     * @param script the input source driving every game
+     * @return the number of games played
+     */
+    private static long run(long frames, InputSource script) {
+        long games = 1;
+        Engine game = new Engine();
+        long remaining = frames;
+        while (remaining > 0) {
+            remaining -= game.stepMany((int) Math.min(remaining, BATCH_FRAMES), script);
+            if (game.isGameOver()) {
+                game = new Engine();
+                games += 1;
+            }
+        }
+        return games;
+    }
+}
@@ -1,33 +1,106 @@
 package com.gamewerks.bgm;
 
-import java.awt.Rectangle;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongPredicate;
 
+import javax.management.JMException;
 import javax.swing.JFrame;
 
 import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.FrameSnapshot;
 import com.gamewerks.bgm.engine.KeyKind;
+import com.gamewerks.bgm.engine.RewindBuffer;
 import com.gamewerks.bgm.gfx.BlockyPanel;
+import com.gamewerks.bgm.metrics.EngineMetrics;
+import com.gamewerks.bgm.replay.ReplayReader;
+import com.gamewerks.bgm.replay.ReplayWriter;
+import com.gamewerks.bgm.util.FrameScheduler;
+import com.gamewerks.bgm.util.TripleBuffer;
 
 /** The main class for Blocky the Grandmaster. */
 public class Main {
     /** The framerate (frames per second) of the game. */
     private static final int FPS = 60;
-    /** The rate that frames are played (in seconds per frame). */
-    private static final double SPF = 1000000000.0 / FPS;
     
     /** 
      * The main entry point to Blocky the Grandmaster.
-     * @param args the command-line arguments to the program (ignored)
+     * @param args the command-line arguments to the program. Pass
+     *             <code>--record FILE</code> to record the game as a replay,
+     *             <code>--play FILE</code> to watch a replay instead of
+     *             playing, and <code>--speed N</code> to run N frames per
+     *             displayed frame, e.g., to fast forward a replay. Set the
+     *             system property <code>bgm.metrics</code> to record frame
+     *             timings, exposed over JMX and printed every
+     *             <code>bgm.metrics.dump</code> seconds (default 10, 0 for
+     *             never). Unless a replay is recorded or played, R rewinds
+     *             the game by a second, as far back as the last
+     *             <code>bgm.rewind.kb</code> kilobytes of history go
+     *             (default 1024, about ten minutes; 0 to disable), even
+     *             after the game is over, which then only ends when the
+     *             window is closed.
+     * @throws IOException if the replay file cannot be created or read
+     * @throws JMException if the metrics cannot be registered over JMX
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, JMException {
+        String recordPath = null;
+        String playPath = null;
+        double speed = 1;
+        for (int i = 0; i < args.length; i += 2) {
+            if (i + 1 == args.length) {
+                throw new IllegalArgumentException("Missing value of option " + args[i]);
+            }
+            switch (args[i]) {
+                case "--record": recordPath = args[i + 1]; break;
+                case "--play": playPath = args[i + 1]; break;
+                case "--speed": speed = Double.parseDouble(args[i + 1]); break;
+                default: throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+
         JFrame frame = new JFrame();
-        frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        // Closing the window stops the game loop, which then finishes the replay and exits
+        frame.setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         frame.setTitle("Blocky the Grandmaster");
         
-        Engine game = new Engine();
-        BlockyPanel panel = new BlockyPanel(game);
+        ReplayReader playback = playPath != null ? ReplayReader.open(Paths.get(playPath)) : null;
+        long seed = playback != null ? playback.getSeed() : ThreadLocalRandom.current().nextLong();
+        Engine game = new Engine(seed);
+        ReplayWriter replay = recordPath == null ? null
+                : new ReplayWriter(Paths.get(recordPath), seed);
+        game.setInputRecorder(replay);
+        TripleBuffer<FrameSnapshot> frames = new TripleBuffer<>(FrameSnapshot::new);
+        game.setSnapshotBuffer(frames);
+        BlockyPanel panel = new BlockyPanel(frames);
+        if (System.getProperty("bgm.metrics") != null) {
+            EngineMetrics metrics = new EngineMetrics();
+            metrics.register();
+            int dumpSeconds = Integer.getInteger("bgm.metrics.dump", 10);
+            if (dumpSeconds > 0) {
+                metrics.startDump(System.out, dumpSeconds);
+            }
+            game.setMetrics(metrics);
+            panel.setMetrics(metrics);
+        }
+        // Rewinding would desync a replay, which only records the input
+        int rewindKb = Integer.getInteger("bgm.rewind.kb", 1024);
+        RewindBuffer rewind = null;
+        if (replay == null && playback == null && rewindKb > 0) {
+            rewind = new RewindBuffer(FPS, Math.max(rewindKb * 1024,
+                    RewindBuffer.minCapacity(FPS)));
+            game.setRewindBuffer(rewind);
+        }
+        // Rewinds requested by the keyboard, applied by the game thread
+        AtomicInteger rewinds = new AtomicInteger();
         frame.add(panel);
         frame.pack();
         frame.setVisible(true);
@@ -40,7 +113,8 @@ public class Main {
         // + D/Right: move right
         // + J/Z: rotate counterclockwise
         // + K/X: rotate clockwise
-        frame.addKeyListener(new KeyAdapter() {
+        // + R: rewind one second
+        KeyAdapter keys = new KeyAdapter() {
             /**
              * Notifies the game engine when a key is pressed
              * 
@@ -61,6 +135,8 @@ public class Main {
                     case KeyEvent.VK_DOWN: game.keyDown(KeyKind.SOFT_DROP); return;
                     case KeyEvent.VK_Z: game.keyDown(KeyKind.ROTATE_COUNTERCLOCKWISE); return;
                     case KeyEvent.VK_X: game.keyDown(KeyKind.ROTATE_CLOCKWISE); return;
+
+                    case KeyEvent.VK_R: rewinds.incrementAndGet(); return;
                 }
             }
             
@@ -84,24 +160,78 @@ public class Main {
                     case KeyEvent.VK_X: game.keyUp(KeyKind.ROTATE_CLOCKWISE); return;
                 }
             }
-        });
+        };
+        // Key events reach the game thread through the engine's input queue.
+        // A replay supplies its own input, so the keyboard is ignored.
+        if (playback == null) {
+            frame.addKeyListener(keys);
+        }
 
         // Spawn the game loop in a separate thread so it does not block
         // the UI from rendering or processing inputs.
-        new Thread(() -> {
-            long timeElapsed = 0;
-            long prevTime = System.nanoTime();
-            while (true) {
-                long currentTime = System.nanoTime();
-                timeElapsed += currentTime - prevTime;
-                prevTime = currentTime;
-                if (timeElapsed > SPF) {
-                    game.step();
-                    panel.paintImmediately(
-                        new Rectangle(0, 0, panel.getWidth(), panel.getHeight()));
-                    timeElapsed = (long) (timeElapsed - SPF);
+        FrameScheduler scheduler = new FrameScheduler(FPS);
+        scheduler.setSpeed(speed);
+        RewindBuffer history = rewind;
+        LongPredicate step = frameTime -> {
+            if (playback == null) {
+                int seconds = rewinds.getAndSet(0);
+                if (seconds > 0 && history != null) {
+                    game.rewindTo(Math.max(game.getFrameCount() - (long) seconds * FPS,
+                            history.getOldestFrame()));
                 }
+                game.step(frameTime);
+                // A game that can be rewound stays open past its top-out until the window closes
+                return history != null || !game.isGameOver();
+            }
+            return game.stepMany(1, playback) == 1 && game.getFrameCount() < playback.getFrames();
+        };
+        AtomicBoolean finished = new AtomicBoolean();
+        CountDownLatch stopped = new CountDownLatch(1);
+        new Thread(() -> {
+            scheduler.run(step);
+            finishReplay(replay, game, finished);
+            stopped.countDown();
+            System.out.println(scheduler.getStatsSummary());
+            System.exit(0);
+        }, "game-loop").start();
+        frame.addWindowListener(new WindowAdapter() {
+            /**
+             * Stops the game loop when the window is closed
+             *
+             * @param e the window event
+             */
+            @Override
+            public void windowClosing(WindowEvent e) {
+                scheduler.stop();
+            }
+        });
+        // Other ways out, e.g., Ctrl-C, give the game loop a moment to finish the replay
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            scheduler.stop();
+            try {
+                stopped.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
             }
-        }).start();
+            finishReplay(replay, game, finished);
+        }, "replay-finisher"));
+    }
+
+    /**
+     * Writes out the replay of the game, if it is being recorded and has not
+     * been written out yet.
+     * @param replay the replay being recorded, or null
+     * @param game the game, which is no longer stepped
+     * @param finished set once the replay is written out
+     */
+    private static void finishReplay(ReplayWriter replay, Engine game, AtomicBoolean finished) {
+        if (replay == null || !finished.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            replay.finish(game);
+        } catch (IOException ex) {
+            System.out.println("Exception occurred writing the replay");
+        }
     }
 }
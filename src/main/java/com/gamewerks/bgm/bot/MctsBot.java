@@ -0,0 +1,505 @@
+package com.gamewerks.bgm.bot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.InputSource;
+import com.gamewerks.bgm.engine.MoveGenerator;
+import com.gamewerks.bgm.engine.PersistentWell;
+import com.gamewerks.bgm.engine.Piece;
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Rotation;
+import com.gamewerks.bgm.engine.Well;
+import com.gamewerks.bgm.metrics.LatencyHistogram;
+import com.gamewerks.bgm.util.SplitMix64;
+
+/**
+ * A reference bot choosing where to place each piece by Monte Carlo tree
+ * search, and a yardstick of how many rollouts per second per core the
+ * engine sustains.
+ *
+ * <p>The tree branches on the placements {@link MoveGenerator} finds for
+ * the pieces the player can see, the current piece and the preview piece,
+ * each node holding the {@link PersistentWell} its placement leads to.
+ * Beyond them, a rollout plays random pieces, each dropped (see
+ * {@link MoveGenerator#generateDrops}) where the classic heuristic (lines,
+ * aggregate height, holes, bumpiness) likes it best or, now and then,
+ * anywhere, and the board it ends on is scored by
+ * the lines cleared on the way and the same heuristic against the board
+ * the search started from, per piece placed. Scores are squashed into
+ * <code>[0, 1]</code>; topping out scores 0. Children are picked by UCT, a
+ * node is rolled out from on its first visit and expanded on the next, and
+ * the placement visited most, or of the best mean among those, is played.
+ * Rollout pieces after the preview are drawn uniformly at random, not from
+ * a 7-bag as {@link Engine#Engine(long)} deals them, since the bot does not
+ * see where the game's bag stands; boards are thus scored against a
+ * slightly different piece sequence than the game plays.
+ *
+ * <p>Rollouts run in parallel on a fixed pool of threads sharing one tree.
+ * Node statistics are atomic counters, a node is expanded by the one thread
+ * that claims it while the others roll out from it, and every thread adds
+ * a virtual loss to the nodes on its path until it backs its result up, so
+ * that concurrent threads spread over different branches. Nodes live in
+ * preallocated parallel arrays that are reset, not reallocated, before
+ * every move.
+ */
+public class MctsBot implements AutoCloseable {
+    /** The placement {@link #decide} returns when the piece cannot spawn. */
+    public static final int NO_PLACEMENT = -1;
+
+    /** The classic heuristic's weights of lines, height, holes and bumpiness. */
+    private static final double LINES_WEIGHT = 0.760666;
+    private static final double HEIGHT_WEIGHT = -0.510066;
+    private static final double HOLES_WEIGHT = -0.35663;
+    private static final double BUMPINESS_WEIGHT = -0.184483;
+    /**
+     * The score difference per piece placed that makes a rollout's reward
+     * 0.73 rather than 0.5, so that rewards spread alike at any depth.
+     */
+    private static final double REWARD_SCALE = 1;
+    /** The fixed-point unit rewards are summed in. */
+    private static final double REWARD_ONE = 1L << 32;
+    /** The weight of exploration in UCT. */
+    private static final double EXPLORATION = 0.5;
+    /** The chance a rollout places a piece anywhere rather than where the heuristic likes. */
+    private static final double RANDOM_MOVE_CHANCE = 0.1;
+
+    private static final int UNEXPANDED = 0;
+    private static final int EXPANDING = 1;
+    private static final int EXPANDED = 2;
+    /** A node that could not get children, e.g., because the pool ran out. */
+    private static final int LEAF = 3;
+
+    private final int rolloutsPerMove;
+    private final int rolloutDepth;
+    private final ExecutorService pool;
+    private final List<Worker> workers;
+
+    // The node pool, indexed by node, the root being node 0
+    private final AtomicInteger nodeCount;
+    private final AtomicIntegerArray states;
+    private final AtomicIntegerArray visits;
+    private final AtomicIntegerArray virtualLosses;
+    private final AtomicLongArray rewards;
+    private final int[] firstChildren;
+    private final int[] childCounts;
+    private final int[] placements;
+    /** The number of lines the placement leading to each node cleared. */
+    private final int[] lines;
+    private final PersistentWell[] boards;
+
+    /** The rollouts left to start for the current move. */
+    private final AtomicInteger budget;
+    /** The pieces the player sees for the current move. */
+    private final PieceKind[] pieces;
+    /** The heuristic score of the board the current move starts from. */
+    private double rootScore;
+    private long totalRollouts;
+    private long searchNanos;
+
+    /**
+     * Constructs a new bot.
+     * @param threads the number of threads rolling out in parallel
+     * @param rolloutsPerMove the number of rollouts to run for each move
+     * @param rolloutDepth the number of pieces each rollout places beyond the tree
+     * @param maxNodes the number of nodes in the pool, more than
+     *                 {@link MoveGenerator#getMaxPlacements()} so that the
+     *                 root's children always fit; once it runs out, the
+     *                 search goes on without growing the tree
+     * @param seed the seed of the random pieces and moves of the rollouts
+     */
+    public MctsBot(int threads, int rolloutsPerMove, int rolloutDepth, int maxNodes, long seed) {
+        if (threads <= 0 || rolloutsPerMove <= 0 || rolloutDepth < 0) {
+            throw new IllegalArgumentException("Invalid bot parameters");
+        }
+        int minNodes = new MoveGenerator().getMaxPlacements() + 1;
+        if (maxNodes < minNodes) {
+            throw new IllegalArgumentException("A pool of " + maxNodes
+                    + " nodes cannot hold every placement; it needs at least " + minNodes);
+        }
+        this.rolloutsPerMove = rolloutsPerMove;
+        this.rolloutDepth = rolloutDepth;
+        pool = Executors.newFixedThreadPool(threads, task -> {
+            Thread thread = new Thread(task, "mcts-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pieces = new PieceKind[2];
+        SplitMix64 seeds = new SplitMix64(seed);
+        workers = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            workers.add(new Worker(seeds.split()));
+        }
+        nodeCount = new AtomicInteger();
+        states = new AtomicIntegerArray(maxNodes);
+        visits = new AtomicIntegerArray(maxNodes);
+        virtualLosses = new AtomicIntegerArray(maxNodes);
+        rewards = new AtomicLongArray(maxNodes);
+        firstChildren = new int[maxNodes];
+        childCounts = new int[maxNodes];
+        placements = new int[maxNodes];
+        lines = new int[maxNodes];
+        boards = new PersistentWell[maxNodes];
+        budget = new AtomicInteger();
+    }
+
+    /**
+     * Searches for the best placement of the current piece.
+     * @param well the well, of the standard size
+     * @param current the kind of the piece to place
+     * @param preview the kind of the piece after it
+     * @return the placement, packed as by {@link MoveGenerator#placement(int, int, int)},
+     *         or {@link #NO_PLACEMENT} if the piece cannot spawn
+     * @throws IllegalStateException if the bot is closed, or the search is
+     *         interrupted, which closes the bot
+     */
+    public int decide(Well well, PieceKind current, PieceKind preview) {
+        if (pool.isShutdown()) {
+            // Workers of an interrupted search may still be running over the node pool
+            throw new IllegalStateException("Bot is closed");
+        }
+        long start = System.nanoTime();
+        pieces[0] = current;
+        pieces[1] = preview;
+        rootScore = boardScore(well);
+        nodeCount.set(1);
+        resetNode(0, 0, 0, PersistentWell.of(well));
+        Worker first = workers.get(0);
+        states.set(0, EXPANDING);
+        first.expand(0, current);
+        if (childCounts[0] == 0) {
+            return NO_PLACEMENT;
+        }
+
+        budget.set(rolloutsPerMove);
+        try {
+            List<Future<Integer>> done = pool.invokeAll(workers);
+            for (Future<Integer> f : done) {
+                totalRollouts += f.get();
+            }
+        } catch (InterruptedException ex) {
+            // The cancelled workers may still be changing the tree, so it is not read
+            budget.set(0);
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Search interrupted", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Rollout failed", ex.getCause());
+        }
+
+        int best = firstChildren[0];
+        for (int child = best + 1; child < firstChildren[0] + childCounts[0]; child++) {
+            // Ties, common when the budget barely covers the children, go to the better mean
+            int cmp = Integer.compare(visits.get(child), visits.get(best));
+            if (cmp > 0 || cmp == 0 && rewards.get(child) > rewards.get(best)) {
+                best = child;
+            }
+        }
+        searchNanos += System.nanoTime() - start;
+        return placements[best];
+    }
+
+    /**
+     * @return the number of rollouts run by every move so far, not counting
+     *         iterations that ended on a board where the piece cannot spawn
+     */
+    public long getTotalRollouts() {
+        return totalRollouts;
+    }
+
+    /** @return the time spent deciding every move so far, in nanoseconds */
+    public long getSearchNanos() {
+        return searchNanos;
+    }
+
+    /** @return the number of threads rolling out in parallel */
+    public int getThreads() {
+        return workers.size();
+    }
+
+    /** Stops the bot's threads. */
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * Makes a pool slot a fresh, unvisited node.
+     * @param node the slot
+     * @param placement the placement leading to the node
+     * @param cleared the number of lines the placement cleared
+     * @param board the board after the placement and its line clears
+     */
+    private void resetNode(int node, int placement, int cleared, PersistentWell board) {
+        states.set(node, UNEXPANDED);
+        visits.set(node, 0);
+        virtualLosses.set(node, 0);
+        rewards.set(node, 0);
+        childCounts[node] = 0;
+        placements[node] = placement;
+        lines[node] = cleared;
+        boards[node] = board;
+    }
+
+    /**
+     * @param well a well
+     * @return the classic heuristic's score of the well, lines aside
+     */
+    private static double boardScore(Well well) {
+        return HEIGHT_WEIGHT * well.getAggregateHeight() + HOLES_WEIGHT * well.getHoleCount()
+                + BUMPINESS_WEIGHT * well.getBumpiness();
+    }
+
+    /**
+     * A rollout thread, with its own move generator, scratch wells and
+     * random generator.
+     */
+    private final class Worker implements Callable<Integer> {
+        private final MoveGenerator generator = new MoveGenerator();
+        private final int[] moves = new int[generator.getMaxPlacements()];
+        private final Well scratch = new Well();
+        private final Well probe = new Well();
+        /** The nodes from the root down to the node rolled out from. */
+        private final int[] path = new int[pieces.length + 1];
+        private final SplitMix64 rng;
+
+        /**
+         * @param rng the generator of random pieces and moves, owned by this worker
+         */
+        Worker(SplitMix64 rng) {
+            this.rng = rng;
+        }
+
+        /** @return the number of rollouts this worker ran */
+        @Override
+        public Integer call() {
+            int rollouts = 0;
+            while (!Thread.interrupted() && budget.getAndDecrement() > 0) {
+                if (iterate()) {
+                    rollouts += 1;
+                }
+            }
+            return rollouts;
+        }
+
+        /**
+         * Runs one selection, expansion, rollout and backup.
+         * @return whether a rollout was run, rather than the selected node
+         *         being topped out
+         */
+        private boolean iterate() {
+            int node = 0;
+            int depth = 0;
+            int cleared = 0;
+            path[0] = 0;
+            virtualLosses.incrementAndGet(0);
+            while (true) {
+                int state = states.get(node);
+                // A node is rolled out from on its first visit and expanded on a later one
+                if (state == UNEXPANDED && depth < pieces.length && visits.get(node) > 0
+                        && states.compareAndSet(node, UNEXPANDED, EXPANDING)) {
+                    expand(node, pieces[depth]);
+                    state = states.get(node);
+                }
+                if (state != EXPANDED || childCounts[node] == 0) {
+                    break;
+                }
+                node = select(node);
+                depth += 1;
+                path[depth] = node;
+                cleared += lines[node];
+                virtualLosses.incrementAndGet(node);
+            }
+            boolean toppedOut = states.get(node) == EXPANDED && childCounts[node] == 0;
+            double reward = toppedOut ? 0 : rollout(boards[node], depth, cleared);
+            long fixed = (long) (reward * REWARD_ONE);
+            for (int i = 0; i <= depth; i++) {
+                int n = path[i];
+                rewards.addAndGet(n, fixed);
+                visits.incrementAndGet(n);
+                virtualLosses.decrementAndGet(n);
+            }
+            return !toppedOut;
+        }
+
+        /**
+         * Gives a node claimed by this worker a child per placement of the
+         * given piece, then publishes them.
+         * @param node the node, in the {@link #EXPANDING} state
+         * @param kind the kind of the piece to place
+         */
+        void expand(int node, PieceKind kind) {
+            PersistentWell board = boards[node];
+            scratch.copyFrom(board);
+            int count = generator.generate(scratch, kind, moves);
+            int first = nodeCount.getAndAdd(count);
+            if (first + count > boards.length) {
+                states.set(node, LEAF);
+                return;
+            }
+            for (int i = 0; i < count; i++) {
+                int move = moves[i];
+                Rotation rot = Piece.getRotation(kind, MoveGenerator.orientationOf(move));
+                PersistentWell placed = board.place(rot, MoveGenerator.rowOf(move),
+                        MoveGenerator.colOf(move));
+                resetNode(first + i, move, placed.getCompletedRowCount(),
+                        placed.clearCompletedRows());
+            }
+            firstChildren[node] = first;
+            childCounts[node] = count;
+            // Publishes the children to the threads that read the state
+            states.set(node, EXPANDED);
+        }
+
+        /**
+         * @param node an expanded node with children
+         * @return the child with the best UCT score, counting virtual losses
+         *         as visits that scored nothing
+         */
+        private int select(int node) {
+            int first = firstChildren[node];
+            int end = first + childCounts[node];
+            double logVisits = Math.log(visits.get(node) + virtualLosses.get(node) + 1);
+            int best = first;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int child = first; child < end; child++) {
+                int n = visits.get(child) + virtualLosses.get(child);
+                if (n == 0) {
+                    return child;
+                }
+                double score = rewards.get(child) / REWARD_ONE / n
+                        + EXPLORATION * Math.sqrt(logVisits / n);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = child;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Plays on from a board with the pieces the player sees, then random
+         * ones, and scores where it ends up.
+         * @param board the board to start from
+         * @param depth the number of seen pieces already placed
+         * @param cleared the number of lines cleared since the root
+         * @return the reward, in <code>[0, 1]</code>
+         */
+        private double rollout(PersistentWell board, int depth, int cleared) {
+            scratch.copyFrom(board);
+            for (int i = 0; i < rolloutDepth; i++) {
+                PieceKind kind = depth + i < pieces.length ? pieces[depth + i]
+                        : PieceKind.ALL[rng.nextInt(PieceKind.ALL.length)];
+                int count = generator.generateDrops(scratch, kind, moves);
+                if (count == 0) {
+                    return 0;
+                }
+                int move = chooseMove(kind, count);
+                scratch.addToWell(Piece.getRotation(kind, MoveGenerator.orientationOf(move)),
+                        MoveGenerator.rowOf(move), MoveGenerator.colOf(move));
+                cleared += scratch.clearCompletedRows();
+            }
+            double gain = LINES_WEIGHT * cleared + boardScore(scratch) - rootScore;
+            int placed = Math.max(depth + rolloutDepth, 1);
+            return 1 / (1 + Math.exp(-gain / (placed * REWARD_SCALE)));
+        }
+
+        /**
+         * @param kind the kind of the piece to place on the scratch well
+         * @param count the number of placements generated for it
+         * @return the placement the heuristic scores best or, with
+         *         {@link #RANDOM_MOVE_CHANCE}, a random one
+         */
+        private int chooseMove(PieceKind kind, int count) {
+            if (rng.nextInt(1 << 20) < RANDOM_MOVE_CHANCE * (1 << 20)) {
+                return moves[rng.nextInt(count)];
+            }
+            int best = moves[0];
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < count; i++) {
+                int move = moves[i];
+                probe.copyFrom(scratch);
+                probe.addToWell(Piece.getRotation(kind, MoveGenerator.orientationOf(move)),
+                        MoveGenerator.rowOf(move), MoveGenerator.colOf(move));
+                double score = LINES_WEIGHT * probe.clearCompletedRows() + boardScore(probe);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = move;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * Plays games with the bot, placing each piece where it decides, and
+     * reports how well it plays and how fast it searches.
+     * @param args optionally, the number of games (default 5), the
+     *             rollouts per move (default 2000), the number of threads
+     *             (default: all cores), the pieces after which a game is
+     *             cut off (default 500), the rollout depth (default 6) and
+     *             the first seed (default 0)
+     */
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+        int rollouts = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        int maxPieces = args.length > 3 ? Integer.parseInt(args[3]) : 500;
+        int depth = args.length > 4 ? Integer.parseInt(args[4]) : 6;
+        long firstSeed = args.length > 5 ? Long.parseLong(args[5]) : 0;
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long totalLines = 0;
+        long totalPieces = 0;
+        try (MctsBot bot = new MctsBot(threads, rollouts, depth, 1 << 16, firstSeed)) {
+            Well well = new Well();
+            for (int game = 0; game < games; game++) {
+                Engine engine = new Engine(firstSeed + game);
+                while (!engine.isGameOver() && engine.getPieceCount() < maxPieces) {
+                    Piece piece = engine.getActivePiece();
+                    if (piece == null) {
+                        engine.stepMany(1, InputSource.NONE);
+                        continue;
+                    }
+                    engine.copyWell(well);
+                    long start = System.nanoTime();
+                    int move = bot.decide(well, piece.getKind(), engine.getNextPiece());
+                    latency.record(System.nanoTime() - start);
+                    if (move == NO_PLACEMENT) {
+                        break;
+                    }
+                    engine.place(MoveGenerator.orientationOf(move), MoveGenerator.rowOf(move),
+                            MoveGenerator.colOf(move));
+                }
+                System.out.printf("game %d: %d lines, %d pieces%s%n", game,
+                        engine.getLinesCleared(), engine.getPieceCount(),
+                        engine.isGameOver() ? ", topped out" : "");
+                totalLines += engine.getLinesCleared();
+                totalPieces += engine.getPieceCount();
+            }
+
+            double seconds = bot.getSearchNanos() / 1e9;
+            int cores = Math.min(threads, Runtime.getRuntime().availableProcessors());
+            System.out.printf("%d games, %d rollouts per move of %d pieces on %d threads%n",
+                    games, rollouts, depth, threads);
+            System.out.printf("  %.1f lines, %.1f pieces per game on average%n",
+                    totalLines / (double) games, totalPieces / (double) games);
+            System.out.printf("  decision mean %.2f ms  p50 %.2f ms  p99 %.2f ms  max %.2f ms%n",
+                    latency.getMean() / 1e6, latency.getPercentile(0.5) / 1e6,
+                    latency.getPercentile(0.99) / 1e6, latency.getMax() / 1e6);
+            System.out.printf("  %.0f rollouts/s, %.0f rollouts/s per core%n",
+                    bot.getTotalRollouts() / seconds,
+                    bot.getTotalRollouts() / seconds / cores);
+        }
+    }
+}
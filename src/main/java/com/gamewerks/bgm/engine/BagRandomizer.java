@@ -0,0 +1,97 @@
+package com.gamewerks.bgm.engine;
+
+import java.nio.ByteBuffer;
+
+import com.gamewerks.bgm.util.SplitMix64;
+
+/**
+ * The "7-bag" randomizer: pieces are dealt from a bag holding one of each
+ * kind, shuffled with the Fisher-Yates algorithm, and the bag is refilled
+ * once it runs out.
+ */
+public class BagRandomizer implements Randomizer {
+    /** The last byte of a state written by a bag randomizer. */
+    private static final byte STATE_TAG = 1;
+
+    private SplitMix64 rng;
+    private PieceKind[] bag;
+    private int index;
+
+    /**
+     * Constructs a new bag randomizer.
+     * @param seed the seed of the randomizer
+     */
+    public BagRandomizer(long seed) {
+        this(new SplitMix64(seed));
+    }
+
+    /**
+     * Constructs a new bag randomizer drawing from the given generator.
+     * @param rng the generator, owned by this randomizer from now on
+     */
+    private BagRandomizer(SplitMix64 rng) {
+        this.rng = rng;
+        bag = PieceKind.ALL.clone();
+        index = bag.length;
+    }
+
+    @Override
+    public PieceKind next() {
+        refillIfEmpty();
+        return bag[index++];
+    }
+
+    @Override
+    public PieceKind peek() {
+        refillIfEmpty();
+        return bag[index];
+    }
+
+    @Override
+    public Randomizer split() {
+        return new BagRandomizer(rng.split());
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The state is the generator's, then the bag and the index into it
+     * packed three bits apiece into an <code>int</code>.
+     */
+    @Override
+    public void writeState(ByteBuffer buf, int offset) {
+        int packed = index;
+        for (int i = bag.length - 1; i >= 0; i--) {
+            packed = packed << 3 | bag[i].ordinal();
+        }
+        buf.putLong(offset, rng.getState());
+        buf.putInt(offset + 8, packed);
+        buf.put(offset + STATE_BYTES - 1, STATE_TAG);
+    }
+
+    @Override
+    public void readState(ByteBuffer buf, int offset) {
+        if (buf.get(offset + STATE_BYTES - 1) != STATE_TAG) {
+            throw new IllegalArgumentException("Not the state of a bag randomizer");
+        }
+        rng.setState(buf.getLong(offset));
+        int packed = buf.getInt(offset + 8);
+        for (int i = 0; i < bag.length; i++, packed >>>= 3) {
+            bag[i] = PieceKind.ALL[packed & 7];
+        }
+        index = packed & 7;
+    }
+
+    /** Shuffles the bag and starts dealing from it again, if it is empty. */
+    private void refillIfEmpty() {
+        if (index == bag.length) {
+            for (int i = bag.length - 1; i > 0; i--) {
+                int j = rng.nextInt(i + 1);
+                PieceKind tmp = bag[i];
+                bag[i] = bag[j];
+                bag[j] = tmp;
+            }
+            index = 0;
+        }
+    }
+}
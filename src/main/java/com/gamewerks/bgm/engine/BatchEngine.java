@@ -0,0 +1,595 @@
+package com.gamewerks.bgm.engine;
+
+import java.util.Arrays;
+
+import com.gamewerks.bgm.util.Constants;
+import com.gamewerks.bgm.util.SplitMix64;
+
+/**
+ * Plays many headless games in lockstep. Rather than one {@link Engine}
+ * object graph per game, the state of every game lives in flat primitive
+ * arrays indexed by game: the rows of all wells back to back, and one
+ * array each for the active piece's kind, orientation and position, the
+ * lock and entry counters, the gravity remainder, the keys held, and the
+ * randomizer's bag and generator state. Every call to
+ * {@link #stepMany(int, InputSource[])} moves all games on by the same
+ * number of frames, but since games never interact, it plays each game's
+ * frames back to back rather than one frame of every game at a time, which
+ * would stream the whole batch through the cache on every frame.
+ *
+ * <p>Game <code>i</code> plays exactly as an {@link Engine} built from the
+ * same seed and fed the same input would: it deals pieces like a
+ * {@link BagRandomizer}, uses {@link GameAttributes#DEFAULT}, and applies
+ * the same rules in the same order. Games that end drop out of the loops,
+ * and the others keep going until they end too.
+ */
+public class BatchEngine {
+    private static final int HEIGHT = Constants.BOARD_HEIGHT;
+    private static final int WIDTH = Constants.BOARD_WIDTH;
+    private static final int FULL_ROW = (1 << WIDTH) - 1;
+    private static final int KEYS = KeyKind.ALL.length;
+    private static final int KEY_MASK = (1 << KEYS) - 1;
+    private static final int BAG = PieceKind.ALL.length;
+    private static final int SPAWN_ROW = HEIGHT - 1;
+    private static final int SPAWN_COL = WIDTH / 2 - 2;
+    /** The rotation of a game without an active piece. */
+    private static final int NO_PIECE = -1;
+
+    private static final int LEFT = KeyKind.MOVE_LEFT.mask();
+    private static final int RIGHT = KeyKind.MOVE_RIGHT.mask();
+    private static final int CLOCKWISE = KeyKind.ROTATE_CLOCKWISE.mask();
+    private static final int COUNTERCLOCKWISE = KeyKind.ROTATE_COUNTERCLOCKWISE.mask();
+    private static final int SOFT_DROP = KeyKind.SOFT_DROP.mask();
+    private static final int SONIC_DROP = KeyKind.SONIC_DROP.mask();
+    /** The keys that move the active piece. */
+    private static final int MOVES = LEFT | RIGHT | CLOCKWISE | COUNTERCLOCKWISE;
+
+    /** Set in a game's flags iff a line was cleared on its last frame. */
+    private static final int LINE_CLEARED = 1;
+    private static final int SOFT_DROPPING = 2;
+    private static final int HARD_DROPPING = 4;
+    /** Set in a game's flags iff a piece locked on its current frame. */
+    private static final int LOCKED = 8;
+    private static final int GAME_OVER = 16;
+
+    private static final int ARE = GameAttributes.DEFAULT.are();
+    private static final int DAS = GameAttributes.DEFAULT.das();
+    private static final int LOCK_DELAY = GameAttributes.DEFAULT.lockDelay();
+    private static final int LINE_CLEAR_DELAY = GameAttributes.DEFAULT.lineClearDleay();
+    private static final int GRAVITY = GameAttributes.DEFAULT.gravity();
+
+    /*
+     * Every rotation, flattened and indexed by kind * 4 + orientation: its
+     * extents, and its four row masks from its lowest row up.
+     */
+    private static final int[] MIN_ROW = new int[BAG * 4];
+    private static final int[] MAX_ROW = new int[BAG * 4];
+    private static final int[] MIN_COL = new int[BAG * 4];
+    private static final int[] MAX_COL = new int[BAG * 4];
+    private static final int[] ROW_MASKS = new int[BAG * 4 * 4];
+
+    static {
+        for (PieceKind kind : PieceKind.ALL) {
+            for (int orientation = 0; orientation < 4; orientation++) {
+                Rotation rot = Piece.getRotation(kind, orientation);
+                int r = kind.ordinal() * 4 + orientation;
+                MIN_ROW[r] = rot.getMinRow();
+                MAX_ROW[r] = rot.getMaxRow();
+                MIN_COL[r] = rot.getMinCol();
+                MAX_COL[r] = rot.getMaxCol();
+                for (int row = rot.getMinRow(); row <= rot.getMaxRow(); row++) {
+                    ROW_MASKS[r * 4 + row - rot.getMinRow()] = rot.getRowMask(row);
+                }
+            }
+        }
+    }
+
+    private final int games;
+    /** The rows of every well, game <code>g</code>'s starting at <code>g * HEIGHT</code>. */
+    private final int[] rows;
+    /** The height of every game's stack; every row from it up is empty. */
+    private final int[] stackHeights;
+    /**
+     * The rotation of every game's active piece, as an index into the
+     * rotation tables, i.e., its kind's ordinal times 4 plus its
+     * orientation, or {@link #NO_PIECE}.
+     */
+    private final int[] rotations;
+    private final int[] pieceRows;
+    private final int[] pieceCols;
+    private final int[] gravityDeltas;
+    private final int[] lockCounters;
+    private final int[] entryCounters;
+    private final int[] flags;
+    /** The keys every game holds, as a bitmask of {@link KeyKind#mask()} values. */
+    private final int[] downMasks;
+    /**
+     * For every game, the frames it has held left and right, see
+     * {@link InputState#getFramesHeld}. Only those two keys' times matter,
+     * for auto shift; any other key only matters when just pressed.
+     */
+    private final int[] shiftFrames;
+    /** Every game's bag, game <code>g</code>'s starting at <code>g * BAG</code>. */
+    private final byte[] bags;
+    private final int[] bagIndices;
+    /** The state of every game's generator, see {@link SplitMix64#getState()}. */
+    private final long[] rngStates;
+    private final long[] frameCounts;
+    private final int[] pieceCounts;
+    private final int[] linesCleared;
+    /** The running games, in order; the first {@link #running} entries are valid. */
+    private final int[] live;
+    private int running;
+    /** Draws from every game's generator in turn. */
+    private final SplitMix64 rng = new SplitMix64(0);
+
+    /**
+     * Constructs a batch of fresh games, one per seed, and spawns their
+     * first pieces' entry delays like {@link Engine#Engine(long)} does.
+     * @param seeds the seed of every game's randomizer
+     */
+    public BatchEngine(long[] seeds) {
+        games = seeds.length;
+        rows = new int[games * HEIGHT];
+        stackHeights = new int[games];
+        rotations = new int[games];
+        pieceRows = new int[games];
+        pieceCols = new int[games];
+        gravityDeltas = new int[games];
+        lockCounters = new int[games];
+        entryCounters = new int[games];
+        flags = new int[games];
+        downMasks = new int[games];
+        shiftFrames = new int[games * 2];
+        bags = new byte[games * BAG];
+        bagIndices = new int[games];
+        rngStates = seeds.clone();
+        frameCounts = new long[games];
+        pieceCounts = new int[games];
+        linesCleared = new int[games];
+        live = new int[games];
+        Arrays.fill(rotations, NO_PIECE);
+        for (int g = 0; g < games; g++) {
+            for (int i = 0; i < BAG; i++) {
+                bags[g * BAG + i] = (byte) i;
+            }
+            bagIndices[g] = BAG;
+            live[g] = g;
+            spawn(g);
+        }
+        running = games;
+        removeFinished();
+    }
+
+    /**
+     * Steps every running game up to the given number of frames forward,
+     * pressing and releasing keys as dictated by its input source before
+     * each frame, like {@link Engine#stepMany(int, InputSource)}. Stops early
+     * once every game is over.
+     * @param frames the number of frames to step
+     * @param sources the input source driving each game, indexed by game.
+     *                Sources may be shared between games as long as they are
+     *                stateless.
+     * @return the number of frames actually stepped
+     */
+    public int stepMany(int frames, InputSource[] sources) {
+        if (sources.length != games) {
+            throw new IllegalArgumentException(
+                "Expected " + games + " input sources, got " + sources.length);
+        }
+        // Games never interact, so each one plays its frames back to back,
+        // its state still in cache from the frame before
+        int stepped = 0;
+        for (int i = 0; i < running; i++) {
+            int g = live[i];
+            int played = 0;
+            while (played < frames && (flags[g] & GAME_OVER) == 0) {
+                step(g, sources[g]);
+                played += 1;
+            }
+            stepped = Math.max(stepped, played);
+        }
+        removeFinished();
+        return stepped;
+    }
+
+    /**
+     * Steps a game one frame forward.
+     * @param g the game
+     * @param source the input source driving it
+     */
+    private void step(int g, InputSource source) {
+        if (rotations[g] == NO_PIECE) {
+            spawn(g);
+        }
+        // Unlike the engine, apply the keys after spawning, which does not
+        // read them, and not at all in a game that just ended
+        if ((flags[g] & GAME_OVER) == 0) {
+            processInput(g, applyKeys(g, source.keysHeld(frameCounts[g])));
+            if (rotations[g] != NO_PIECE) {
+                processGravity(g);
+            }
+            int f = flags[g] & ~LINE_CLEARED;
+            if ((f & LOCKED) != 0 && clearCompletedRows(g) > 0) {
+                f |= LINE_CLEARED;
+            }
+            flags[g] = f & ~LOCKED;
+        }
+        frameCounts[g] += 1;
+    }
+
+    /** Drops the games that are over from the running games, keeping their order. */
+    private void removeFinished() {
+        int kept = 0;
+        for (int i = 0; i < running; i++) {
+            int g = live[i];
+            if ((flags[g] & GAME_OVER) == 0) {
+                live[kept++] = g;
+            }
+        }
+        running = kept;
+    }
+
+    /**
+     * Presses and releases keys so that exactly the given keys are held,
+     * like {@link Engine}'s own <code>applyKeys</code>.
+     * @param g the game
+     * @param mask the keys to hold, see {@link InputSource#keysHeld(long)}
+     * @return the keys just pressed
+     */
+    private int applyKeys(int g, int mask) {
+        int down = downMasks[g];
+        int repress = (mask >>> InputSource.REPRESS_SHIFT) & KEY_MASK;
+        int wanted = (mask | repress) & KEY_MASK;
+        int pressed = (wanted & ~down) | repress;
+        if ((pressed & LEFT) != 0) {
+            shiftFrames[2 * g] = 0;
+        }
+        if ((pressed & RIGHT) != 0) {
+            shiftFrames[2 * g + 1] = 0;
+        }
+        downMasks[g] = wanted;
+        return pressed;
+    }
+
+    /**
+     * Counts down the entry delay of a game without an active piece, and
+     * spawns the next piece once it expires. The game is over if that piece
+     * collides with the stack.
+     * @param g the game
+     */
+    private void spawn(int g) {
+        entryCounters[g] += 1;
+        int delay = (flags[g] & LINE_CLEARED) != 0 ? LINE_CLEAR_DELAY : ARE;
+        if (entryCounters[g] >= delay) {
+            int kind = nextPiece(g);
+            rotations[g] = kind * 4;
+            pieceRows[g] = SPAWN_ROW;
+            pieceCols[g] = SPAWN_COL;
+            gravityDeltas[g] = 0;
+            pieceCounts[g] += 1;
+            entryCounters[g] = 0;
+            flags[g] &= ~LINE_CLEARED;
+            if (collides(g, kind * 4, SPAWN_ROW, SPAWN_COL)) {
+                flags[g] |= GAME_OVER;
+            }
+        }
+    }
+
+    /**
+     * Shifts, rotates and starts dropping the active piece as the held keys
+     * dictate, then counts the frame in the keys' held times.
+     * @param g the game
+     * @param pressed the keys just pressed
+     */
+    private void processInput(int g, int pressed) {
+        int down = downMasks[g];
+        // A released key's count is stale until this frame resets it
+        int left = (down & LEFT) != 0 ? shiftFrames[2 * g] : 0;
+        int right = (down & RIGHT) != 0 ? shiftFrames[2 * g + 1] : 0;
+        if (rotations[g] != NO_PIECE && ((down | pressed) & MOVES) != 0) {
+            if ((pressed & LEFT) != 0 || left > DAS) {
+                tryMovePiece(g, -1);
+            } else if ((pressed & RIGHT) != 0 || right > DAS) {
+                tryMovePiece(g, 1);
+            }
+            if ((pressed & CLOCKWISE) != 0) {
+                tryRotatePiece(g, 1);
+            } else if ((pressed & COUNTERCLOCKWISE) != 0) {
+                tryRotatePiece(g, 3);
+            }
+        }
+        int f = flags[g] & ~SOFT_DROPPING;
+        if ((down & SOFT_DROP) != 0) {
+            f |= SOFT_DROPPING;
+        }
+        if ((pressed & SONIC_DROP) != 0) {
+            f |= HARD_DROPPING;
+        }
+        flags[g] = f;
+        shiftFrames[2 * g] = (down & LEFT) != 0 ? left + 1 : 0;
+        shiftFrames[2 * g + 1] = (down & RIGHT) != 0 ? right + 1 : 0;
+    }
+
+    /**
+     * Shifts the active piece sideways, unless that would collide.
+     * @param g the game
+     * @param dCol the number of columns to shift by
+     */
+    private void tryMovePiece(int g, int dCol) {
+        int col = pieceCols[g] + dCol;
+        if (!collides(g, rotations[g], pieceRows[g], col)) {
+            pieceCols[g] = col;
+        }
+    }
+
+    /**
+     * Rotates the active piece, unless that would collide.
+     * @param g the game
+     * @param turns the number of clockwise quarter turns, 1 or 3
+     */
+    private void tryRotatePiece(int g, int turns) {
+        int rot = rotations[g];
+        int turned = (rot & ~3) | ((rot + turns) & 3);
+        if (!collides(g, turned, pieceRows[g], pieceCols[g])) {
+            rotations[g] = turned;
+        }
+    }
+
+    /**
+     * Applies gravity to the active piece, locking it once it cannot fall.
+     * @param g the game
+     */
+    private void processGravity(int g) {
+        int f = flags[g];
+        int gravDelta = GRAVITY;
+        if ((f & HARD_DROPPING) != 0) {
+            gravDelta = Constants.GRAVITY_20G;
+            flags[g] = f & ~HARD_DROPPING;
+        } else if ((f & SOFT_DROPPING) != 0) {
+            gravDelta = Constants.GRAVITY_SOFT_DROP;
+        }
+        int rot = rotations[g];
+        int row = pieceRows[g];
+        int col = pieceCols[g];
+        int sum = gravityDeltas[g] + gravDelta;
+        int whole = sum / Constants.GRAVITY_UNIT;
+        int rem = sum % Constants.GRAVITY_UNIT;
+
+        if (whole == 0) {
+            // Unlike the engine, skip checking whether the piece collides
+            // where it is: it only ever moves where it fits, so it never does
+            gravityDeltas[g] = rem;
+        } else {
+            int fall = dropDistance(g, rot, row, col, whole);
+            if (fall == 0) {
+                tryLockPiece(g);
+                return;
+            }
+            pieceRows[g] = row - fall;
+            gravityDeltas[g] = fall == whole ? rem : 0;
+        }
+        lockCounters[g] = 0;
+    }
+
+    /**
+     * Locks the active piece into the well once its lock delay expires
+     * (immediately when soft dropping).
+     * @param g the game
+     */
+    private void tryLockPiece(int g) {
+        if ((flags[g] & SOFT_DROPPING) != 0 || lockCounters[g] >= LOCK_DELAY) {
+            int rot = rotations[g];
+            int row = pieceRows[g];
+            int col = pieceCols[g];
+            // A piece only ever rests where it does not collide, so it lies within the well
+            int base = g * HEIGHT + row;
+            for (int r = MIN_ROW[rot]; r <= MAX_ROW[rot]; r++) {
+                int mask = ROW_MASKS[rot * 4 + r - MIN_ROW[rot]];
+                rows[base + r] |= col >= 0 ? mask << col : mask >>> -col;
+            }
+            stackHeights[g] = Math.max(stackHeights[g], row + MAX_ROW[rot] + 1);
+            flags[g] |= LOCKED;
+            lockCounters[g] = 0;
+            rotations[g] = NO_PIECE;
+        } else {
+            lockCounters[g] += 1;
+        }
+    }
+
+    /**
+     * Deletes every completed row of a game's well, shifting the rows above
+     * downwards.
+     * @param g the game
+     * @return the number of rows deleted
+     */
+    private int clearCompletedRows(int g) {
+        int base = g * HEIGHT;
+        int top = stackHeights[g];
+        int dst = 0;
+        for (int src = 0; src < top; src++) {
+            int mask = rows[base + src];
+            if (mask != FULL_ROW) {
+                rows[base + dst++] = mask;
+            }
+        }
+        int cleared = top - dst;
+        if (cleared > 0) {
+            Arrays.fill(rows, base + dst, base + top, 0);
+            while (dst > 0 && rows[base + dst - 1] == 0) {
+                dst -= 1;
+            }
+            stackHeights[g] = dst;
+            linesCleared[g] += cleared;
+        }
+        return cleared;
+    }
+
+    /**
+     * @param g the game
+     * @param rot the rotation, as an index into the rotation tables
+     * @param row the row of the piece's position
+     * @param col the column of the piece's position
+     * @return true iff the given piece collides with the game's well or lies
+     *         outside of it, see {@link Well#collides(Rotation, int, int)}
+     */
+    private boolean collides(int g, int rot, int row, int col) {
+        int minRow = MIN_ROW[rot];
+        int maxRow = MAX_ROW[rot];
+        if (row + minRow < 0 || row + maxRow >= HEIGHT
+                || col + MIN_COL[rot] < 0 || col + MAX_COL[rot] >= WIDTH) {
+            return true;
+        }
+        int base = g * HEIGHT + row;
+        for (int r = minRow; r <= maxRow; r++) {
+            int mask = ROW_MASKS[rot * 4 + r - minRow];
+            int shifted = col >= 0 ? mask << col : mask >>> -col;
+            if ((rows[base + r] & shifted) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param g the game
+     * @param rot the rotation, as an index into the rotation tables
+     * @param row the row of the piece's position, which must not collide
+     * @param col the column of the piece's position
+     * @param maxRows the furthest the piece may fall
+     * @return how many rows, up to <code>maxRows</code>, the piece can fall,
+     *         see {@link Well#dropDistance(Rotation, int, int, int)}
+     */
+    private int dropDistance(int g, int rot, int row, int col, int maxRows) {
+        int limit = Math.min(maxRows, row + MIN_ROW[rot]);
+        int free = row + MIN_ROW[rot] - stackHeights[g];
+        for (int dist = Math.max(1, free + 1); dist <= limit; dist++) {
+            if (collides(g, rot, row - dist, col)) {
+                return dist - 1;
+            }
+        }
+        return Math.max(limit, 0);
+    }
+
+    /**
+     * Deals a game's next piece from its bag, like {@link BagRandomizer#next()}.
+     * @param g the game
+     * @return the ordinal of the piece's kind
+     */
+    private int nextPiece(int g) {
+        refillIfEmpty(g);
+        return bags[g * BAG + bagIndices[g]++];
+    }
+
+    /**
+     * Shuffles a game's bag if it is empty, like {@link BagRandomizer} does.
+     * @param g the game
+     */
+    private void refillIfEmpty(int g) {
+        if (bagIndices[g] == BAG) {
+            int base = g * BAG;
+            rng.setState(rngStates[g]);
+            for (int i = BAG - 1; i > 0; i--) {
+                int j = rng.nextInt(i + 1);
+                byte tmp = bags[base + i];
+                bags[base + i] = bags[base + j];
+                bags[base + j] = tmp;
+            }
+            rngStates[g] = rng.getState();
+            bagIndices[g] = 0;
+        }
+    }
+
+    /** @return the number of games in this batch */
+    public int getGames() {
+        return games;
+    }
+
+    /** @return the number of games that are not over yet */
+    public int getRunningGames() {
+        return running;
+    }
+
+    /**
+     * @param g the game
+     * @return true iff the given game is over
+     */
+    public boolean isGameOver(int g) {
+        return (flags[g] & GAME_OVER) != 0;
+    }
+
+    /**
+     * @param g the game
+     * @return the number of frames the given game has been stepped
+     */
+    public long getFrameCount(int g) {
+        return frameCounts[g];
+    }
+
+    /**
+     * @param g the game
+     * @return the number of pieces spawned in the given game, including the
+     *         active piece
+     */
+    public int getPieceCount(int g) {
+        return pieceCounts[g];
+    }
+
+    /**
+     * @param g the game
+     * @return the number of lines cleared in the given game
+     */
+    public int getLinesCleared(int g) {
+        return linesCleared[g];
+    }
+
+    /**
+     * @param g the game
+     * @param row the row of the well
+     * @return the filled cells of the given row, see {@link Well#getRowMask(int)}
+     */
+    public int getRowMask(int g, int row) {
+        return rows[g * HEIGHT + row];
+    }
+
+    /**
+     * @param g the game
+     * @return the kind of the given game's active piece, or null if there is none
+     */
+    public PieceKind getPieceKind(int g) {
+        return rotations[g] == NO_PIECE ? null : PieceKind.ALL[rotations[g] >> 2];
+    }
+
+    /**
+     * @param g the game
+     * @return the orientation of the given game's active piece
+     */
+    public int getOrientation(int g) {
+        return rotations[g] & 3;
+    }
+
+    /**
+     * @param g the game
+     * @return the row of the given game's active piece
+     */
+    public int getPieceRow(int g) {
+        return pieceRows[g];
+    }
+
+    /**
+     * @param g the game
+     * @return the column of the given game's active piece
+     */
+    public int getPieceCol(int g) {
+        return pieceCols[g];
+    }
+
+    /**
+     * @param g the game
+     * @return the kind of the next piece to spawn in the given game
+     */
+    public PieceKind getNextPiece(int g) {
+        refillIfEmpty(g);
+        return PieceKind.ALL[bags[g * BAG + bagIndices[g]]];
+    }
+}
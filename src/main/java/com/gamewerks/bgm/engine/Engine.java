@@ -1,47 +1,126 @@
 package com.gamewerks.bgm.engine;
 
-import java.util.List;
+import java.nio.ByteBuffer;
 import java.util.concurrent.ThreadLocalRandom;
 
+import com.gamewerks.bgm.metrics.EngineMetrics;
+import com.gamewerks.bgm.metrics.EngineMetrics.Phase;
 import com.gamewerks.bgm.util.Constants;
 import com.gamewerks.bgm.util.Position;
+import com.gamewerks.bgm.util.TripleBuffer;
 
 /**
  * The core engine of the Blocky game, responsible for managing and updating
  * the game state. A blocky game consists of the well, the currently active
  * piece, and all the internal state necessary to manage their interactions.
+ *
+ * <p>The engine has no dependency on AWT or Swing. Besides being stepped by
+ * <code>Main</code>'s game loop, it can run headless via
+ * {@link #stepMany(int, InputSource)}, as fast as the CPU allows.
  */
 public class Engine {
+    /*
+     * The layout of a state written by writeState: the packed well, the
+     * frame count, the randomizer, the other counters, the input state, and
+     * finally the active piece (its kind plus one, zero if there is none,
+     * shifted above its orientation), its row and column, the flags, the
+     * piece's gravity delta and the lock and entry counters.
+     */
+    private static final int WELL_OFFSET = 0;
+    private static final int FRAME_OFFSET = WELL_OFFSET + new Well().getPackedBytes();
+    private static final int RANDOMIZER_OFFSET = FRAME_OFFSET + Long.BYTES;
+    private static final int PIECES_OFFSET = RANDOMIZER_OFFSET + Randomizer.STATE_BYTES;
+    private static final int LINES_OFFSET = PIECES_OFFSET + Integer.BYTES;
+    private static final int VERSION_OFFSET = LINES_OFFSET + Integer.BYTES;
+    private static final int INPUT_OFFSET = VERSION_OFFSET + Integer.BYTES;
+    private static final int PIECE_OFFSET = INPUT_OFFSET + InputState.STATE_BYTES;
+    private static final int ROW_OFFSET = PIECE_OFFSET + 1;
+    private static final int COL_OFFSET = ROW_OFFSET + 1;
+    private static final int FLAGS_OFFSET = COL_OFFSET + 1;
+    private static final int DELTA_OFFSET = FLAGS_OFFSET + 1;
+    private static final int LOCK_OFFSET = DELTA_OFFSET + Short.BYTES;
+    private static final int ENTRY_OFFSET = LOCK_OFFSET + Short.BYTES;
+
+    private static final int LINE_WAS_CLEARED = 1;
+    private static final int SOFT_DROPPING = 2;
+    private static final int HARD_DROPPING = 4;
+    private static final int GAME_OVER = 8;
+
+    /**
+     * The number of bytes {@link #writeState(ByteBuffer, int)} writes,
+     * rounded up to a multiple of 8 so that consecutive states stay aligned.
+     */
+    public static final int STATE_BYTES = (ENTRY_OFFSET + Short.BYTES + 7) & ~7;
+
     private Well board;
     private Piece activePiece;
+    /** The piece reused for every spawn, so that spawning does not allocate. */
+    private Piece spawnedPiece;
     private GameAttributes attrs;
     private InputState input;
-    private PieceKind[] randy = PieceKind.ALL;
+    /** Key events from other threads, applied at the start of the next frame. */
+    private InputQueue events;
+    private Randomizer randomizer;
 
     private int lockCounter;
     private int entryCounter;
-    private int randyIndex = PieceKind.ALL.length;
     private boolean lineWasCleared;
     private boolean isSoftDropping;
     private boolean isHardDropping;
+    private boolean isGameOver;
+    private InputRecorder recorder;
+    private TripleBuffer<FrameSnapshot> snapshots;
+    private EngineMetrics metrics;
+    private RewindBuffer rewind;
+    /** The state being rewound to, see {@link #rewindTo(long)}. */
+    private ByteBuffer rewindState;
+    private long frameCount;
+    private int pieceCount;
+    private int linesCleared;
+    /** Counts changes to the well, see {@link #getWellVersion()}. */
+    private int wellVersion;
 
-    /** Constructs a new Blocky game engine with default attributes. */
+    /**
+     * Constructs a new Blocky game engine with default attributes, dealing
+     * pieces from a 7-bag randomizer with an arbitrary seed.
+     */
     public Engine() {
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * Constructs a new Blocky game engine with default attributes, dealing
+     * pieces from a 7-bag randomizer with the given seed. Two engines built
+     * from the same seed and fed the same input play out identically.
+     * @param seed the seed of the randomizer
+     */
+    public Engine(long seed) {
+        this(new BagRandomizer(seed));
+    }
+
+    /**
+     * Constructs a new Blocky game engine with default attributes.
+     * @param randomizer the randomizer dealing this game's pieces, owned by
+     *                   this engine from now on
+     */
+    public Engine(Randomizer randomizer) {
+        this.randomizer = randomizer;
         board = new Well();
         lockCounter = 0;
         entryCounter = 0;
         lineWasCleared = false;
         isSoftDropping = false;
         isHardDropping = false;
-        attrs = new GameAttributes(48, 25, 14, 30, 40, 24);
+        attrs = GameAttributes.DEFAULT;
         input = new InputState();
+        events = new InputQueue();
         trySpawnBlock();
     }
 
     /**
      * Tries to spawn a block at the center-top of the well. Only does so if
-     * there is no currently active piece. The game ends if spawning the block
-     * immediately causes a collision.
+     * there is no currently active piece. The game is over if spawning the
+     * block immediately causes a collision.
      */
     private void trySpawnBlock() {
         if (activePiece == null) {
@@ -55,26 +134,39 @@ public class Engine {
                 delay = attrs.are(); 
             }
             if (entryCounter >= delay) {
-                activePiece = new Piece(nextPiece(), 
-                        new Position(Constants.BOARD_HEIGHT - 1, Constants.BOARD_WIDTH / 2 - 2));
+                PieceKind kind = randomizer.next();
+                int row = Constants.BOARD_HEIGHT - 1;
+                int col = Constants.BOARD_WIDTH / 2 - 2;
+                if (spawnedPiece == null) {
+                    spawnedPiece = new Piece(kind, new Position(row, col));
+                } else {
+                    spawnedPiece.reset(kind, row, col);
+                }
+                activePiece = spawnedPiece;
+                pieceCount += 1;
+                if (metrics != null) {
+                    metrics.pieceSpawned();
+                }
                 entryCounter = 0;
                 lineWasCleared = false;
                 if (board.collides(activePiece)) {
-                    System.exit(0);
+                    isGameOver = true;
                 }
             }
         }
     }
 
     /**
-     * Try to move the active piece to the new position, resetting if the
-     * movement would cause a collision.
+     * Try to shift the active piece sideways, resetting if the movement
+     * would cause a collision.
      * 
-     * @param newPos the candidate position
+     * @param dCol the number of columns to shift by, negative to shift left
      */
-    private void tryMovePiece(Position newPos) {
-        if (!board.collides(activePiece.getLayout(), newPos)) {
-            activePiece.moveTo(newPos);
+    private void tryMovePiece(int dCol) {
+        int row = activePiece.getRow();
+        int col = activePiece.getCol() + dCol;
+        if (!board.collides(activePiece.getRotation(), row, col)) {
+            activePiece.moveTo(row, col, activePiece.getGravityDelta());
         }
     }
 
@@ -100,10 +192,10 @@ public class Engine {
             // 1. Process shifting
             if (input.isJustPressed(KeyKind.MOVE_LEFT)
                     || input.getFramesHeld(KeyKind.MOVE_LEFT) > attrs.das()) {
-                tryMovePiece(activePiece.getPosition().add(0, -1));
+                tryMovePiece(-1);
             } else if (input.isJustPressed(KeyKind.MOVE_RIGHT)
                     || input.getFramesHeld(KeyKind.MOVE_RIGHT) > attrs.das()) {
-                tryMovePiece(activePiece.getPosition().add(0, 1));
+                tryMovePiece(1);
             }
 
             // 2. Process rotations
@@ -130,12 +222,15 @@ public class Engine {
         input.step();
     }
 
-    /** Processes gravity, applying downward movement to the active piece. */
+    /**
+     * Processes gravity, applying downward movement to the active piece.
+     * Rather than walking every row crossed, the landing row is computed
+     * directly from the well, so that no intermediate positions are created.
+     */
     private void processGravity() {
         if (activePiece == null) {
             return;
         }
-        Position candidate = activePiece.getPosition();
         int gravDelta = attrs.gravity();
         if (isHardDropping) {
             gravDelta = Constants.GRAVITY_20G;
@@ -143,86 +238,418 @@ public class Engine {
         } else if (isSoftDropping) {
             gravDelta = Constants.GRAVITY_SOFT_DROP;
         }
-        List<Position> path = candidate.getPathFromGravity(gravDelta);
-
-        // Check whether a collision occurs on each position on the path
-        for (Position next : path) {
-            if (board.collides(activePiece.getLayout(), next)) {
-                if (candidate.equals(activePiece.getPosition())) {
-                    if (isSoftDropping || lockCounter >= attrs.lockDelay()) {
-                        board.addToWell(activePiece);
-                        lockCounter = 0;
-                        activePiece = null;
-                    } else {
-                        lockCounter += 1;
-                    }
-                    return;
-                } else {
-                    // The candidate is where the piece moves AND it is
-                    // different from the current position. Don't continue
-                    // searching through the path!
-                    break;
-                }
-            } else {
-                candidate = next;
+        Rotation rot = activePiece.getRotation();
+        int row = activePiece.getRow();
+        int col = activePiece.getCol();
+        int sum = activePiece.getGravityDelta() + gravDelta;
+        int whole = sum / Constants.GRAVITY_UNIT;
+        int rem = sum % Constants.GRAVITY_UNIT;
+
+        if (whole == 0) {
+            // Gravity only accumulates in the piece's gravity delta
+            if (board.collides(rot, row, col)) {
+                tryLockPiece();
+                return;
+            }
+            activePiece.moveTo(row, col, rem);
+        } else {
+            int fall = board.dropDistance(rot, row, col, whole);
+            if (fall == 0) {
+                tryLockPiece();
+                return;
             }
+            // The left-over gravity delta only carries over if the piece fell
+            // the full distance rather than landing on the stack.
+            activePiece.moveTo(row - fall, col, fall == whole ? rem : 0);
         }
-        // If we get this far, then we have a new candidate distinct from the
-        // original position. Move the piece there and reset the lock counter.
+        // If we get this far, then the piece moved. Reset the lock counter.
         lockCounter = 0;
-        activePiece.moveTo(candidate);
     }
 
     /**
-     * Returns the next piece from the array. If the list is empty it reshuffles and
-     * resets index before drawing.
-     * 
-     * @return the next piece
+     * Locks the active piece, which cannot fall any further, into the well
+     * once its lock delay expires (immediately when soft dropping).
      */
-
-    private PieceKind nextPiece() {
-        if (randyIndex == randy.length) {
-            shuffle(randy);
-            randyIndex = 0;
+    private void tryLockPiece() {
+        if (isSoftDropping || lockCounter >= attrs.lockDelay()) {
+            lockPiece();
+        } else {
+            lockCounter += 1;
         }
-        return randy[randyIndex++];
+    }
 
+    /** Locks the active piece into the well where it is. */
+    private void lockPiece() {
+        board.addToWell(activePiece);
+        if (metrics != null) {
+            metrics.pieceLocked();
+        }
+        wellVersion += 1;
+        lockCounter = 0;
+        activePiece = null;
     }
 
     /**
-     * Shuffles the given array of pieces in place using the Fisher-Yates algorithm
+     * Compute and process all cleared lines from the well
      * 
-     * @param arr the array to shuffle
+     * @return true iff at least one line is cleared
      */
+    private boolean processClearedLines() {
+        int cleared = board.clearCompletedRows();
+        if (cleared > 0) {
+            linesCleared += cleared;
+            if (metrics != null) {
+                metrics.linesCleared(cleared);
+            }
+            wellVersion += 1;
+        }
+        return cleared > 0;
+    }
 
-    private void shuffle(PieceKind[] arr) {
-        for (int i = arr.length - 1; i > 0; i--) {
-            int randy2 = ThreadLocalRandom.current().nextInt(i + 1);
-            PieceKind tempy = arr[i];
-            arr[i] = arr[randy2];
-            arr[randy2] = tempy;
+    /**
+     * Steps the game engine one frame forward, first applying every key
+     * event queued so far. Does nothing once the game is over.
+     */
+    public void step() {
+        step(Long.MAX_VALUE);
+    }
 
+    /**
+     * Steps the game engine one frame forward, first applying the key events
+     * queued by {@link #keyDown(KeyKind)} and {@link #keyUp(KeyKind)} that
+     * happened at or before the given time. Later events wait for a later
+     * frame, so that a burst of frames caught up at once sees each event on
+     * the frame it belongs to. Does nothing once the game is over.
+     * @param frameTime the time the frame is due, in {@link System#nanoTime()} time
+     */
+    public void step(long frameTime) {
+        if (isGameOver) {
+            return;
+        }
+        EngineMetrics m = metrics;
+        long start = 0;
+        if (m != null) {
+            start = System.nanoTime();
+            if (frameTime != Long.MAX_VALUE) {
+                m.frameStarted(start - frameTime);
+            }
+        }
+        events.drainTo(input, frameTime);
+        frameCount += 1;
+        if (recorder != null) {
+            recorder.record(input.getHeldMask(), input.getPressedMask());
         }
+        long lap = m != null ? System.nanoTime() : 0;
+        trySpawnBlock();
+        if (m != null) {
+            lap = m.lap(Phase.SPAWN, lap);
+        }
+        if (!isGameOver) {
+            processInput();
+            if (m != null) {
+                lap = m.lap(Phase.INPUT, lap);
+            }
+            processGravity();
+            if (m != null) {
+                lap = m.lap(Phase.GRAVITY, lap);
+            }
+            lineWasCleared = processClearedLines();
+            if (m != null) {
+                m.lap(Phase.LINES, lap);
+            }
+        }
+        if (rewind != null) {
+            rewind.record(this);
+        }
+        if (snapshots != null) {
+            publishSnapshot();
+        }
+        if (m != null) {
+            m.lap(Phase.FRAME, start);
+        }
+    }
 
+    /** Publishes a snapshot of the current frame to the snapshot buffer. */
+    private void publishSnapshot() {
+        copySnapshot(snapshots.getBack());
+        snapshots.publish();
     }
 
     /**
-     * Compute and process all cleared lines from the well
-     * 
-     * @return true iff at least one line is cleared
+     * Copies the current frame into the given snapshot, e.g., to send it
+     * elsewhere. Must be called from the game thread.
+     * @param snapshot the snapshot to overwrite
      */
-    private boolean processClearedLines() {
-        List<Integer> completedRows = board.getCompletedRows();
-        board.deleteRows(completedRows);
-        return completedRows.size() > 0;
+    public void copySnapshot(FrameSnapshot snapshot) {
+        snapshot.capture(board, activePiece, this);
     }
 
-    /** Steps the game engine one frame forward. */
-    public void step() {
-        trySpawnBlock();
-        processInput();
-        processGravity();
+    /**
+     * Packs the whole state of this game into {@link #STATE_BYTES} bytes of
+     * the given buffer, e.g., to park it off the heap: the well, the active
+     * piece, every counter, the randomizer and the input state. Key events
+     * still queued for the next frame, and whatever records, publishes or
+     * times the frames, are not part of it. Must be called from the game
+     * thread.
+     * @param buf the buffer
+     * @param offset the index of the first byte to write
+     */
+    public void writeState(ByteBuffer buf, int offset) {
+        board.writeRows(buf, offset + WELL_OFFSET);
+        buf.putLong(offset + FRAME_OFFSET, frameCount);
+        randomizer.writeState(buf, offset + RANDOMIZER_OFFSET);
+        buf.putInt(offset + PIECES_OFFSET, pieceCount);
+        buf.putInt(offset + LINES_OFFSET, linesCleared);
+        buf.putInt(offset + VERSION_OFFSET, wellVersion);
+        input.writeState(buf, offset + INPUT_OFFSET);
+        Piece p = activePiece;
+        buf.put(offset + PIECE_OFFSET,
+                (byte) (p == null ? 0 : (p.getKind().ordinal() + 1) << 2 | p.getOrientation()));
+        buf.put(offset + ROW_OFFSET, (byte) (p == null ? 0 : p.getRow()));
+        buf.put(offset + COL_OFFSET, (byte) (p == null ? 0 : p.getCol()));
+        buf.put(offset + FLAGS_OFFSET, (byte) ((lineWasCleared ? LINE_WAS_CLEARED : 0)
+                | (isSoftDropping ? SOFT_DROPPING : 0) | (isHardDropping ? HARD_DROPPING : 0)
+                | (isGameOver ? GAME_OVER : 0)));
+        buf.putShort(offset + DELTA_OFFSET, (short) (p == null ? 0 : p.getGravityDelta()));
+        buf.putShort(offset + LOCK_OFFSET, (short) lockCounter);
+        buf.putShort(offset + ENTRY_OFFSET, (short) entryCounter);
+    }
+
+    /**
+     * Restores a state written by {@link #writeState(ByteBuffer, int)}, so
+     * that this game plays on exactly as the game that wrote it would have.
+     * This engine's randomizer must be of the same kind as that game's.
+     * Leaves queued key events as they are, and publishes a snapshot of the
+     * restored frame if snapshots are published. Must be called from the
+     * game thread.
+     * @param buf the buffer
+     * @param offset the index of the first byte to read
+     * @throws IllegalArgumentException if the randomizers differ in kind
+     */
+    public void readState(ByteBuffer buf, int offset) {
+        randomizer.readState(buf, offset + RANDOMIZER_OFFSET);
+        board.readRows(buf, offset + WELL_OFFSET);
+        frameCount = buf.getLong(offset + FRAME_OFFSET);
+        pieceCount = buf.getInt(offset + PIECES_OFFSET);
+        linesCleared = buf.getInt(offset + LINES_OFFSET);
+        wellVersion = buf.getInt(offset + VERSION_OFFSET);
+        input.readState(buf, offset + INPUT_OFFSET);
+        int piece = buf.get(offset + PIECE_OFFSET);
+        if (piece == 0) {
+            activePiece = null;
+        } else {
+            if (spawnedPiece == null) {
+                spawnedPiece = new Piece(PieceKind.I, new Position(0, 0));
+            }
+            spawnedPiece.reset(PieceKind.ALL[(piece >> 2) - 1], piece & 3,
+                    buf.get(offset + ROW_OFFSET), buf.get(offset + COL_OFFSET),
+                    buf.getShort(offset + DELTA_OFFSET));
+            activePiece = spawnedPiece;
+        }
+        int flags = buf.get(offset + FLAGS_OFFSET);
+        lineWasCleared = (flags & LINE_WAS_CLEARED) != 0;
+        isSoftDropping = (flags & SOFT_DROPPING) != 0;
+        isHardDropping = (flags & HARD_DROPPING) != 0;
+        isGameOver = (flags & GAME_OVER) != 0;
+        lockCounter = buf.getShort(offset + LOCK_OFFSET);
+        entryCounter = buf.getShort(offset + ENTRY_OFFSET);
+        if (snapshots != null) {
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Steps the game engine up to the given number of frames forward,
+     * pressing and releasing keys as dictated by the given input source
+     * before each frame. Stops early if the game ends.
+     *
+     * @param frames the number of frames to step
+     * @param source the input source driving the game
+     * @return the number of frames actually stepped
+     */
+    public int stepMany(int frames, InputSource source) {
+        int stepped = 0;
+        while (stepped < frames && !isGameOver) {
+            applyKeys(source.keysHeld(frameCount));
+            step();
+            stepped += 1;
+        }
+        return stepped;
+    }
+
+    /**
+     * Places the active piece at once where it comes to rest, e.g., at a
+     * placement {@link MoveGenerator} found for a bot, locking it and
+     * clearing lines as if it had been moved and dropped there, then plays
+     * on with no key held until the next piece spawns or the game ends. The
+     * placement itself takes no frame, so a game played this way cannot be
+     * replayed from its input. Must be called from the game thread.
+     * @param orientation the orientation of the piece, in <code>[0, 4)</code>
+     * @param row the row of the piece's position
+     * @param col the column of the piece's position
+     * @return the number of frames played until the next piece spawned
+     * @throws IllegalStateException if there is no active piece
+     * @throws IllegalArgumentException if the piece does not fit there, or
+     *                                  would fall further
+     */
+    public int place(int orientation, int row, int col) {
+        if (activePiece == null || isGameOver) {
+            throw new IllegalStateException("No active piece to place");
+        }
+        PieceKind kind = activePiece.getKind();
+        Rotation rot = Piece.getRotation(kind, orientation);
+        if (board.collides(rot, row, col)) {
+            throw new IllegalArgumentException(kind + " does not fit in orientation "
+                    + orientation + " at (" + row + ", " + col + ")");
+        }
+        if (board.dropDistance(rot, row, col, 1) != 0) {
+            throw new IllegalArgumentException(kind + " does not come to rest in orientation "
+                    + orientation + " at (" + row + ", " + col + ")");
+        }
+        activePiece.reset(kind, orientation, row, col, 0);
+        lockPiece();
+        isSoftDropping = false;
+        isHardDropping = false;
         lineWasCleared = processClearedLines();
+        int frames = 0;
+        while (activePiece == null && !isGameOver) {
+            applyKeys(0);
+            step();
+            frames += 1;
+        }
+        return frames;
+    }
+
+    /**
+     * Copies the well into the given well of the same size, e.g., for a bot
+     * to search from. Must be called from the game thread.
+     * @param well the well to overwrite
+     */
+    public void copyWell(Well well) {
+        well.copyFrom(board);
+    }
+
+    /**
+     * Presses and releases keys so that exactly the given keys are held.
+     * @param mask the keys to hold as a bitmask of {@link KeyKind#mask()}
+     *             values, see {@link InputSource#keysHeld(long)}
+     */
+    private void applyKeys(int mask) {
+        int repress = mask >>> InputSource.REPRESS_SHIFT;
+        for (KeyKind key : KeyKind.ALL) {
+            boolean down = (mask & key.mask()) != 0;
+            if ((repress & key.mask()) != 0) {
+                input.keyUp(key);
+                input.keyDown(key);
+            } else if (down != input.isHeld(key)) {
+                if (down) {
+                    input.keyDown(key);
+                } else {
+                    input.keyUp(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts reporting the input of every subsequent frame to the given
+     * recorder. Record from a fresh game to be able to replay it.
+     * @param recorder the recorder, or null to stop recording
+     */
+    public void setInputRecorder(InputRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Starts publishing a snapshot of every subsequent frame to the given
+     * buffer, this engine's thread being its writer, and publishes one of
+     * the current frame right away.
+     * @param snapshots the buffer, or null to stop publishing
+     */
+    public void setSnapshotBuffer(TripleBuffer<FrameSnapshot> snapshots) {
+        this.snapshots = snapshots;
+        if (snapshots != null) {
+            publishSnapshot();
+        }
+    }
+
+    /**
+     * Starts recording every subsequent frame into the given rewind buffer,
+     * starting over from the current frame, so that the game can be rewound
+     * to any frame it still holds. Must be called from the game thread, or
+     * before it starts.
+     * @param rewind the buffer, or null to stop recording
+     */
+    public void setRewindBuffer(RewindBuffer rewind) {
+        this.rewind = rewind;
+        if (rewind != null) {
+            if (rewindState == null) {
+                rewindState = ByteBuffer.allocate(STATE_BYTES);
+            }
+            rewind.clear();
+            rewind.record(this);
+        }
+    }
+
+    /**
+     * Rewinds the game to a frame its rewind buffer holds, e.g., to retry a
+     * placement in training mode; the frames after it are dropped from the
+     * buffer once the game moves on. The keys held right now stay held, as
+     * the player is still holding them, and the well's version moves on
+     * rather than back, so that views notice the change. Must be called
+     * from the game thread.
+     * @param frame the frame to rewind to
+     * @return true iff the game was rewound, false if no rewind buffer holds
+     *         the frame
+     */
+    public boolean rewindTo(long frame) {
+        if (rewind == null || !rewind.contains(frame)) {
+            return false;
+        }
+        rewind.copyState(frame, rewindState, 0);
+        input.writeState(rewindState, INPUT_OFFSET);
+        rewindState.putInt(VERSION_OFFSET, wellVersion + 1);
+        readState(rewindState, 0);
+        return true;
+    }
+
+    /**
+     * Starts recording timings and counters of every subsequent frame into
+     * the given metrics. Must be called from the game thread, or before it
+     * starts.
+     * @param metrics the metrics, or null to stop recording
+     */
+    public void setMetrics(EngineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** @return true iff the game is over, i.e., a piece spawned into the stack */
+    public boolean isGameOver() {
+        return isGameOver;
+    }
+
+    /** @return the number of frames this game has been stepped */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /** @return the number of pieces spawned so far, including the active piece */
+    public int getPieceCount() {
+        return pieceCount;
+    }
+
+    /** @return the number of lines cleared so far */
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    /**
+     * @return a counter that changes whenever the well changes, i.e., when a
+     *         piece locks or lines are cleared, so that views of the well
+     *         can tell when they are stale without comparing it cell by cell
+     */
+    public int getWellVersion() {
+        return wellVersion;
     }
 
     /** @return the well associated to this board. */
@@ -230,26 +657,35 @@ public class Engine {
         return board.getGrid();
     }
 
+    /** @return the kind of the next piece to spawn, i.e., the preview piece. */
+    public PieceKind getNextPiece() {
+        return randomizer.peek();
+    }
+
     /** @return the currently active piece. */
     public Piece getActivePiece() {
         return activePiece;
     }
 
     /**
-     * Notifies the game that the given key has been pressed.
+     * Notifies the game that the given key has been pressed. The event is
+     * queued, timestamped, and applied at the start of the next frame, so
+     * this may be called from a thread other than the game's (e.g., the
+     * Swing event dispatch thread), as long as it is always the same one.
      * 
      * @param key the pressed key
      */
     public void keyDown(KeyKind key) {
-        input.keyDown(key);
+        events.offer(key, true, System.nanoTime());
     }
 
     /**
-     * Notifies the game that the given key has been released.
+     * Notifies the game that the given key has been released. Like
+     * {@link #keyDown(KeyKind)}, the event is queued for the next frame.
      * 
      * @param key the released key
      */
     public void keyUp(KeyKind key) {
-        input.keyUp(key);
+        events.offer(key, false, System.nanoTime());
     }
 }
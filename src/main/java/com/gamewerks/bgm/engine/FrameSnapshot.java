@@ -0,0 +1,133 @@
+package com.gamewerks.bgm.engine;
+
+/**
+ * A compact copy of everything needed to draw one frame of a game: the rows
+ * of the well as bitmasks, the kind, orientation and position of the active
+ * piece, and a few counters. The engine publishes snapshots through a
+ * {@link com.gamewerks.bgm.util.TripleBuffer}, see
+ * {@link Engine#setSnapshotBuffer}, so a renderer can draw on its own thread
+ * and at its own rate without racing the game thread.
+ *
+ * <p>Snapshots are filled in by the engine only while they are the triple
+ * buffer's back buffer, so a snapshot acquired by the reader does not change
+ * until the reader acquires the next one.
+ */
+public class FrameSnapshot {
+    private int[] rows = new int[0];
+    private int width;
+    private long frame;
+    private int wellVersion;
+    private PieceKind pieceKind;
+    private int orientation;
+    private int pieceRow;
+    private int pieceCol;
+    private PieceKind nextPiece;
+    private int linesCleared;
+    private boolean gameOver;
+
+    /**
+     * Copies the state of the given game into this snapshot.
+     * @param well the game's well
+     * @param piece the game's active piece, or null
+     * @param game the game
+     */
+    void capture(Well well, Piece piece, Engine game) {
+        if (rows.length != well.getHeight()) {
+            rows = new int[well.getHeight()];
+        }
+        for (int row = 0; row < rows.length; row++) {
+            rows[row] = well.getRowMask(row);
+        }
+        width = well.getWidth();
+        frame = game.getFrameCount();
+        wellVersion = game.getWellVersion();
+        if (piece != null) {
+            pieceKind = piece.getKind();
+            orientation = piece.getOrientation();
+            pieceRow = piece.getRow();
+            pieceCol = piece.getCol();
+        } else {
+            pieceKind = null;
+        }
+        nextPiece = game.getNextPiece();
+        linesCleared = game.getLinesCleared();
+        gameOver = game.isGameOver();
+    }
+
+    /** @return the number of frames the game had been stepped */
+    public long getFrame() {
+        return frame;
+    }
+
+    /** @return the well version of the game, see {@link Engine#getWellVersion()} */
+    public int getWellVersion() {
+        return wellVersion;
+    }
+
+    /** @return the width of the well */
+    public int getWidth() {
+        return width;
+    }
+
+    /** @return the height of the well */
+    public int getHeight() {
+        return rows.length;
+    }
+
+    /**
+     * @param row the row of the well
+     * @return the filled cells of the given row, see {@link Well#getRowMask(int)}
+     */
+    public int getRowMask(int row) {
+        return rows[row];
+    }
+
+    /**
+     * @param row the row of the cell
+     * @param col the column of the cell
+     * @return true iff the given cell of the well is filled
+     */
+    public boolean isOccupied(int row, int col) {
+        return (rows[row] & (1 << col)) != 0;
+    }
+
+    /** @return the kind of the active piece, or null if there is none */
+    public PieceKind getPieceKind() {
+        return pieceKind;
+    }
+
+    /** @return the rotation of the active piece, or null if there is none */
+    public Rotation getPieceRotation() {
+        return pieceKind == null ? null : Piece.getRotation(pieceKind, orientation);
+    }
+
+    /** @return the orientation of the active piece */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /** @return the row of the active piece's position */
+    public int getPieceRow() {
+        return pieceRow;
+    }
+
+    /** @return the column of the active piece's position */
+    public int getPieceCol() {
+        return pieceCol;
+    }
+
+    /** @return the kind of the next piece to spawn */
+    public PieceKind getNextPiece() {
+        return nextPiece;
+    }
+
+    /** @return the number of lines cleared */
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    /** @return true iff the game is over */
+    public boolean isGameOver() {
+        return gameOver;
+    }
+}
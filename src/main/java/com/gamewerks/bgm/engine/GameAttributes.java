@@ -12,4 +12,7 @@ package com.gamewerks.bgm.engine;
  *                of lines.
  */
 public record GameAttributes(int are, int lineAre, int das, int lockDelay,
-                             int lineClearDleay, int gravity) { }
+                             int lineClearDleay, int gravity) {
+    /** The attributes every game is played with. */
+    public static final GameAttributes DEFAULT = new GameAttributes(48, 25, 14, 30, 40, 24);
+}
@@ -0,0 +1,145 @@
+package com.gamewerks.bgm.engine;
+
+import java.nio.ByteBuffer;
+
+import com.gamewerks.bgm.util.SplitMix64;
+
+/**
+ * The randomizer of Tetris the Grand Master: it remembers the last four
+ * pieces dealt and rerolls a piece found in that history a fixed number of
+ * times, keeping the last roll regardless. The history starts out as four Z
+ * pieces and the first piece is never an S, Z or O.
+ */
+public class HistoryRandomizer implements Randomizer {
+    /** The number of rolls used by the original Tetris the Grand Master. */
+    public static final int TGM_ROLLS = 4;
+
+    /** The last byte of a state written by a history randomizer. */
+    private static final byte STATE_TAG = 2;
+
+    /** The pieces the first piece is chosen from. */
+    private static final PieceKind[] FIRST = {PieceKind.I, PieceKind.J, PieceKind.L, PieceKind.T};
+
+    private SplitMix64 rng;
+    private int rolls;
+    private PieceKind[] history;
+    /** The index of the oldest piece in the history. */
+    private int oldest;
+    private PieceKind preview;
+
+    /**
+     * Constructs a new history randomizer with the original game's four rolls.
+     * @param seed the seed of the randomizer
+     */
+    public HistoryRandomizer(long seed) {
+        this(new SplitMix64(seed), TGM_ROLLS);
+    }
+
+    /**
+     * Constructs a new history randomizer.
+     * @param seed the seed of the randomizer
+     * @param rolls the number of times a piece is rolled, at least 1
+     */
+    public HistoryRandomizer(long seed, int rolls) {
+        this(new SplitMix64(seed), rolls);
+    }
+
+    /**
+     * Constructs a new history randomizer drawing from the given generator.
+     * @param rng the generator, owned by this randomizer from now on
+     * @param rolls the number of times a piece is rolled, at least 1
+     */
+    private HistoryRandomizer(SplitMix64 rng, int rolls) {
+        if (rolls < 1) {
+            throw new IllegalArgumentException("A piece must be rolled at least once");
+        }
+        this.rng = rng;
+        this.rolls = rolls;
+        history = new PieceKind[] {PieceKind.Z, PieceKind.Z, PieceKind.Z, PieceKind.Z};
+        oldest = 0;
+        preview = FIRST[rng.nextInt(FIRST.length)];
+        remember(preview);
+    }
+
+    @Override
+    public PieceKind next() {
+        PieceKind ret = preview;
+        preview = roll();
+        return ret;
+    }
+
+    @Override
+    public PieceKind peek() {
+        return preview;
+    }
+
+    @Override
+    public Randomizer split() {
+        return new HistoryRandomizer(rng.split(), rolls);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The state is the generator's, then the history, the index of its
+     * oldest piece and the preview piece packed into an <code>int</code>.
+     * The number of rolls is a parameter rather than state, so it is not
+     * written.
+     */
+    @Override
+    public void writeState(ByteBuffer buf, int offset) {
+        int packed = preview.ordinal() << 2 | oldest;
+        for (int i = history.length - 1; i >= 0; i--) {
+            packed = packed << 3 | history[i].ordinal();
+        }
+        buf.putLong(offset, rng.getState());
+        buf.putInt(offset + 8, packed);
+        buf.put(offset + STATE_BYTES - 1, STATE_TAG);
+    }
+
+    @Override
+    public void readState(ByteBuffer buf, int offset) {
+        if (buf.get(offset + STATE_BYTES - 1) != STATE_TAG) {
+            throw new IllegalArgumentException("Not the state of a history randomizer");
+        }
+        rng.setState(buf.getLong(offset));
+        int packed = buf.getInt(offset + 8);
+        for (int i = 0; i < history.length; i++, packed >>>= 3) {
+            history[i] = PieceKind.ALL[packed & 7];
+        }
+        oldest = packed & 3;
+        preview = PieceKind.ALL[packed >>> 2];
+    }
+
+    /** @return a freshly rolled piece, which is also added to the history */
+    private PieceKind roll() {
+        PieceKind kind = PieceKind.ALL[rng.nextInt(PieceKind.ALL.length)];
+        for (int i = 1; i < rolls && isInHistory(kind); i++) {
+            kind = PieceKind.ALL[rng.nextInt(PieceKind.ALL.length)];
+        }
+        remember(kind);
+        return kind;
+    }
+
+    /**
+     * @param kind the kind of piece
+     * @return true iff the given piece is one of the last four dealt
+     */
+    private boolean isInHistory(PieceKind kind) {
+        for (PieceKind k : history) {
+            if (k == kind) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Replaces the oldest piece in the history with the given piece.
+     * @param kind the kind of piece
+     */
+    private void remember(PieceKind kind) {
+        history[oldest] = kind;
+        oldest = (oldest + 1) % history.length;
+    }
+}
@@ -0,0 +1,89 @@
+package com.gamewerks.bgm.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free queue of timestamped key events from one producer
+ * thread (e.g., the Swing event dispatch thread) to one consumer thread (the
+ * game thread), which drains it at the start of each frame.
+ *
+ * <p>Events live in a ring of primitive arrays, so neither side allocates.
+ * Each side writes only its own index, publishing it with release semantics
+ * and reading the other side's with acquire semantics. The producer caches
+ * the consumer's index, so that it only reads the shared one when the ring
+ * looks full.
+ */
+public class InputQueue {
+    /** The number of events the queue holds, a power of two. */
+    private static final int CAPACITY = 64;
+
+    private final long[] times = new long[CAPACITY];
+    /** The events, as the key's ordinal shifted left by one, plus one if pressed. */
+    private final byte[] events = new byte[CAPACITY];
+
+    /** The index of the next event to write, written by the producer only. */
+    private final AtomicLong tail = new AtomicLong();
+    /** The index of the next event to read, written by the consumer only. */
+    private final AtomicLong head = new AtomicLong();
+    /** The producer's last view of {@link #head}. */
+    private long cachedHead;
+    private volatile long dropped;
+
+    /**
+     * Queues a key event. Must only be called by the producer thread.
+     * @param key the key
+     * @param down true if the key was pressed, false if it was released
+     * @param time when the event happened, in {@link System#nanoTime()}
+     *             time; times must not decrease from one event to the next
+     * @return true iff the event was queued, false if the queue is full, in
+     *         which case the event is dropped
+     */
+    public boolean offer(KeyKind key, boolean down, long time) {
+        long t = tail.get();
+        if (t - cachedHead >= CAPACITY) {
+            cachedHead = head.getAcquire();
+            if (t - cachedHead >= CAPACITY) {
+                dropped += 1;
+                return false;
+            }
+        }
+        int slot = (int) t & (CAPACITY - 1);
+        times[slot] = time;
+        events[slot] = (byte) (key.ordinal() << 1 | (down ? 1 : 0));
+        tail.setRelease(t + 1);
+        return true;
+    }
+
+    /**
+     * Applies every queued event that happened at or before the given time
+     * to the given input state, in order. Must only be called by the
+     * consumer thread.
+     * @param input the input state to update
+     * @param until the time of the frame about to be stepped
+     * @return the number of events applied
+     */
+    public int drainTo(InputState input, long until) {
+        long h = head.get();
+        long t = tail.getAcquire();
+        long start = h;
+        while (h < t && times[(int) h & (CAPACITY - 1)] <= until) {
+            int event = events[(int) h & (CAPACITY - 1)];
+            KeyKind key = KeyKind.ALL[event >>> 1];
+            if ((event & 1) != 0) {
+                input.keyDown(key);
+            } else {
+                input.keyUp(key);
+            }
+            h += 1;
+        }
+        if (h != start) {
+            head.setRelease(h);
+        }
+        return (int) (h - start);
+    }
+
+    /** @return the number of events dropped because the queue was full */
+    public long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,15 @@
+package com.gamewerks.bgm.engine;
+
+/**
+ * Receives the input an engine observes on every frame it steps, e.g., to
+ * record the game for replaying it later.
+ */
+@FunctionalInterface
+public interface InputRecorder {
+    /**
+     * Records the input of one frame.
+     * @param held the keys held on the frame as a bitmask of {@link KeyKind#mask()} values
+     * @param pressed the keys just pressed on the frame, a subset of <code>held</code>
+     */
+    void record(int held, int pressed);
+}
@@ -0,0 +1,28 @@
+package com.gamewerks.bgm.engine;
+
+/**
+ * A source of player input for a headless engine. Each frame, the engine
+ * asks the source which keys are held and presses or releases keys so that
+ * its input state matches.
+ */
+@FunctionalInterface
+public interface InputSource {
+    /** A source that never presses any key. */
+    InputSource NONE = frame -> 0;
+
+    /**
+     * The shift of the re-pressed keys within a frame's input. A key whose
+     * bit is set in <code>input &gt;&gt; REPRESS_SHIFT</code> is released and
+     * pressed again before the frame, so that it counts as just pressed even
+     * if it was already held on the previous frame.
+     */
+    int REPRESS_SHIFT = 8;
+
+    /**
+     * @param frame the number of the frame about to be stepped, starting at 0
+     * @return the keys held during the given frame as a bitmask of
+     *         {@link KeyKind#mask()} values, optionally combined with keys to
+     *         re-press shifted left by {@link #REPRESS_SHIFT}
+     */
+    int keysHeld(long frame);
+}
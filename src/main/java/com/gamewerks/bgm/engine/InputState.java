@@ -1,35 +1,32 @@
 package com.gamewerks.bgm.engine;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * Records the state of the various inputs to the game. <code>InputState</code>
  * records whether a key has been pressed and, if so, how long it has been held.
+ *
+ * <p>The held keys are kept as a bitmask of {@link KeyKind#mask()} values and
+ * the frame counts in an array indexed by {@link KeyKind#ordinal()}, so that
+ * neither updating nor querying the state allocates.
  */
 public class InputState {
+    /** The number of bytes {@link #writeState(ByteBuffer, int)} writes. */
+    static final int STATE_BYTES = 1 + 4 * KeyKind.ALL.length;
 
+    /** The keys currently held, as a bitmask of {@link KeyKind#mask()} values. */
+    private int downMask;
     /**
-     * The state of a particular key, whether it is pressed and if so, how long.
+     * For each key, the number of frames it has been held, or -1 if it was
+     * released since the last step.
      */
-    private static class KeyState {
-        /** True iff the key is currently pressed. */
-        public boolean isDown = false;
-        /**
-         * The number of frames the key has been held or -1 if it is not being
-         * pressed.
-         */
-        public int heldFrames = -1;
-    }
-
-    private Map<KeyKind, KeyState> state;
+    private int[] heldFrames;
 
     /** Constructs a new state tracking all possible keys. */
     public InputState() {
-        state = new HashMap<>();
-        for (KeyKind key : KeyKind.ALL) {
-            state.put(key, new KeyState());
-        }
+        heldFrames = new int[KeyKind.ALL.length];
+        Arrays.fill(heldFrames, -1);
     }
 
     /**
@@ -37,12 +34,11 @@ public class InputState {
      * @param key the pressed key
      */
     public void keyDown(KeyKind key) {
-        KeyState st = state.get(key);
         // N.B., on mac, keyboard repeat will fire, so only register "down" if
         // the key was not already down to begin with!
-        if (!st.isDown) {
-            st.isDown = true;
-            st.heldFrames = 0;
+        if ((downMask & key.mask()) == 0) {
+            downMask |= key.mask();
+            heldFrames[key.ordinal()] = 0;
         }
     }
 
@@ -51,17 +47,16 @@ public class InputState {
      * @param key the released key
      */
     public void keyUp(KeyKind key) {
-        KeyState st = state.get(key);
-        st.isDown = false;
-        st.heldFrames = -1;
+        downMask &= ~key.mask();
+        heldFrames[key.ordinal()] = -1;
     }
-   
+
     /**
      * @param key the key to be tested
      * @return true iff the given key is being held down
      */
     public boolean isHeld(KeyKind key) {
-        return state.get(key).isDown;
+        return (downMask & key.mask()) != 0;
     }
 
     /**
@@ -69,26 +64,67 @@ public class InputState {
      * @return true iff the given key has just been pressed
      */
     public boolean isJustPressed(KeyKind key) {
-        return state.get(key).isDown && state.get(key).heldFrames == 0;
+        return isHeld(key) && heldFrames[key.ordinal()] == 0;
     }
 
-    /** 
+    /**
      * @param key the key to be tested
      * @return the number of frames that this key has been held.
      */
     public int getFramesHeld(KeyKind key) {
-        return state.get(key).heldFrames;
+        return heldFrames[key.ordinal()];
+    }
+
+    /** @return the keys currently held as a bitmask of {@link KeyKind#mask()} values */
+    public int getHeldMask() {
+        return downMask;
+    }
+
+    /** @return the keys just pressed as a bitmask of {@link KeyKind#mask()} values */
+    public int getPressedMask() {
+        int mask = 0;
+        for (int held = downMask; held != 0; held &= held - 1) {
+            int key = Integer.numberOfTrailingZeros(held);
+            if (heldFrames[key] == 0) {
+                mask |= 1 << key;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * Writes the held keys, then every key's frame count, into
+     * {@link #STATE_BYTES} bytes of the given buffer.
+     * @param buf the buffer
+     * @param offset the index of the first byte to write
+     */
+    void writeState(ByteBuffer buf, int offset) {
+        buf.put(offset, (byte) downMask);
+        for (int key = 0; key < heldFrames.length; key++) {
+            buf.putInt(offset + 1 + 4 * key, heldFrames[key]);
+        }
+    }
+
+    /**
+     * Restores a state written by {@link #writeState(ByteBuffer, int)}.
+     * @param buf the buffer
+     * @param offset the index of the first byte to read
+     */
+    void readState(ByteBuffer buf, int offset) {
+        downMask = buf.get(offset) & 0xff;
+        for (int key = 0; key < heldFrames.length; key++) {
+            heldFrames[key] = buf.getInt(offset + 1 + 4 * key);
+        }
     }
 
     /** Steps this state one frame forward in time */
     public void step() {
-        for (KeyKind k : state.keySet()) {
-            KeyState st = state.get(k);
-            if (st.isDown) {
-                st.heldFrames += 1;
+        for (int key = 0; key < heldFrames.length; key++) {
+            if ((downMask & (1 << key)) != 0) {
+                heldFrames[key] += 1;
             } else {
-                st.heldFrames = 0;
+                heldFrames[key] = 0;
             }
         }
     }
-}
\ No newline at end of file
+}
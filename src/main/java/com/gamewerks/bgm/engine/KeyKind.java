@@ -18,4 +18,9 @@ public enum KeyKind {
         ROTATE_COUNTERCLOCKWISE,
         ROTATE_CLOCKWISE
     };
-}
\ No newline at end of file
+
+    /** @return the bit representing this key in a key bitmask */
+    public int mask() {
+        return 1 << ordinal();
+    }
+}
@@ -0,0 +1,402 @@
+package com.gamewerks.bgm.engine;
+
+import java.util.Arrays;
+
+import com.gamewerks.bgm.util.Constants;
+
+/**
+ * Enumerates every final placement a piece can reach from the spawn position
+ * under the engine's movement rules: shifting one column sideways, rotating
+ * in place (there are no wall kicks) and falling one row, each only if the
+ * result does not collide with the well. Timing is ignored, i.e., the search
+ * assumes gravity and lock delay leave enough time for any sequence of moves.
+ *
+ * <p>The search is a breadth-first search over (orientation, row, column)
+ * states, run directly against the {@link Well}. Visited states are tracked
+ * in a flat bitset, and a placement is recorded whenever a state cannot fall
+ * any further. Orientations that occupy the same cells, e.g., the four
+ * orientations of the O piece, are reported once, under the lowest such
+ * orientation.
+ *
+ * <p>Placements are packed into <code>int</code>s, see
+ * {@link #placement(int, int, int)}. A generator owns its scratch buffers
+ * and is not thread-safe; give each search thread its own.
+ */
+public class MoveGenerator {
+    /** The number of bits of each field of a packed placement. */
+    private static final int FIELD_BITS = 8;
+    private static final int FIELD_MASK = (1 << FIELD_BITS) - 1;
+
+    /**
+     * The highest column offset of any rotation. A piece's column is at
+     * least the negation of this, so columns are packed with this bias.
+     */
+    private static final int COL_BIAS;
+    /**
+     * The most negative highest row offset of any rotation, negated. A
+     * piece's row is below <code>height + ROW_SLACK</code>.
+     */
+    private static final int ROW_SLACK;
+
+    /**
+     * For each kind and orientation, the lowest orientation of the same kind
+     * occupying the same cells, and the row and column shifts that map a
+     * position in the former orientation to one in the latter.
+     */
+    private static final int[][] CANON_ORIENTATION = new int[PieceKind.ALL.length][4];
+    private static final int[][] CANON_ROW_SHIFT = new int[PieceKind.ALL.length][4];
+    private static final int[][] CANON_COL_SHIFT = new int[PieceKind.ALL.length][4];
+
+    static {
+        int colBias = 0;
+        int rowSlack = 0;
+        for (PieceKind kind : PieceKind.ALL) {
+            for (int o = 0; o < 4; o++) {
+                Rotation rot = Piece.getRotation(kind, o);
+                colBias = Math.max(colBias, rot.getMaxCol());
+                rowSlack = Math.max(rowSlack, -rot.getMaxRow());
+                int canon = 0;
+                while (!sameCells(Piece.getRotation(kind, canon), rot)) {
+                    canon += 1;
+                }
+                Rotation canonRot = Piece.getRotation(kind, canon);
+                CANON_ORIENTATION[kind.ordinal()][o] = canon;
+                CANON_ROW_SHIFT[kind.ordinal()][o] = rot.getMinRow() - canonRot.getMinRow();
+                CANON_COL_SHIFT[kind.ordinal()][o] = rot.getMinCol() - canonRot.getMinCol();
+            }
+        }
+        COL_BIAS = colBias;
+        ROW_SLACK = rowSlack;
+    }
+
+    private int width;
+    private int height;
+    private int rowSpan;
+    private int colSpan;
+    /** One bit per (orientation, row, column) state, set once it is queued. */
+    private long[] visited;
+    /** One bit per canonical state, set once it is reported as a placement. */
+    private long[] placed;
+    /** The breadth-first queue of packed states. */
+    private int[] queue;
+    private int tail;
+
+    /** The scratch wells of {@link #perft}, one per ply. */
+    private Well[] plyWells = new Well[0];
+    /** The placements generated at each ply of {@link #perft}. */
+    private int[][] plyMoves = new int[0][];
+
+    /**
+     * Constructs a new move generator for wells of the given size.
+     * @param width the width of the well
+     * @param height the height of the well
+     */
+    public MoveGenerator(int width, int height) {
+        this.width = width;
+        this.height = height;
+        rowSpan = height + ROW_SLACK;
+        colSpan = width + COL_BIAS;
+        int states = 4 * rowSpan * colSpan;
+        visited = new long[(states + Long.SIZE - 1) / Long.SIZE];
+        placed = new long[visited.length];
+        queue = new int[states];
+    }
+
+    /**
+     * Constructs a new move generator for wells whose size is
+     * ({@link Constants#BOARD_WIDTH}, {@link Constants#BOARD_HEIGHT}).
+     */
+    public MoveGenerator() {
+        this(Constants.BOARD_WIDTH, Constants.BOARD_HEIGHT);
+    }
+
+    /**
+     * @return the most placements {@link #generate} can report, i.e., the
+     *         length an output array must have
+     */
+    public int getMaxPlacements() {
+        return queue.length;
+    }
+
+    /**
+     * Generates every placement of the given piece reachable from its spawn
+     * position, the center-top of the well in orientation 0 (as spawned by
+     * the engine). Nothing is allocated.
+     * @param well the well, of this generator's size
+     * @param kind the kind of the piece
+     * @param out the array to write the packed placements to, of length at
+     *            least {@link #getMaxPlacements()}
+     * @return the number of placements written, 0 if the piece cannot spawn
+     */
+    public int generate(Well well, PieceKind kind, int[] out) {
+        return generate(well, kind, 0, height - 1, width / 2 - 2, out);
+    }
+
+    /**
+     * Generates every placement of the given piece reachable from the given
+     * position. Nothing is allocated.
+     * @param well the well, of this generator's size
+     * @param kind the kind of the piece
+     * @param orientation the orientation the piece starts in
+     * @param row the row the piece starts at
+     * @param col the column the piece starts at
+     * @param out the array to write the packed placements to, of length at
+     *            least {@link #getMaxPlacements()}
+     * @return the number of placements written, 0 if the piece collides
+     *         where it starts
+     */
+    public int generate(Well well, PieceKind kind, int orientation, int row, int col, int[] out) {
+        if (well.getWidth() != width || well.getHeight() != height) {
+            throw new IllegalArgumentException("Well size does not match the generator");
+        }
+        Arrays.fill(visited, 0);
+        Arrays.fill(placed, 0);
+        tail = 0;
+        int k = kind.ordinal();
+        tryVisit(well, kind, orientation, row, col);
+
+        int count = 0;
+        for (int head = 0; head < tail; head++) {
+            int state = queue[head];
+            int o = orientationOf(state);
+            int r = rowOf(state);
+            int c = colOf(state);
+            tryVisit(well, kind, (o + 1) & 3, r, c);
+            tryVisit(well, kind, (o + 3) & 3, r, c);
+            tryVisit(well, kind, o, r, c - 1);
+            tryVisit(well, kind, o, r, c + 1);
+            if (well.collides(Piece.getRotation(kind, o), r - 1, c)) {
+                int canon = CANON_ORIENTATION[k][o];
+                int canonRow = r + CANON_ROW_SHIFT[k][o];
+                int canonCol = c + CANON_COL_SHIFT[k][o];
+                int index = index(canon, canonRow, canonCol);
+                if ((placed[index >>> 6] & (1L << index)) == 0) {
+                    placed[index >>> 6] |= 1L << index;
+                    out[count++] = placement(canon, canonRow, canonCol);
+                }
+            } else {
+                tryVisit(well, kind, o, r - 1, c);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Generates the placements of the given piece reached by rotating it in
+     * its spawn position, one step at a time through orientations that fit, shifting it sideways along the top of the well and
+     * dropping it straight down: a subset of {@link #generate(Well, PieceKind, int[])}
+     * without tucks or spins, found without a search, for rollouts and other
+     * policies that trade completeness for speed. Nothing is allocated.
+     * @param well the well, of this generator's size
+     * @param kind the kind of the piece
+     * @param out the array to write the packed placements to, of length at
+     *            least {@link #getMaxPlacements()}
+     * @return the number of placements written, 0 if the piece cannot spawn
+     */
+    public int generateDrops(Well well, PieceKind kind, int[] out) {
+        if (well.getWidth() != width || well.getHeight() != height) {
+            throw new IllegalArgumentException("Well size does not match the generator");
+        }
+        int row = height - 1;
+        int spawnCol = width / 2 - 2;
+        if (well.collides(Piece.getRotation(kind, 0), row, spawnCol)) {
+            return 0;
+        }
+        // Orientation 2 is reached through 1 or through 3, so it is blocked only with both
+        int reachable = 1;
+        for (int o = 1; o < 4; o += 2) {
+            if (!well.collides(Piece.getRotation(kind, o), row, spawnCol)) {
+                reachable |= 1 << o;
+            }
+        }
+        if ((reachable & 0b1010) != 0 && !well.collides(Piece.getRotation(kind, 2), row, spawnCol)) {
+            reachable |= 1 << 2;
+        }
+        int count = 0;
+        for (int o = 0; o < 4; o++) {
+            Rotation rot = Piece.getRotation(kind, o);
+            // Orientations occupying the same cells as a lower one drop to the same places
+            if (CANON_ORIENTATION[kind.ordinal()][o] != o || (reachable & 1 << o) == 0) {
+                continue;
+            }
+            for (int c = spawnCol; !well.collides(rot, row, c); c--) {
+                out[count++] = placement(o, row - well.dropDistance(rot, row, c, height), c);
+            }
+            for (int c = spawnCol + 1; !well.collides(rot, row, c); c++) {
+                out[count++] = placement(o, row - well.dropDistance(rot, row, c, height), c);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Queues the given state unless it collides with the well or has been
+     * queued before.
+     * @param well the well
+     * @param kind the kind of the piece
+     * @param orientation the orientation of the piece
+     * @param row the row of the piece's position
+     * @param col the column of the piece's position
+     */
+    private void tryVisit(Well well, PieceKind kind, int orientation, int row, int col) {
+        if (well.collides(Piece.getRotation(kind, orientation), row, col)) {
+            return;
+        }
+        int index = index(orientation, row, col);
+        if ((visited[index >>> 6] & (1L << index)) == 0) {
+            visited[index >>> 6] |= 1L << index;
+            queue[tail++] = placement(orientation, row, col);
+        }
+    }
+
+    /**
+     * @param orientation an orientation
+     * @param row the row of a position that does not collide with the well
+     * @param col the column of that position
+     * @return the index of the given state in the visited bitsets
+     */
+    private int index(int orientation, int row, int col) {
+        return (orientation * rowSpan + row) * colSpan + col + COL_BIAS;
+    }
+
+    /**
+     * Counts the leaves of the tree of placements of the given pieces, to the
+     * given depth: every placement of the first piece, followed by every
+     * placement of the second piece in the resulting well (after clearing
+     * completed rows), and so on. Like perft in chess engines, the counts on
+     * fixed wells check the generator's correctness, and the time taken to
+     * compute them measures its speed.
+     * @param well the well to start from, left unchanged
+     * @param pieces the pieces to place, in order
+     * @param depth the number of pieces to place, at most
+     *              <code>pieces.length</code>
+     * @return the number of distinct sequences of <code>depth</code>
+     *         placements; 0 if some piece cannot spawn on every path
+     */
+    public long perft(Well well, PieceKind[] pieces, int depth) {
+        if (depth > pieces.length) {
+            throw new IllegalArgumentException("Not enough pieces for depth " + depth);
+        }
+        if (depth == 0) {
+            return 1;
+        }
+        if (plyWells.length < depth) {
+            plyWells = new Well[depth];
+            plyMoves = new int[depth][];
+            for (int ply = 0; ply < depth; ply++) {
+                plyWells[ply] = new Well(width, height);
+                plyMoves[ply] = new int[getMaxPlacements()];
+            }
+        }
+        return perft(well, pieces, 0, depth);
+    }
+
+    /**
+     * @param well the well at the given ply
+     * @param pieces the pieces to place
+     * @param ply the number of pieces placed so far
+     * @param depth the number of pieces to place in total
+     * @return the number of leaves below the given well
+     */
+    private long perft(Well well, PieceKind[] pieces, int ply, int depth) {
+        int[] moves = plyMoves[ply];
+        PieceKind kind = pieces[ply];
+        int count = generate(well, kind, moves);
+        if (ply == depth - 1) {
+            return count;
+        }
+        Well child = plyWells[ply];
+        long leaves = 0;
+        for (int i = 0; i < count; i++) {
+            int move = moves[i];
+            child.copyFrom(well);
+            child.addToWell(Piece.getRotation(kind, orientationOf(move)),
+                    rowOf(move), colOf(move));
+            child.clearCompletedRows();
+            leaves += perft(child, pieces, ply + 1, depth);
+        }
+        return leaves;
+    }
+
+    /**
+     * Packs a placement into an <code>int</code>.
+     * @param orientation the orientation of the piece, in <code>[0, 4)</code>
+     * @param row the row of the piece's position
+     * @param col the column of the piece's position
+     * @return the packed placement
+     */
+    public static int placement(int orientation, int row, int col) {
+        return orientation << (2 * FIELD_BITS) | row << FIELD_BITS | (col + COL_BIAS);
+    }
+
+    /**
+     * @param placement a packed placement
+     * @return the orientation of the piece
+     */
+    public static int orientationOf(int placement) {
+        return placement >>> (2 * FIELD_BITS);
+    }
+
+    /**
+     * @param placement a packed placement
+     * @return the row of the piece's position
+     */
+    public static int rowOf(int placement) {
+        return (placement >>> FIELD_BITS) & FIELD_MASK;
+    }
+
+    /**
+     * @param placement a packed placement
+     * @return the column of the piece's position
+     */
+    public static int colOf(int placement) {
+        return (placement & FIELD_MASK) - COL_BIAS;
+    }
+
+    /**
+     * @param a a rotation
+     * @param b another rotation
+     * @return true iff both rotations occupy the same cells, up to translation
+     */
+    private static boolean sameCells(Rotation a, Rotation b) {
+        int height = a.getMaxRow() - a.getMinRow();
+        if (height != b.getMaxRow() - b.getMinRow()) {
+            return false;
+        }
+        for (int r = 0; r <= height; r++) {
+            int maskA = a.getRowMask(a.getMinRow() + r) >>> a.getMinCol();
+            int maskB = b.getRowMask(b.getMinRow() + r) >>> b.getMinCol();
+            if (maskA != maskB) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs perft on an empty well and reports the counts and generation
+     * speed at every depth.
+     * @param args optionally, the maximum depth (default 3) and the seed of
+     *             the 7-bag deal of pieces (default 0)
+     */
+    public static void main(String[] args) {
+        int maxDepth = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        long seed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        Randomizer randomizer = new BagRandomizer(seed);
+        PieceKind[] pieces = new PieceKind[maxDepth];
+        for (int i = 0; i < maxDepth; i++) {
+            pieces[i] = randomizer.next();
+        }
+        System.out.println("pieces " + Arrays.toString(pieces));
+
+        MoveGenerator generator = new MoveGenerator();
+        Well well = new Well();
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            long start = System.nanoTime();
+            long leaves = generator.perft(well, pieces, depth);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("perft(%d) = %d in %.3f s (%.0f leaves/s)%n",
+                    depth, leaves, seconds, leaves / seconds);
+        }
+    }
+}
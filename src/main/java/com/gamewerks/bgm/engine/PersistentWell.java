@@ -0,0 +1,314 @@
+package com.gamewerks.bgm.engine;
+
+import java.util.Arrays;
+
+import com.gamewerks.bgm.util.Constants;
+
+/**
+ * An immutable well, for searches that branch a board many times per
+ * decision: placing a piece or clearing lines returns a new well and leaves
+ * this one as it was, so a search tree can keep every node's board, and
+ * threads can share boards without locking.
+ *
+ * <p>Rows are packed into <code>long</code>s, each row taking the smallest
+ * power of two bits that holds it, so that finding a row takes two shifts:
+ * a standard 10x22 well is 16 bits a row, four rows a <code>long</code>, six
+ * <code>long</code>s in all. That is less than the references sharing rows
+ * one by one with the parent would take, so a child well copies them
+ * instead and costs one small array. Like {@link Well}, it tracks the
+ * Zobrist hash of its cells, with the same keys, its stack height and its
+ * number of completed rows as pieces are placed.
+ */
+public final class PersistentWell {
+    /** The empty well of the standard size. */
+    public static final PersistentWell EMPTY =
+            new PersistentWell(Constants.BOARD_WIDTH, Constants.BOARD_HEIGHT);
+
+    private final int width;
+    private final int height;
+    private final int fullRow;
+    /** The base 2 logarithm of the number of bits a row takes. */
+    private final int bitShift;
+    /** The base 2 logarithm of the number of rows a <code>long</code> holds. */
+    private final int rowShift;
+    private final long[] chunks;
+    private final long hash;
+    private final int stackHeight;
+    private final int completed;
+
+    /**
+     * Constructs a new, empty well of the given size.
+     * @param width the width of the well (the number of columns)
+     * @param height the height of the well (the number of rows)
+     */
+    public PersistentWell(int width, int height) {
+        if (width <= 0 || width >= Integer.SIZE || height <= 0) {
+            throw new IllegalArgumentException(
+                "Unsupported well size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        fullRow = (1 << width) - 1;
+        bitShift = Integer.SIZE - Integer.numberOfLeadingZeros(width - 1);
+        rowShift = 6 - bitShift;
+        chunks = new long[(height + (1 << rowShift) - 1) >>> rowShift];
+        hash = 0;
+        stackHeight = 0;
+        completed = 0;
+    }
+
+    /**
+     * Constructs a new well of the same size as the given well.
+     * @param shape the well whose size to take
+     * @param chunks the packed rows, owned by the new well from now on
+     * @param hash the Zobrist hash of the rows
+     * @param stackHeight the height of the highest column
+     * @param completed the number of completed rows
+     */
+    private PersistentWell(PersistentWell shape, long[] chunks, long hash, int stackHeight,
+            int completed) {
+        width = shape.width;
+        height = shape.height;
+        fullRow = shape.fullRow;
+        bitShift = shape.bitShift;
+        rowShift = shape.rowShift;
+        this.chunks = chunks;
+        this.hash = hash;
+        this.stackHeight = stackHeight;
+        this.completed = completed;
+    }
+
+    /**
+     * @param well a well
+     * @return an immutable copy of the given well
+     */
+    public static PersistentWell of(Well well) {
+        PersistentWell empty = new PersistentWell(well.getWidth(), well.getHeight());
+        long[] chunks = empty.chunks.clone();
+        int completed = 0;
+        for (int row = 0; row < well.getStackHeight(); row++) {
+            int mask = well.getRowMask(row);
+            chunks[row >>> empty.rowShift] |= (long) mask << empty.shift(row);
+            if (mask == empty.fullRow) {
+                completed += 1;
+            }
+        }
+        return new PersistentWell(empty, chunks, well.getHash(), well.getStackHeight(),
+                completed);
+    }
+
+    /** @return a mutable copy of this well */
+    public Well toWell() {
+        Well well = new Well(width, height);
+        well.copyFrom(this);
+        return well;
+    }
+
+    /** @return the well's width (columns of the board) */
+    public int getWidth() {
+        return width;
+    }
+
+    /** @return the well's height (rows of the board) */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @param row the row
+     * @return the bitmask of the given row, bit <code>col</code> being set iff
+     *         (row, col) is filled
+     */
+    public int getRowMask(int row) {
+        return (int) (chunks[row >>> rowShift] >>> shift(row)) & fullRow;
+    }
+
+    /**
+     * @param row the row
+     * @param col the column
+     * @return true iff the cell at (row, col) is filled
+     */
+    public boolean isOccupied(int row, int col) {
+        return (getRowMask(row) & (1 << col)) != 0;
+    }
+
+    /** @return the height of the highest column */
+    public int getStackHeight() {
+        return stackHeight;
+    }
+
+    /** @return the number of completed rows, which {@link #clearCompletedRows()} clears */
+    public int getCompletedRowCount() {
+        return completed;
+    }
+
+    /** @return the number of empty cells below the top of their column */
+    public int getHoleCount() {
+        int holes = 0;
+        int covered = 0;
+        for (int row = stackHeight - 1; row >= 0; row--) {
+            int mask = getRowMask(row);
+            holes += Integer.bitCount(covered & ~mask);
+            covered |= mask;
+        }
+        return holes;
+    }
+
+    /**
+     * @return the Zobrist hash of the filled cells, equal to the hash of a
+     *         {@link Well} with the same cells filled
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * @param rot the piece rotation
+     * @param row the row of the piece's position
+     * @param col the column of the piece's position
+     * @return true if the given piece, expressed in terms of its rotation and
+     *         position, collides with the well or lies outside of it
+     */
+    public boolean collides(Rotation rot, int row, int col) {
+        int minRow = rot.getMinRow();
+        int maxRow = rot.getMaxRow();
+        if (row + minRow < 0 || row + maxRow >= height
+                || col + rot.getMinCol() < 0 || col + rot.getMaxCol() >= width) {
+            return true;
+        }
+        for (int r = minRow; r <= maxRow; r++) {
+            int mask = rot.getRowMask(r);
+            int shifted = col >= 0 ? mask << col : mask >>> -col;
+            if ((getRowMask(row + r) & shifted) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param rot the piece rotation
+     * @param row the row of the piece's position, which must not collide
+     * @param col the column of the piece's position
+     * @param maxRows the furthest the piece may fall
+     * @return how many rows, up to <code>maxRows</code>, the given piece can
+     *         fall straight down before it would collide with the well
+     */
+    public int dropDistance(Rotation rot, int row, int col, int maxRows) {
+        int limit = Math.min(maxRows, row + rot.getMinRow());
+        // Nothing lies above the stack, so the piece falls freely down to it
+        int free = row + rot.getMinRow() - stackHeight;
+        for (int dist = Math.max(1, free + 1); dist <= limit; dist++) {
+            if (collides(rot, row - dist, col)) {
+                return dist - 1;
+            }
+        }
+        return Math.max(limit, 0);
+    }
+
+    /**
+     * Places the given piece, expressed in terms of its rotation and
+     * position, without clearing the rows it completes. Cells outside of
+     * the well are dropped.
+     * @param rot the piece rotation
+     * @param row the row of the piece's position
+     * @param col the column of the piece's position
+     * @return a well like this one with the piece's cells filled
+     */
+    public PersistentWell place(Rotation rot, int row, int col) {
+        long[] next = chunks.clone();
+        long h = hash;
+        int top = stackHeight;
+        int done = completed;
+        int lowest = Math.max(row + rot.getMinRow(), 0);
+        int highest = Math.min(row + rot.getMaxRow(), height - 1);
+        for (int r = lowest; r <= highest; r++) {
+            if (getRowMask(r) == fullRow) {
+                done -= 1;
+            }
+        }
+        for (int i = 0; i < rot.getCellCount(); i++) {
+            int wellRow = row + rot.getCellRow(i);
+            int wellCol = col + rot.getCellCol(i);
+            if (wellRow >= 0 && wellRow < height && wellCol >= 0 && wellCol < width) {
+                long bit = 1L << (shift(wellRow) + wellCol);
+                if ((next[wellRow >>> rowShift] & bit) == 0) {
+                    next[wellRow >>> rowShift] |= bit;
+                    h ^= Well.cellKey(wellRow, wellCol);
+                    top = Math.max(top, wellRow + 1);
+                }
+            }
+        }
+        for (int r = lowest; r <= highest; r++) {
+            if (rowMask(next, r) == fullRow) {
+                done += 1;
+            }
+        }
+        return new PersistentWell(this, next, h, top, done);
+    }
+
+    /**
+     * Deletes every completed row, shifting the remaining rows downwards.
+     * @return a well like this one without its completed rows, or this well
+     *         if it has none
+     */
+    public PersistentWell clearCompletedRows() {
+        if (completed == 0) {
+            return this;
+        }
+        long[] next = new long[chunks.length];
+        long h = hash;
+        int dst = 0;
+        for (int src = 0; src < stackHeight; src++) {
+            int mask = getRowMask(src);
+            if (mask == fullRow) {
+                h ^= Well.rowHash(src, mask);
+            } else {
+                if (src != dst) {
+                    h ^= Well.rowHash(src, mask) ^ Well.rowHash(dst, mask);
+                }
+                next[dst >>> rowShift] |= (long) mask << shift(dst);
+                dst += 1;
+            }
+        }
+        int top = dst;
+        while (top > 0 && rowMask(next, top - 1) == 0) {
+            top -= 1;
+        }
+        return new PersistentWell(this, next, h, top, 0);
+    }
+
+    /**
+     * @param other another object
+     * @return true iff the other object is a persistent well of the same
+     *         size with the same cells filled
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof PersistentWell w && w.width == width && w.height == height
+                && w.hash == hash && Arrays.equals(w.chunks, chunks);
+    }
+
+    /** @return a hash code derived from the Zobrist hash */
+    @Override
+    public int hashCode() {
+        return Long.hashCode(hash);
+    }
+
+    /**
+     * @param row the row
+     * @return the position of the given row's lowest bit in its <code>long</code>
+     */
+    private int shift(int row) {
+        return (row & ((1 << rowShift) - 1)) << bitShift;
+    }
+
+    /**
+     * @param packed rows packed as in this well
+     * @param row the row
+     * @return the bitmask of the given row of the packed rows
+     */
+    private int rowMask(long[] packed, int row) {
+        return (int) (packed[row >>> rowShift] >>> shift(row)) & fullRow;
+    }
+}
@@ -1,9 +1,5 @@
 package com.gamewerks.bgm.engine;
 
-import java.awt.Color;
-import java.io.IOException;
-import java.util.HashMap;
-
 import com.gamewerks.bgm.util.Loader;
 import com.gamewerks.bgm.util.Position;
 
@@ -11,24 +7,16 @@ import com.gamewerks.bgm.util.Position;
 public class Piece {
    
     /**
-     * A mapping from each possible piece to its rotation data. The rotation
-     * data is stored as an array of grids. The grids are a 2d array of
-     * booleans indicating each cell that the piece occupies.
+     * The precompiled rotations of each possible piece, indexed first by
+     * {@link PieceKind#ordinal()} and then by orientation.
      */
-    private static HashMap<PieceKind, boolean[][][]> rotationData = null;
-    
-    static {
-        try {
-            rotationData = Loader.loadAllRotationData();
-        } catch (IOException ex) {
-            System.out.println("Exception occurred loading rotation data");
-            System.exit(-1);
-        }
-    }
+    private static final Rotation[][] rotations = Loader.loadAllRotations();
     
     private PieceKind kind;
     private int orientation;
-    private Position pos;
+    private int row;
+    private int col;
+    private int gravityDelta;
    
     /**
      * Constructs a new piece from the given parameters.
@@ -36,16 +24,59 @@ public class Piece {
      * @param pos the initial position of the piece
      */
     public Piece(PieceKind kind, Position pos) {
+        reset(kind, pos.row(), pos.col());
+        gravityDelta = pos.gravityDelta();
+    }
+
+    /**
+     * Turns this piece into a fresh piece of the given kind at the given
+     * position, so that the engine can reuse one piece rather than
+     * allocating a new one on every spawn.
+     * @param kind the kind of the piece
+     * @param row the initial row of the piece
+     * @param col the initial column of the piece
+     */
+    void reset(PieceKind kind, int row, int col) {
+        reset(kind, 0, row, col, 0);
+    }
+
+    /**
+     * Turns this piece into a piece of the given kind in the given
+     * orientation and position, e.g., to restore a saved game.
+     * @param kind the kind of the piece
+     * @param orientation the orientation of the piece, in <code>[0, 4)</code>
+     * @param row the row of the piece
+     * @param col the column of the piece
+     * @param gravityDelta the partial row reduction due to gravity, see {@link Position}
+     */
+    void reset(PieceKind kind, int orientation, int row, int col, int gravityDelta) {
         this.kind = kind;
-        orientation = 0;
-        this.pos = pos;
+        this.orientation = orientation;
+        this.row = row;
+        this.col = col;
+        this.gravityDelta = gravityDelta;
     }
 
     /**
      * @return the position of this piece
      */
     public Position getPosition() {
-        return pos;
+        return new Position(row, col, gravityDelta);
+    }
+
+    /** @return the row of this piece's position */
+    public int getRow() {
+        return row;
+    }
+
+    /** @return the column of this piece's position */
+    public int getCol() {
+        return col;
+    }
+
+    /** @return the gravity delta of this piece's position */
+    public int getGravityDelta() {
+        return gravityDelta;
     }
    
     /**
@@ -53,14 +84,56 @@ public class Piece {
      * @param p the position to move this piece to
      */
     public void moveTo(Position p) {
-        pos = p;
+        moveTo(p.row(), p.col(), p.gravityDelta());
+    }
+
+    /**
+     * Moves this piece to the given position
+     * @param row the row to move this piece to
+     * @param col the column to move this piece to
+     * @param gravityDelta the partial row reduction due to gravity, see {@link Position}
+     */
+    public void moveTo(int row, int col, int gravityDelta) {
+        this.row = row;
+        this.col = col;
+        this.gravityDelta = gravityDelta;
     }
    
     /**
      * @return the current grid-layout of this piece.
      */
     public boolean[][] getLayout() {
-        return rotationData.get(kind)[orientation];
+        return getRotation().getLayout();
+    }
+
+    /**
+     * @return the current precompiled rotation of this piece.
+     */
+    public Rotation getRotation() {
+        return rotations[kind.ordinal()][orientation];
+    }
+
+    /**
+     * @param kind the kind of piece
+     * @param orientation the orientation of the piece, in <code>[0, 4)</code>
+     * @return the precompiled rotation of the given piece in the given orientation
+     */
+    public static Rotation getRotation(PieceKind kind, int orientation) {
+        return rotations[kind.ordinal()][orientation];
+    }
+
+    /**
+     * @return the kind of this piece
+     */
+    public PieceKind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the orientation of this piece, in <code>[0, 4)</code>
+     */
+    public int getOrientation() {
+        return orientation;
     }
    
     /**
@@ -75,11 +148,4 @@ public class Piece {
             orientation = k < 0 ? 3 : k;
         }
     }
-
-    /**
-     * @return the color of this piece
-     */
-    public Color getColor() {
-        return kind.getColor();
-    }
 }
@@ -0,0 +1,48 @@
+package com.gamewerks.bgm.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides the sequence of pieces dealt to a game. A randomizer owns all of
+ * its state, so every engine must be given its own randomizer; two
+ * randomizers of the same kind built from the same seed deal the same
+ * sequence.
+ */
+public interface Randomizer {
+    /** The number of bytes {@link #writeState(ByteBuffer, int)} writes. */
+    int STATE_BYTES = 16;
+
+    /** @return the next piece, removing it from the sequence */
+    PieceKind next();
+
+    /** @return the next piece without removing it, i.e., the preview piece */
+    PieceKind peek();
+
+    /**
+     * Splits off a new randomizer of the same kind whose sequence is
+     * independent of, but determined by, this randomizer's state. Splitting
+     * advances this randomizer's generator, so pieces it has not yet
+     * generated may differ from those it would have dealt otherwise.
+     * @return the new randomizer
+     */
+    Randomizer split();
+
+    /**
+     * Writes this randomizer's state into {@link #STATE_BYTES} bytes of the
+     * given buffer, leaving its position untouched.
+     * @param buf the buffer
+     * @param offset the index of the first byte to write
+     */
+    void writeState(ByteBuffer buf, int offset);
+
+    /**
+     * Restores a state written by a randomizer of the same kind and, if it
+     * has any, the same parameters, so that this randomizer deals the same
+     * sequence as that one did from then on.
+     * @param buf the buffer
+     * @param offset the index of the first byte to read
+     * @throws IllegalArgumentException if a randomizer of another kind wrote
+     *         the state
+     */
+    void readState(ByteBuffer buf, int offset);
+}
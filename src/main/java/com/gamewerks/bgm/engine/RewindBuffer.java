@@ -0,0 +1,270 @@
+package com.gamewerks.bgm.engine;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A bounded history of the recent frames of a game, to rewind it in
+ * training mode or to dig up the state a desync started from.
+ *
+ * <p>Every frame is recorded as the state {@link Engine#writeState(ByteBuffer, int)}
+ * packs, but only the 8-byte words of it that changed since the previous
+ * frame are kept: an entry is a mask of the changed words followed by those
+ * words, so a typical frame costs the frame count, the piece's position and
+ * the held keys' counts, and the well's rows only when a piece locks or
+ * lines clear. Every <code>keyframeInterval</code> frames, an entry holds
+ * every word instead, so that any frame is rebuilt from the keyframe before
+ * it plus at most <code>keyframeInterval - 1</code> deltas.
+ *
+ * <p>Entries are appended to a fixed ring of bytes. When it is full, the
+ * oldest keyframe and its deltas are dropped to make room, so the buffer
+ * holds as many of the latest frames as fit, never fewer than a keyframe
+ * interval's worth. Recording a frame at or before the latest one discards
+ * the frames from it on, so that a rewound game records its new future.
+ */
+public class RewindBuffer {
+    /** The number of 8-byte words in a state. */
+    private static final int WORDS = Engine.STATE_BYTES / Long.BYTES;
+    /** The mask of an entry holding every word, i.e., of a keyframe. */
+    private static final int ALL_WORDS = (1 << WORDS) - 1;
+    /** The size of the largest entry, a keyframe. */
+    private static final int MAX_ENTRY_BYTES = Short.BYTES + Engine.STATE_BYTES;
+
+    private final int keyframeInterval;
+    private final int capacity;
+    private final ByteBuffer data;
+    /** Where each held keyframe starts, oldest first from firstGroup, as a ring. */
+    private final int[] groupStarts;
+    private int firstGroup;
+    /** The number of keyframes held, none if the buffer is empty. */
+    private int groups;
+    /** The frame of the oldest keyframe held. */
+    private long firstFrame;
+    /** The latest frame held. */
+    private long lastFrame;
+    /** Where the next entry goes, unless it has to wrap around. */
+    private int writePos;
+    /** The state of the latest frame held. */
+    private ByteBuffer last;
+    /** The state being recorded. */
+    private ByteBuffer scratch;
+
+    /**
+     * Constructs a new, empty rewind buffer.
+     * @param keyframeInterval the number of frames from one keyframe to the
+     *                         next, i.e., the most frames it takes to rebuild one
+     * @param capacity the number of bytes to hold the frames in, at least
+     *                 {@link #minCapacity(int)} of the interval
+     */
+    public RewindBuffer(int keyframeInterval, int capacity) {
+        if (keyframeInterval <= 0 || capacity < minCapacity(keyframeInterval)) {
+            throw new IllegalArgumentException("Rewind buffer of " + capacity
+                    + " bytes cannot hold keyframes every " + keyframeInterval + " frames");
+        }
+        this.keyframeInterval = keyframeInterval;
+        this.capacity = capacity;
+        data = ByteBuffer.allocate(capacity);
+        groupStarts = new int[capacity / MAX_ENTRY_BYTES + 1];
+        last = ByteBuffer.allocate(Engine.STATE_BYTES);
+        scratch = ByteBuffer.allocate(Engine.STATE_BYTES);
+    }
+
+    /**
+     * @param keyframeInterval the number of frames from one keyframe to the next
+     * @return the smallest capacity a buffer with the given interval may
+     *         have, which holds one interval's worth of frames at worst
+     */
+    public static int minCapacity(int keyframeInterval) {
+        // The group being recorded, a wasted tail and the next entry must fit
+        return (keyframeInterval + 2) * MAX_ENTRY_BYTES;
+    }
+
+    /** @return the number of frames from one keyframe to the next */
+    public int getKeyframeInterval() {
+        return keyframeInterval;
+    }
+
+    /** @return the number of bytes the frames are held in */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return true iff no frame is held */
+    public boolean isEmpty() {
+        return groups == 0;
+    }
+
+    /** @return the oldest frame held, if any */
+    public long getOldestFrame() {
+        return firstFrame;
+    }
+
+    /** @return the latest frame held, if any */
+    public long getLatestFrame() {
+        return lastFrame;
+    }
+
+    /**
+     * @param frame a frame count
+     * @return true iff the state of the given frame is held
+     */
+    public boolean contains(long frame) {
+        return groups > 0 && frame >= firstFrame && frame <= lastFrame;
+    }
+
+    /** Drops every frame held. */
+    public void clear() {
+        groups = 0;
+        writePos = 0;
+    }
+
+    /**
+     * Records the current frame of the given game, which follows the latest
+     * frame held. A frame at or before it replaces the frames from it on,
+     * and any other frame starts the history over.
+     * @param engine the game
+     */
+    public void record(Engine engine) {
+        long frame = engine.getFrameCount();
+        if (groups > 0 && frame <= lastFrame) {
+            truncate(frame - 1);
+        }
+        if (groups > 0 && frame != lastFrame + 1) {
+            clear();
+        }
+        engine.writeState(scratch, 0);
+        boolean keyframe = groups == 0 || (frame - firstFrame) % keyframeInterval == 0;
+        int mask = keyframe ? ALL_WORDS : changedWords();
+        int bytes = Short.BYTES + Long.BYTES * Integer.bitCount(mask);
+        int pos = writePos;
+        int waste = 0;
+        if (capacity - pos < MAX_ENTRY_BYTES) {
+            // Wrap around early, so that readers can tell without the mask
+            waste = capacity - pos;
+            pos = 0;
+        }
+        while (waste + bytes > freeBytes()) {
+            dropOldest();
+        }
+        if (keyframe) {
+            if (groups == 0) {
+                firstFrame = frame;
+            }
+            groupStarts[(firstGroup + groups) % groupStarts.length] = pos;
+            groups += 1;
+        }
+        data.putShort(pos, (short) mask);
+        pos += Short.BYTES;
+        for (int word = 0; word < WORDS; word++) {
+            if ((mask & 1 << word) != 0) {
+                data.putLong(pos, scratch.getLong(word * Long.BYTES));
+                pos += Long.BYTES;
+            }
+        }
+        writePos = pos;
+        lastFrame = frame;
+        ByteBuffer tmp = last;
+        last = scratch;
+        scratch = tmp;
+    }
+
+    /**
+     * Copies the state of a frame held into the given buffer, in the layout
+     * of {@link Engine#writeState(ByteBuffer, int)}, taking at most one
+     * keyframe interval's worth of entries.
+     * @param frame the frame
+     * @param buf the buffer
+     * @param offset the index of the first byte to write
+     * @throws IllegalArgumentException if the frame is not held
+     */
+    public void copyState(long frame, ByteBuffer buf, int offset) {
+        if (!contains(frame)) {
+            throw new IllegalArgumentException("Frame " + frame + " is not held");
+        }
+        rebuild(frame, buf, offset);
+    }
+
+    /**
+     * Overwrites the given game with the state of a frame held, exactly as
+     * it was recorded.
+     * @param frame the frame
+     * @param engine the game
+     * @throws IllegalArgumentException if the frame is not held
+     */
+    public void restore(long frame, Engine engine) {
+        copyState(frame, scratch, 0);
+        engine.readState(scratch, 0);
+    }
+
+    /**
+     * @return the mask of the words of the state being recorded that differ
+     *         from those of the latest frame held
+     */
+    private int changedWords() {
+        int mask = 0;
+        for (int word = 0; word < WORDS; word++) {
+            int index = word * Long.BYTES;
+            if (scratch.getLong(index) != last.getLong(index)) {
+                mask |= 1 << word;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @return the number of bytes from where the next entry goes to the
+     *         oldest keyframe held
+     */
+    private int freeBytes() {
+        if (groups == 0) {
+            return capacity;
+        }
+        return Math.floorMod(groupStarts[firstGroup] - writePos, capacity);
+    }
+
+    /** Drops the oldest keyframe held and the frames up to the next one. */
+    private void dropOldest() {
+        firstGroup = (firstGroup + 1) % groupStarts.length;
+        groups -= 1;
+        firstFrame += keyframeInterval;
+    }
+
+    /**
+     * Drops the frames after the given one.
+     * @param frame the latest frame to keep
+     */
+    private void truncate(long frame) {
+        if (frame < firstFrame) {
+            clear();
+            return;
+        }
+        writePos = rebuild(frame, last, 0);
+        lastFrame = frame;
+        groups = (int) ((frame - firstFrame) / keyframeInterval) + 1;
+    }
+
+    /**
+     * Rebuilds the state of a frame held from the keyframe before it.
+     * @param frame the frame
+     * @param buf the buffer to rebuild the state in
+     * @param offset the index of the state's first byte
+     * @return where the entry following the frame's starts
+     */
+    private int rebuild(long frame, ByteBuffer buf, int offset) {
+        int group = (int) ((frame - firstFrame) / keyframeInterval);
+        int pos = groupStarts[(firstGroup + group) % groupStarts.length];
+        for (long f = firstFrame + (long) group * keyframeInterval; f <= frame; f++) {
+            if (capacity - pos < MAX_ENTRY_BYTES) {
+                pos = 0;
+            }
+            int mask = data.getShort(pos);
+            pos += Short.BYTES;
+            for (int word = 0; word < WORDS; word++) {
+                if ((mask & 1 << word) != 0) {
+                    buf.putLong(offset + word * Long.BYTES, data.getLong(pos));
+                    pos += Long.BYTES;
+                }
+            }
+        }
+        return pos;
+    }
+}
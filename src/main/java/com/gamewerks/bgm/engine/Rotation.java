@@ -0,0 +1,127 @@
+package com.gamewerks.bgm.engine;
+
+/**
+ * A precompiled, immutable view of one orientation of a piece. Besides the
+ * original grid-layout, a rotation records the cells the piece occupies as
+ * offsets from the piece's position, the extents of those offsets, and one
+ * bitmask per occupied row.
+ *
+ * <p>Offsets follow the convention of {@link Piece#getPosition()}: the
+ * position names the top-left corner of the layout, so a row offset is
+ * always <code>&lt;= 0</code> and a column offset is always <code>&gt;= 0</code>.
+ */
+public final class Rotation {
+    private final boolean[][] layout;
+    private final int[] cellRows;
+    private final int[] cellCols;
+    private final int[] rowMasks;
+    private final int minRow;
+    private final int maxRow;
+    private final int minCol;
+    private final int maxCol;
+
+    /**
+     * Compiles the given grid-layout into a rotation.
+     * @param layout the layout of the piece, <code>layout[0]</code> being its
+     *               bottom row
+     */
+    public Rotation(boolean[][] layout) {
+        this.layout = layout;
+        int count = 0;
+        for (boolean[] row : layout) {
+            for (boolean cell : row) {
+                if (cell) {
+                    count += 1;
+                }
+            }
+        }
+        if (count == 0) {
+            throw new IllegalArgumentException("A rotation must occupy at least one cell");
+        }
+        cellRows = new int[count];
+        cellCols = new int[count];
+        int lo = Integer.MAX_VALUE;
+        int hi = Integer.MIN_VALUE;
+        int left = Integer.MAX_VALUE;
+        int right = Integer.MIN_VALUE;
+        int i = 0;
+        for (int row = 0; row < layout.length; row++) {
+            int offset = row - (layout.length - 1);
+            for (int col = 0; col < layout[row].length; col++) {
+                if (layout[row][col]) {
+                    cellRows[i] = offset;
+                    cellCols[i] = col;
+                    i += 1;
+                    lo = Math.min(lo, offset);
+                    hi = Math.max(hi, offset);
+                    left = Math.min(left, col);
+                    right = Math.max(right, col);
+                }
+            }
+        }
+        minRow = lo;
+        maxRow = hi;
+        minCol = left;
+        maxCol = right;
+        rowMasks = new int[maxRow - minRow + 1];
+        for (int j = 0; j < count; j++) {
+            rowMasks[cellRows[j] - minRow] |= 1 << cellCols[j];
+        }
+    }
+
+    /** @return the grid-layout this rotation was compiled from */
+    public boolean[][] getLayout() {
+        return layout;
+    }
+
+    /** @return the number of cells this rotation occupies */
+    public int getCellCount() {
+        return cellRows.length;
+    }
+
+    /**
+     * @param i the index of the cell, <code>0 &lt;= i &lt; getCellCount()</code>
+     * @return the row offset of the given cell
+     */
+    public int getCellRow(int i) {
+        return cellRows[i];
+    }
+
+    /**
+     * @param i the index of the cell, <code>0 &lt;= i &lt; getCellCount()</code>
+     * @return the column offset of the given cell
+     */
+    public int getCellCol(int i) {
+        return cellCols[i];
+    }
+
+    /**
+     * @param rowOffset a row offset, <code>getMinRow() &lt;= rowOffset &lt;= getMaxRow()</code>
+     * @return the bitmask of the cells occupied in the given row, bit
+     *         <code>col</code> being set iff column offset <code>col</code> is
+     *         occupied
+     */
+    public int getRowMask(int rowOffset) {
+        return rowMasks[rowOffset - minRow];
+    }
+
+    /** @return the lowest occupied row offset */
+    public int getMinRow() {
+        return minRow;
+    }
+
+    /** @return the highest occupied row offset */
+    public int getMaxRow() {
+        return maxRow;
+    }
+
+    /** @return the leftmost occupied column offset */
+    public int getMinCol() {
+        return minCol;
+    }
+
+    /** @return the rightmost occupied column offset */
+    public int getMaxCol() {
+        return maxCol;
+    }
+}
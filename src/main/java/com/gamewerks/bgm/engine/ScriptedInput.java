@@ -0,0 +1,60 @@
+package com.gamewerks.bgm.engine;
+
+/**
+ * An input source that replays a fixed script of key bitmasks, one per
+ * frame, looping back to the start once the script runs out.
+ */
+public class ScriptedInput implements InputSource {
+    /** The length (in frames) of one cycle of the standard script. */
+    private static final int STANDARD_CYCLE = 128;
+
+    private int[] script;
+
+    /**
+     * Constructs a new scripted input source.
+     * @param script the keys held on each frame as {@link KeyKind#mask()} bitmasks
+     */
+    public ScriptedInput(int[] script) {
+        if (script.length == 0) {
+            throw new IllegalArgumentException("A script must contain at least one frame");
+        }
+        this.script = script.clone();
+    }
+
+    @Override
+    public int keysHeld(long frame) {
+        return script[(int) (frame % script.length)];
+    }
+
+    /**
+     * @return the script used to measure headless throughput. Over two
+     *         pieces' worth of frames it rotates both ways, shifts left and
+     *         right long enough to trigger DAS, soft drops and sonic drops,
+     *         so that every phase of a frame is exercised.
+     */
+    public static ScriptedInput standard() {
+        int[] script = new int[STANDARD_CYCLE];
+        hold(script, KeyKind.ROTATE_CLOCKWISE, 0, 2);
+        hold(script, KeyKind.MOVE_LEFT, 4, 24);
+        hold(script, KeyKind.SOFT_DROP, 28, 40);
+        hold(script, KeyKind.SONIC_DROP, 44, 46);
+        hold(script, KeyKind.ROTATE_COUNTERCLOCKWISE, 64, 66);
+        hold(script, KeyKind.MOVE_RIGHT, 68, 86);
+        hold(script, KeyKind.SONIC_DROP, 100, 102);
+        return new ScriptedInput(script);
+    }
+
+    /**
+     * Holds the given key in the script from frame <code>from</code>
+     * (inclusive) to frame <code>to</code> (exclusive).
+     * @param script the script to modify
+     * @param key the key to hold
+     * @param from the first frame the key is held
+     * @param to the frame the key is released
+     */
+    private static void hold(int[] script, KeyKind key, int from, int to) {
+        for (int frame = from; frame < to; frame++) {
+            script[frame] |= key.mask();
+        }
+    }
+}
@@ -1,18 +1,59 @@
 package com.gamewerks.bgm.engine;
 
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import com.gamewerks.bgm.util.Constants;
 import com.gamewerks.bgm.util.Position;
+import com.gamewerks.bgm.util.SplitMix64;
 
 /**
  * The well is a two-dimensional grid, filled in by pieces that have been
  * locked into place. Row/col (0, 0) corresponds to the bottom-left corner
  * of the well.
+ *
+ * <p>Each row of the well is stored as an <code>int</code> bitmask where bit
+ * <code>col</code> is set iff the cell at <code>(row, col)</code> is filled.
+ * This keeps collision checks down to a shift-and-AND per piece row and
+ * completed-row checks down to a single comparison.
+ *
+ * <p>The well also keeps a 64-bit Zobrist hash of its filled cells: the XOR
+ * of a fixed pseudo-random key per filled cell, updated incrementally as
+ * pieces are added and rows are deleted. Wells with the same cells filled
+ * have the same hash, however they came about, so searches can use it to
+ * recognize positions they have already evaluated.
+ *
+ * <p>Finally, the well keeps the surface metrics placement heuristics look
+ * at: the height of every column, the height of the stack and the number of
+ * holes, i.e., empty cells below the top of their column, as well as the
+ * number of completed rows. Adding a piece updates them cell by cell;
+ * deleting rows recomputes them in one top-down sweep over the row masks of
+ * the stack. Evaluating a candidate placement thus costs O(width) rather
+ * than a scan of the whole grid.
  */
 public class Well {
-    private boolean[][] grid;
+    /** The salt and odd multiplier the Zobrist cell keys are mixed from. */
+    private static final long ZOBRIST_SALT = 0x5be2_d00f_3c6e_a91dL;
+    private static final long ZOBRIST_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private int width;
+    private int height;
+    private int[] rows;
+    /** The mask of a completely filled row, i.e., the low <code>width</code> bits. */
+    private int fullRow;
+    /** The Zobrist hash of the filled cells, see {@link #getHash()}. */
+    private long hash;
+    /** The height of every column, see {@link #getColumnHeight(int)}. */
+    private int[] heights;
+    /** The height of the highest column. */
+    private int stackHeight;
+    /** The number of holes, see {@link #getHoleCount()}. */
+    private int holes;
+    /** The number of completed rows. */
+    private int completed;
 
     /**
      * Constructs a new well with the given size
@@ -20,7 +61,15 @@ public class Well {
      * @param height the height of the well (tne number of rows)
      */
     public Well(int width, int height) {
-        grid = new boolean[height][width];
+        if (width <= 0 || width >= Integer.SIZE || height <= 0) {
+            throw new IllegalArgumentException(
+                "Unsupported well size: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        rows = new int[height];
+        fullRow = (1 << width) - 1;
+        heights = new int[width];
     }
 
     /**
@@ -28,44 +77,212 @@ public class Well {
      * {@link Constants#BOARD_HEIGHT}).
      */
     public Well() {
-        grid = new boolean[Constants.BOARD_HEIGHT][Constants.BOARD_WIDTH];
+        this(Constants.BOARD_WIDTH, Constants.BOARD_HEIGHT);
     }
 
     /**
-     * Constructs a new well from the given grid.
+     * Constructs a new well from the given grid. The grid is copied, so
+     * later changes to it are not reflected in this well.
      * @param grid the initial state of this well
      */
     public Well(boolean[][] grid) {
-        this.grid = grid;
+        this(grid[0].length, grid.length);
+        for (int row = 0; row < height; row++) {
+            for (int col = 0; col < width; col++) {
+                if (grid[row][col]) {
+                    rows[row] |= 1 << col;
+                }
+            }
+            hash ^= rowHash(row, rows[row]);
+        }
+        updateSurface(height);
+    }
+
+    /**
+     * Constructs a new well that is a copy of the given well.
+     * @param other the well to copy
+     */
+    public Well(Well other) {
+        width = other.width;
+        height = other.height;
+        rows = other.rows.clone();
+        fullRow = other.fullRow;
+        hash = other.hash;
+        heights = other.heights.clone();
+        stackHeight = other.stackHeight;
+        holes = other.holes;
+        completed = other.completed;
+    }
+
+    /**
+     * Overwrites this well with the contents of the given well of the same
+     * size, so that searches can reuse one scratch well per ply.
+     * @param other the well to copy
+     */
+    public void copyFrom(Well other) {
+        if (other.width != width || other.height != height) {
+            throw new IllegalArgumentException("Wells differ in size");
+        }
+        System.arraycopy(other.rows, 0, rows, 0, height);
+        hash = other.hash;
+        System.arraycopy(other.heights, 0, heights, 0, width);
+        stackHeight = other.stackHeight;
+        holes = other.holes;
+        completed = other.completed;
+    }
+
+    /**
+     * @return the number of bytes {@link #writeRows(ByteBuffer, int)} writes,
+     *         as many <code>long</code>s as it takes to pack every row
+     *         without splitting one across two of them
+     */
+    public int getPackedBytes() {
+        int rowsPerLong = Long.SIZE / width;
+        return Long.BYTES * ((height + rowsPerLong - 1) / rowsPerLong);
+    }
+
+    /**
+     * Packs the rows of this well, bottom row first and <code>width</code>
+     * bits apiece, into {@link #getPackedBytes()} bytes of the given buffer.
+     * @param buf the buffer
+     * @param offset the index of the first byte to write
+     */
+    public void writeRows(ByteBuffer buf, int offset) {
+        int rowsPerLong = Long.SIZE / width;
+        for (int first = 0; first < height; first += rowsPerLong, offset += Long.BYTES) {
+            long packed = 0;
+            for (int row = Math.min(first + rowsPerLong, height) - 1; row >= first; row--) {
+                packed = packed << width | rows[row];
+            }
+            buf.putLong(offset, packed);
+        }
+    }
+
+    /**
+     * Overwrites this well with rows packed by {@link #writeRows(ByteBuffer, int)}
+     * from a well of the same size, recomputing its hash and surface.
+     * @param buf the buffer
+     * @param offset the index of the first byte to read
+     */
+    public void readRows(ByteBuffer buf, int offset) {
+        int rowsPerLong = Long.SIZE / width;
+        hash = 0;
+        for (int first = 0; first < height; first += rowsPerLong, offset += Long.BYTES) {
+            long packed = buf.getLong(offset);
+            for (int row = first; row < Math.min(first + rowsPerLong, height); row++) {
+                rows[row] = (int) packed & fullRow;
+                hash ^= rowHash(row, rows[row]);
+                packed >>>= width;
+            }
+        }
+        updateSurface(height);
+    }
+
+    /**
+     * Overwrites this well with the contents of the given persistent well
+     * of the same size, e.g., to generate moves on a board of a search tree.
+     * @param other the well to copy
+     */
+    public void copyFrom(PersistentWell other) {
+        if (other.getWidth() != width || other.getHeight() != height) {
+            throw new IllegalArgumentException("Wells differ in size");
+        }
+        for (int row = 0; row < height; row++) {
+            rows[row] = other.getRowMask(row);
+        }
+        hash = other.getHash();
+        updateSurface(other.getStackHeight());
     }
 
     /** @return the well's width (columns of the board) */
     public int getWidth() {
-        return grid[0].length;
+        return width;
     }
 
     /** @return the well's height (rows of the board) */
     public int getHeight() {
-        return grid.length;
+        return height;
     }
-   
+
     /**
      * @param row the row
      * @param col the column
      * @return true iff (row, col) is a valid position in this well
      */
     public boolean isValidPosition(int row, int col) {
-        return row >= 0 && row < grid.length && col >= 0 && col < grid[0].length;
+        return row >= 0 && row < height && col >= 0 && col < width;
+    }
+
+    /**
+     * @param row the row
+     * @param col the column
+     * @return true iff the cell at (row, col) is filled
+     */
+    public boolean isOccupied(int row, int col) {
+        return (rows[row] & (1 << col)) != 0;
     }
-   
+
+    /**
+     * @param row the row
+     * @return the bitmask of the given row, bit <code>col</code> being set iff
+     *         (row, col) is filled
+     */
+    public int getRowMask(int row) {
+        return rows[row];
+    }
+
     /**
      * @param p the piece
      * @return true if the given piece collides with the well
      */
     public boolean collides(Piece p) {
-        return collides(p.getLayout(), p.getPosition());
+        return collides(p.getRotation(), p.getRow(), p.getCol());
+    }
+
+    /**
+     * @param rot the piece rotation
+     * @param row the row of the piece's position
+     * @param col the column of the piece's position
+     * @return true if the given piece, expressed in terms of its rotation and
+     *         position, collides with the well or lies outside of it
+     */
+    public boolean collides(Rotation rot, int row, int col) {
+        int minRow = rot.getMinRow();
+        int maxRow = rot.getMaxRow();
+        if (row + minRow < 0 || row + maxRow >= height
+                || col + rot.getMinCol() < 0 || col + rot.getMaxCol() >= width) {
+            return true;
+        }
+        for (int r = minRow; r <= maxRow; r++) {
+            int mask = rot.getRowMask(r);
+            int shifted = col >= 0 ? mask << col : mask >>> -col;
+            if ((rows[row + r] & shifted) != 0) {
+                return true;
+            }
+        }
+        return false;
     }
-   
+
+    /**
+     * @param rot the piece rotation
+     * @param row the row of the piece's position, which must not collide
+     * @param col the column of the piece's position
+     * @param maxRows the furthest the piece may fall
+     * @return how many rows, up to <code>maxRows</code>, the given piece can
+     *         fall straight down before it would collide with the well
+     */
+    public int dropDistance(Rotation rot, int row, int col, int maxRows) {
+        int limit = Math.min(maxRows, row + rot.getMinRow());
+        // Nothing lies above the stack, so the piece falls freely down to it
+        int free = row + rot.getMinRow() - stackHeight;
+        for (int dist = Math.max(1, free + 1); dist <= limit; dist++) {
+            if (collides(rot, row - dist, col)) {
+                return dist - 1;
+            }
+        }
+        return Math.max(limit, 0);
+    }
+
     /**
      * @param layout the piece layout
      * @param pos position
@@ -74,34 +291,55 @@ public class Well {
      */
     public boolean collides(boolean[][] layout, Position pos) {
         for (int row = 0; row < layout.length; row++) {
+            int mask = layoutRowMask(layout[row]);
+            if (mask == 0) {
+                continue;
+            }
             int wellRow = pos.row() - (layout.length - 1 - row);
-            for (int col = 0; col < layout[row].length; col++) {
-                int wellCol = col + pos.col();
-                if (layout[row][col]) {
-                    if (!isValidPosition(wellRow, wellCol)) {
-                        return true;
-                    } else if (grid[wellRow][wellCol]) {
-                        return true;
-                    }
-                }
+            int shifted = shiftIntoWell(mask, pos.col());
+            if (wellRow < 0 || wellRow >= height || shifted == 0) {
+                return true;
+            }
+            if ((rows[wellRow] & shifted) != 0) {
+                return true;
             }
         }
         return false;
     }
-   
+
     /**
      * Adds the given piece to the well.
      * @param p the piece to add
      */
     public void addToWell(Piece p) {
-        boolean[][] layout = p.getLayout();
-        Position pos = p.getPosition();
-        for (int row = 0; row < layout.length; row++) {
-            int wellRow = pos.row() - (layout.length - 1 - row);
-            for (int col = 0; col < layout[row].length; col++) {
-                int wellCol = pos.col() + col;
-                if (isValidPosition(wellRow, wellCol) && layout[row][col]) {
-                    grid[wellRow][wellCol] = true;
+        addToWell(p.getRotation(), p.getRow(), p.getCol());
+    }
+
+    /**
+     * Adds the given piece, expressed in terms of its rotation and position,
+     * to the well. Cells outside of the well are dropped.
+     * @param rot the piece rotation
+     * @param row the row of the piece's position
+     * @param col the column of the piece's position
+     */
+    public void addToWell(Rotation rot, int row, int col) {
+        for (int i = 0; i < rot.getCellCount(); i++) {
+            int wellRow = row + rot.getCellRow(i);
+            int wellCol = col + rot.getCellCol(i);
+            if (isValidPosition(wellRow, wellCol) && (rows[wellRow] & (1 << wellCol)) == 0) {
+                rows[wellRow] |= 1 << wellCol;
+                hash ^= cellKey(wellRow, wellCol);
+                if (rows[wellRow] == fullRow) {
+                    completed += 1;
+                }
+                int top = heights[wellCol];
+                if (wellRow < top) {
+                    holes -= 1;
+                } else {
+                    // The empty cells between the old top and this one are now covered
+                    holes += wellRow - top;
+                    heights[wellCol] = wellRow + 1;
+                    stackHeight = Math.max(stackHeight, wellRow + 1);
                 }
             }
         }
@@ -113,25 +351,121 @@ public class Well {
      * @param n the index of the row to delete
      */
     public void deleteRow(int n) {
-        for (int row = n; row < getHeight() - 1; row++) {
-            for (int col = 0; col < getWidth(); col++) {
-                grid[row][col] = grid[row + 1][col];
-            }
+        for (int row = n; row < height; row++) {
+            hash ^= rowHash(row, rows[row]);
         }
-        for (int col = 0; col < getWidth(); col++) {
-            grid[getHeight() - 1][col] = false;
+        System.arraycopy(rows, n + 1, rows, n, height - 1 - n);
+        rows[height - 1] = 0;
+        for (int row = n; row < height - 1; row++) {
+            hash ^= rowHash(row, rows[row]);
         }
+        updateSurface(stackHeight);
     }
-   
+
     /**
-     * Deletes the given list of rows from the well.
+     * Deletes the given list of rows from the well, shifting the remaining
+     * rows downwards in a single pass.
      * @param rows the rows to delete
      */
     public void deleteRows(List<Integer> rows) {
+        boolean[] doomed = new boolean[height];
         for (int i = 0; i < rows.size(); i++) {
-            int row = (Integer) rows.get(i);
-            deleteRow(row);
+            doomed[rows.get(i)] = true;
+        }
+        int dst = 0;
+        for (int src = 0; src < height; src++) {
+            int mask = this.rows[src];
+            if (!doomed[src]) {
+                if (src != dst) {
+                    hash ^= rowHash(src, mask) ^ rowHash(dst, mask);
+                }
+                this.rows[dst++] = mask;
+            } else {
+                hash ^= rowHash(src, mask);
+            }
+        }
+        Arrays.fill(this.rows, dst, height, 0);
+        updateSurface(stackHeight);
+    }
+
+    /**
+     * Deletes every completed row from the well, shifting the remaining rows
+     * downwards. The well is compacted in a single bottom-up sweep, each
+     * surviving row moving at most once, and nothing is allocated. As the
+     * well counts its completed rows as they fill up, this returns at once
+     * when there are none, which is on almost every frame.
+     * @return the number of rows deleted
+     */
+    public int clearCompletedRows() {
+        if (completed == 0) {
+            return 0;
+        }
+        int src = 0;
+        while (rows[src] != fullRow) {
+            src += 1;
+        }
+        int dst = src;
+        int top = stackHeight;
+        for (; src < top; src++) {
+            int mask = rows[src];
+            // Every row from the first completed one up moves, so re-hash it
+            hash ^= rowHash(src, mask);
+            if (mask != fullRow) {
+                hash ^= rowHash(dst, mask);
+                rows[dst++] = mask;
+            }
+        }
+        Arrays.fill(rows, dst, top, 0);
+        updateSurface(top);
+        return top - dst;
+    }
+
+    /**
+     * @param row the row
+     * @return the number of filled cells in the given row
+     */
+    public int getRowFill(int row) {
+        return Integer.bitCount(rows[row]);
+    }
+
+    /**
+     * @param col the column
+     * @return the height of the given column, i.e., one more than the row of
+     *         its highest filled cell, or 0 if it is empty
+     */
+    public int getColumnHeight(int col) {
+        return heights[col];
+    }
+
+    /**
+     * @return the height of the highest column. Every row from this one up
+     *         is empty.
+     */
+    public int getStackHeight() {
+        return stackHeight;
+    }
+
+    /** @return the sum of the heights of all columns */
+    public int getAggregateHeight() {
+        int sum = 0;
+        for (int col = 0; col < width; col++) {
+            sum += heights[col];
         }
+        return sum;
+    }
+
+    /** @return the number of empty cells that lie below the top of their column */
+    public int getHoleCount() {
+        return holes;
+    }
+
+    /** @return the sum of the height differences between adjacent columns */
+    public int getBumpiness() {
+        int sum = 0;
+        for (int col = 1; col < width; col++) {
+            sum += Math.abs(heights[col] - heights[col - 1]);
+        }
+        return sum;
     }
 
     /**
@@ -139,26 +473,134 @@ public class Well {
      * @return true iff the given row is complete, i.e., completely filled in
      */
     public boolean isCompletedRow(int row) {
-        boolean isCompleted = true;
-        for (int col = 0; col < getWidth(); col++) {
-            isCompleted = isCompleted && grid[row][col];
-        }
-        return isCompleted;
+        return rows[row] == fullRow;
     }
-   
-    /** @return all completed rows for this well as a list */
+
+    /**
+     * @return all completed rows for this well as a list, from top to bottom.
+     *         If there are none, the (immutable) empty list is returned
+     *         without allocating.
+     */
     public List<Integer> getCompletedRows() {
-        List<Integer> completedRows = new LinkedList<>();
-        for (int row = getHeight() - 1; row >= 0; row--) {
+        if (completed == 0) {
+            return Collections.emptyList();
+        }
+        List<Integer> completedRows = null;
+        for (int row = stackHeight - 1; row >= 0; row--) {
             if (isCompletedRow(row)) {
+                if (completedRows == null) {
+                    completedRows = new ArrayList<>(4);
+                }
                 completedRows.add(row);
             }
         }
-        return completedRows;
+        return completedRows == null ? Collections.emptyList() : completedRows;
     }
 
-    /** @return the underlying grid (2d-array) of this well */
+    /**
+     * @return a copy of this well as a grid (2d-array). Changes to the
+     *         returned grid are not reflected in this well.
+     */
     public boolean[][] getGrid() {
+        boolean[][] grid = new boolean[height][width];
+        for (int row = 0; row < height; row++) {
+            int mask = rows[row];
+            for (int col = 0; col < width; col++) {
+                grid[row][col] = (mask & (1 << col)) != 0;
+            }
+        }
         return grid;
     }
+
+    /**
+     * @return the Zobrist hash of this well's filled cells. Two wells of the
+     *         same size with the same cells filled have the same hash.
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Recomputes the column heights, stack height, hole count and number of
+     * completed rows after rows were deleted. Sweeps the rows from the top down, tracking which
+     * columns have been covered so far, so it touches each row of the stack
+     * once instead of each cell.
+     * @param top a row at or above which the well is known to be empty
+     */
+    private void updateSurface(int top) {
+        Arrays.fill(heights, 0);
+        stackHeight = 0;
+        holes = 0;
+        completed = 0;
+        int covered = 0;
+        for (int row = Math.min(top, height) - 1; row >= 0; row--) {
+            int mask = rows[row];
+            holes += Integer.bitCount(covered & ~mask);
+            if (mask == fullRow) {
+                completed += 1;
+            }
+            int tops = mask & ~covered;
+            if (tops != 0 && stackHeight == 0) {
+                stackHeight = row + 1;
+            }
+            while (tops != 0) {
+                heights[Integer.numberOfTrailingZeros(tops)] = row + 1;
+                tops &= tops - 1;
+            }
+            covered |= mask;
+        }
+    }
+
+    /**
+     * @param row the row of a cell
+     * @param col the column of a cell
+     * @return the Zobrist key of the given cell
+     */
+    static long cellKey(int row, int col) {
+        return SplitMix64.mix64(ZOBRIST_SALT + (((long) row << 5 | col) + 1) * ZOBRIST_GAMMA);
+    }
+
+    /**
+     * @param row the index of a row
+     * @param mask the cells filled in that row
+     * @return the XOR of the Zobrist keys of the given cells
+     */
+    static long rowHash(int row, int mask) {
+        long h = 0;
+        while (mask != 0) {
+            h ^= cellKey(row, Integer.numberOfTrailingZeros(mask));
+            mask &= mask - 1;
+        }
+        return h;
+    }
+
+    /**
+     * @param layoutRow one row of a piece layout
+     * @return the given row as a bitmask, bit <code>col</code> set iff the
+     *         layout occupies that column
+     */
+    private static int layoutRowMask(boolean[] layoutRow) {
+        int mask = 0;
+        for (int col = 0; col < layoutRow.length; col++) {
+            if (layoutRow[col]) {
+                mask |= 1 << col;
+            }
+        }
+        return mask;
+    }
+
+    /**
+     * @param mask a non-empty piece row mask, relative to the piece's column
+     * @param col the column of the piece
+     * @return the mask shifted into well coordinates, or 0 if any of its
+     *         cells fall outside of the well's walls
+     */
+    private int shiftIntoWell(int mask, int col) {
+        int lowest = col + Integer.numberOfTrailingZeros(mask);
+        int highest = col + (Integer.SIZE - 1 - Integer.numberOfLeadingZeros(mask));
+        if (lowest < 0 || highest >= width) {
+            return 0;
+        }
+        return col >= 0 ? mask << col : mask >>> -col;
+    }
 }
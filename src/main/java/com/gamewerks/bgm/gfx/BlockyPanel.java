@@ -3,69 +3,224 @@ package com.gamewerks.bgm.gfx;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.GraphicsConfiguration;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
 
 import javax.swing.JPanel;
+import javax.swing.Timer;
 
-import com.gamewerks.bgm.engine.Engine;
-import com.gamewerks.bgm.engine.Piece;
+import com.gamewerks.bgm.engine.FrameSnapshot;
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Rotation;
+import com.gamewerks.bgm.metrics.EngineMetrics;
 import com.gamewerks.bgm.util.Constants;
-import com.gamewerks.bgm.util.Position;
+import com.gamewerks.bgm.util.TripleBuffer;
 
-/** The panel on which we render an instance of the Blocky game engine. */
+/**
+ * The panel on which we render an instance of the Blocky game engine.
+ *
+ * <p>The panel never touches the engine itself. The engine publishes a
+ * {@link FrameSnapshot} of every frame through a triple buffer, and a Swing
+ * timer polls the buffer on the event dispatch thread, at the display's
+ * rate, so drawing neither races nor blocks the game thread.
+ *
+ * <p>The locked well only changes when a piece locks or lines are cleared,
+ * so it is rendered into a cached image that is only rebuilt when the
+ * snapshot's well version changes. Painting then copies the cached image and
+ * draws the active piece over it, and each poll only repaints the
+ * rectangles covered by the active piece's previous and current positions.
+ */
 public class BlockyPanel extends JPanel {
     private static final int BLOCK_SIZE = 32;
+    /** How often the panel polls for a new frame, in milliseconds. */
+    private static final int POLL_MILLIS = 1000 / 60;
+
+    /**
+     * @param kind the kind of piece
+     * @return the color associated with the given piece
+     */
+    private static Color colorOf(PieceKind kind) {
+        switch (kind) {
+            case I: return Color.RED;
+            case J: return Color.BLUE;
+            case L: return Color.ORANGE;
+            case O: return Color.YELLOW;
+            case S: return Color.PINK;
+            case T: return Color.CYAN;
+            case Z: return Color.GREEN;
+            default:
+                // N.B., cannot happen!
+                throw new IllegalStateException();
+        }
+    }
     
     private int width;
     private int height;
-    private Engine game;
+    private TripleBuffer<FrameSnapshot> frames;
+    /**
+     * The frame being displayed, owned by the event dispatch thread; empty
+     * until the first frame is polled.
+     */
+    private FrameSnapshot frame;
+    private Timer poller;
+    private EngineMetrics metrics;
+
+    /** The well, as of {@link #imageVersion}. */
+    private BufferedImage wellImage;
+    private int imageVersion;
+    /** The well version of the last frame polled. */
+    private int polledVersion;
+    /** The area covered by the active piece in the last frame polled. */
+    private Rectangle pieceBounds = new Rectangle();
+    /** The kind and orientation of the active piece in the last frame polled. */
+    private int pieceShape = -1;
+    private Rectangle previousBounds = new Rectangle();
 
     /**
-     * Constructs a new panel that renders the given game.
-     * @param game the game engine to render
+     * Constructs a new panel that renders the frames published to the given
+     * buffer, see {@link com.gamewerks.bgm.engine.Engine#setSnapshotBuffer}.
+     * @param frames the buffer, which this panel is the reader of
      */
-    public BlockyPanel(Engine game) {
+    public BlockyPanel(TripleBuffer<FrameSnapshot> frames) {
         width = Constants.BOARD_WIDTH * BLOCK_SIZE;
         height = (Constants.BOARD_HEIGHT - 3) * BLOCK_SIZE;
-        this.game = game;
+        this.frames = frames;
+        // Only the event dispatch thread may acquire, so the first poll does
+        frame = new FrameSnapshot();
+        poller = new Timer(POLL_MILLIS, e -> poll());
+        poller.setCoalesce(true);
         setPreferredSize(new Dimension(width, height));
     }
 
     /**
-     * Draws the state of the panel's underlying engine. Note that this method
-     * is not called directly. The Swing library calls this method to render
-     * the panel when it deems appropriate to do so.
+     * Starts recording how long painting takes into the given metrics.
+     * @param metrics the metrics, or null to stop recording
+     */
+    public void setMetrics(EngineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** Starts polling for frames once the panel is displayable. */
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        poller.start();
+    }
+
+    /** Stops polling for frames once the panel is no longer displayable. */
+    @Override
+    public void removeNotify() {
+        poller.stop();
+        super.removeNotify();
+    }
+
+    /**
+     * Takes the latest frame, if a new one was published, and repaints the
+     * parts of the panel that changed: the whole panel if the well changed,
+     * otherwise only the active piece's previous and current areas, and
+     * nothing if the piece did not move.
+     */
+    private void poll() {
+        if (!frames.hasFresh()) {
+            return;
+        }
+        frame = frames.acquire();
+        int shape = frame.getPieceKind() == null ? -1
+                : frame.getPieceKind().ordinal() << 2 | frame.getOrientation();
+        previousBounds.setBounds(pieceBounds);
+        pieceBoundsOf(frame, pieceBounds);
+        if (frame.getWellVersion() != polledVersion) {
+            polledVersion = frame.getWellVersion();
+            pieceShape = shape;
+            repaint();
+            return;
+        }
+        if (shape == pieceShape && previousBounds.equals(pieceBounds)) {
+            return;
+        }
+        pieceShape = shape;
+        if (!previousBounds.isEmpty()) {
+            repaint(previousBounds);
+        }
+        if (!pieceBounds.isEmpty()) {
+            repaint(pieceBounds);
+        }
+    }
+
+    /**
+     * Draws the latest frame of the panel's underlying engine. Note that
+     * this method is not called directly. The Swing library calls this
+     * method to render the panel when it deems appropriate to do so.
      */
     @Override
     public void paintComponent(Graphics g) {
-        boolean[][] well = game.getWell();
-        g.setColor(Color.GRAY);
-        g.fillRect(0, 0, width, height);
-        
-        g.setColor(Color.BLUE);
-        Piece activePiece = game.getActivePiece();
-        if (activePiece != null) {
-            g.setColor(activePiece.getColor());
-            boolean[][] layout = activePiece.getLayout();
-            Position activePos = activePiece.getPosition();
-            for (int row = 0; row < 4; row++) {
-                for (int col = 0; col < 4; col++) {
-                    if (layout[row][col]) {
-                        g.fillRect((activePos.col() + col) * BLOCK_SIZE,
-                                    (Constants.BOARD_HEIGHT - activePos.row() - row - 1)
-                                    * BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE);
-                    }
-                }
+        long start = metrics != null ? System.nanoTime() : 0;
+        if (wellImage == null || frame.getWellVersion() != imageVersion) {
+            renderWell();
+            imageVersion = frame.getWellVersion();
+        }
+        g.drawImage(wellImage, 0, 0, null);
+
+        Rotation rot = frame.getPieceRotation();
+        if (rot != null) {
+            g.setColor(colorOf(frame.getPieceKind()));
+            for (int i = 0; i < rot.getCellCount(); i++) {
+                int row = frame.getPieceRow() + rot.getCellRow(i);
+                int col = frame.getPieceCol() + rot.getCellCol(i);
+                g.fillRect(col * BLOCK_SIZE, yOf(row), BLOCK_SIZE, BLOCK_SIZE);
             }
         }
-        
+        if (metrics != null) {
+            metrics.lap(EngineMetrics.Phase.RENDER, start);
+        }
+    }
+
+    /** Renders the background and the locked cells of the well into the cached image. */
+    private void renderWell() {
+        if (wellImage == null) {
+            GraphicsConfiguration config = getGraphicsConfiguration();
+            wellImage = config != null
+                    ? config.createCompatibleImage(width, height)
+                    : new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        Graphics g = wellImage.getGraphics();
+        g.setColor(Color.GRAY);
+        g.fillRect(0, 0, width, height);
         g.setColor(Color.GREEN);
-        for (int row = 0; row < Constants.BOARD_HEIGHT; row++) {
-            for (int col = 0; col < Constants.BOARD_WIDTH; col++) {
-                if (well[row][col]) {
-                    g.fillRect(col * BLOCK_SIZE, (Constants.BOARD_HEIGHT - row - 4)
-                                * BLOCK_SIZE, BLOCK_SIZE, BLOCK_SIZE);
+        for (int row = 0; row < frame.getHeight(); row++) {
+            for (int col = 0; col < frame.getWidth(); col++) {
+                if (frame.isOccupied(row, col)) {
+                    g.fillRect(col * BLOCK_SIZE, yOf(row), BLOCK_SIZE, BLOCK_SIZE);
                 }
             }
         }
+        g.dispose();
+    }
+
+    /**
+     * @param frame a frame
+     * @param bounds the rectangle to set to the area covered by the frame's
+     *               active piece, or to an empty rectangle if there is none
+     */
+    private static void pieceBoundsOf(FrameSnapshot frame, Rectangle bounds) {
+        Rotation rot = frame.getPieceRotation();
+        if (rot == null) {
+            bounds.setBounds(0, 0, 0, 0);
+            return;
+        }
+        bounds.setBounds((frame.getPieceCol() + rot.getMinCol()) * BLOCK_SIZE,
+                yOf(frame.getPieceRow() + rot.getMaxRow()),
+                (rot.getMaxCol() - rot.getMinCol() + 1) * BLOCK_SIZE,
+                (rot.getMaxRow() - rot.getMinRow() + 1) * BLOCK_SIZE);
+    }
+
+    /**
+     * @param row a row of the well
+     * @return the y coordinate of the top of the given row on the panel. The
+     *         top three rows of the well are hidden above the panel.
+     */
+    private static int yOf(int row) {
+        return (Constants.BOARD_HEIGHT - row - 4) * BLOCK_SIZE;
     }
 }
@@ -0,0 +1,290 @@
+package com.gamewerks.bgm.metrics;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
+
+/**
+ * Timings and counters of a running game: a {@link LatencyHistogram} per
+ * phase of a frame, plus counts of pieces spawned, pieces locked, lines
+ * cleared and frames started behind schedule.
+ *
+ * <p>An engine only records metrics once given an instance, see
+ * <code>Engine.setMetrics</code>; without one, instrumentation costs a null
+ * check per phase. Each histogram has a single writer: the game thread for
+ * the engine's phases, the event dispatch thread for {@link Phase#RENDER}.
+ * The metrics are read through JMX, as a read-only MBean registered under
+ * {@value #OBJECT_NAME}, or as text via {@link #format()} and
+ * {@link #startDump(PrintStream, long)}.
+ */
+public class EngineMetrics implements DynamicMBean {
+    /** The name the MBean is registered under by {@link #register()}. */
+    public static final String OBJECT_NAME = "com.gamewerks.bgm:type=EngineMetrics";
+    /** The default lateness after which a frame counts as behind: one frame at 60 Hz. */
+    public static final long DEFAULT_BEHIND_NANOS = 1_000_000_000L / 60;
+
+    /** The timed phases of a frame. */
+    public enum Phase {
+        SPAWN,
+        INPUT,
+        GRAVITY,
+        LINES,
+        /** The whole of <code>Engine.step</code>. */
+        FRAME,
+        /** Painting the game, on the event dispatch thread. */
+        RENDER;
+
+        /** @return the name of this phase in attribute names, e.g., <code>Gravity</code> */
+        public String label() {
+            String name = name();
+            return name.charAt(0) + name.substring(1).toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private static final String[] COUNTERS = {"Frames", "PiecesSpawned", "Locks",
+        "LinesCleared", "FramesBehind"};
+    private static final String[] STATISTICS = {"MeanNanos", "P50Nanos", "P99Nanos", "MaxNanos"};
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[Phase.values().length];
+    private final long behindNanos;
+    private final MBeanInfo info;
+    private volatile long piecesSpawned;
+    private volatile long locks;
+    private volatile long linesCleared;
+    private volatile long framesBehind;
+    private ScheduledExecutorService dumper;
+
+    /** Constructs empty metrics counting frames late by one 60 Hz frame as behind. */
+    public EngineMetrics() {
+        this(DEFAULT_BEHIND_NANOS);
+    }
+
+    /**
+     * Constructs empty metrics.
+     * @param behindNanos how late a frame may start before it counts as behind
+     *                    schedule, in nanoseconds
+     */
+    public EngineMetrics(long behindNanos) {
+        this.behindNanos = behindNanos;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String counter : COUNTERS) {
+            attributes.add(new MBeanAttributeInfo(counter, "long", counter, true, false, false));
+        }
+        for (Phase phase : Phase.values()) {
+            for (String statistic : STATISTICS) {
+                String name = phase.label() + statistic;
+                String type = statistic.equals("MeanNanos") ? "double" : "long";
+                attributes.add(new MBeanAttributeInfo(name, type,
+                        statistic + " of the " + phase.label() + " phase", true, false, false));
+            }
+        }
+        info = new MBeanInfo(getClass().getName(), "Blocky engine timings and counters",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, null, null);
+    }
+
+    /**
+     * Records the time a phase took, measured from the given start.
+     * @param phase the phase that just ended
+     * @param start when the phase started, in {@link System#nanoTime()} time
+     * @return the current time, i.e., the start of the next phase
+     */
+    public long lap(Phase phase, long start) {
+        long now = System.nanoTime();
+        histograms[phase.ordinal()].record(now - start);
+        return now;
+    }
+
+    /**
+     * Records the time a phase took.
+     * @param phase the phase
+     * @param nanos how long it took, in nanoseconds
+     */
+    public void record(Phase phase, long nanos) {
+        histograms[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Counts a frame as behind schedule if it started too late.
+     * @param late how late the frame started, in nanoseconds
+     */
+    public void frameStarted(long late) {
+        if (late > behindNanos) {
+            framesBehind += 1;
+        }
+    }
+
+    /** Counts a spawned piece. */
+    public void pieceSpawned() {
+        piecesSpawned += 1;
+    }
+
+    /** Counts a locked piece. */
+    public void pieceLocked() {
+        locks += 1;
+    }
+
+    /**
+     * Counts cleared lines.
+     * @param lines the number of lines cleared at once
+     */
+    public void linesCleared(int lines) {
+        linesCleared += lines;
+    }
+
+    /**
+     * @param phase a phase
+     * @return the timings of the given phase
+     */
+    public LatencyHistogram getHistogram(Phase phase) {
+        return histograms[phase.ordinal()];
+    }
+
+    /** @return the number of pieces spawned */
+    public long getPiecesSpawned() {
+        return piecesSpawned;
+    }
+
+    /** @return the number of pieces locked */
+    public long getLocks() {
+        return locks;
+    }
+
+    /** @return the number of lines cleared */
+    public long getLinesCleared() {
+        return linesCleared;
+    }
+
+    /** @return the number of frames that started behind schedule */
+    public long getFramesBehind() {
+        return framesBehind;
+    }
+
+    /** @return the metrics as a human-readable table */
+    public String format() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("frames %d, pieces %d, locks %d, lines %d, behind %d%n",
+                getHistogram(Phase.FRAME).getCount(), piecesSpawned, locks, linesCleared,
+                framesBehind));
+        out.append(String.format("%-8s %10s %10s %10s %10s %10s%n",
+                "phase", "count", "mean us", "p50 us", "p99 us", "max us"));
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram h = getHistogram(phase);
+            out.append(String.format("%-8s %10d %10.2f %10.2f %10.2f %10.2f%n",
+                    phase.label(), h.getCount(), h.getMean() / 1e3,
+                    h.getPercentile(0.5) / 1e3, h.getPercentile(0.99) / 1e3, h.getMax() / 1e3));
+        }
+        return out.toString();
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server under
+     * {@value #OBJECT_NAME}.
+     * @throws JMException if the MBean cannot be registered, e.g., because
+     *                     other metrics already are
+     */
+    public void register() throws JMException {
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(OBJECT_NAME));
+    }
+
+    /**
+     * Starts printing {@link #format()} to the given stream periodically, on
+     * a daemon thread.
+     * @param out the stream to print to
+     * @param periodSeconds the number of seconds between dumps
+     */
+    public synchronized void startDump(PrintStream out, long periodSeconds) {
+        stopDump();
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "metrics-dump");
+            thread.setDaemon(true);
+            return thread;
+        });
+        dumper.scheduleAtFixedRate(() -> out.print(format()),
+                periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /** Stops the periodic dump, if any. */
+    public synchronized void stopDump() {
+        if (dumper != null) {
+            dumper.shutdown();
+            dumper = null;
+        }
+    }
+
+    @Override
+    public Object getAttribute(String name) throws AttributeNotFoundException {
+        switch (name) {
+            case "Frames": return getHistogram(Phase.FRAME).getCount();
+            case "PiecesSpawned": return piecesSpawned;
+            case "Locks": return locks;
+            case "LinesCleared": return linesCleared;
+            case "FramesBehind": return framesBehind;
+            default: break;
+        }
+        for (Phase phase : Phase.values()) {
+            if (name.startsWith(phase.label())) {
+                LatencyHistogram h = getHistogram(phase);
+                switch (name.substring(phase.label().length())) {
+                    case "MeanNanos": return h.getMean();
+                    case "P50Nanos": return h.getPercentile(0.5);
+                    case "P99Nanos": return h.getPercentile(0.99);
+                    case "MaxNanos": return h.getMax();
+                    default: break;
+                }
+            }
+        }
+        throw new AttributeNotFoundException(name);
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Read-only attribute " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] names) {
+        AttributeList list = new AttributeList();
+        for (String name : names) {
+            try {
+                list.add(new Attribute(name, getAttribute(name)));
+            } catch (AttributeNotFoundException ex) {
+                // Unknown attributes are left out, as the interface specifies
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String action, Object[] params, String[] signature)
+            throws ReflectionException {
+        throw new ReflectionException(new NoSuchMethodException(action));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        return info;
+    }
+}
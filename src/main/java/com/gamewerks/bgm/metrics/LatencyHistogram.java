@@ -0,0 +1,77 @@
+package com.gamewerks.bgm.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of nanosecond latencies with fixed power-of-two buckets:
+ * bucket <code>i</code> counts the samples in <code>[2^(i-1), 2^i)</code>,
+ * bucket 0 those equal to 0. Recording a sample is a handful of plain
+ * arithmetic and opaque stores, and never allocates; percentiles are exact
+ * to within a factor of two, which is plenty to tell a 50us frame phase from
+ * a 5ms one.
+ *
+ * <p>Each histogram must only be recorded into by one thread at a time.
+ * Any thread may read it; a reader racing the writer sees each count
+ * whole, but not necessarily all counts as of the same sample.
+ */
+public class LatencyHistogram {
+    private static final int BUCKETS = Long.SIZE;
+    private static final int COUNT = BUCKETS;
+    private static final int SUM = BUCKETS + 1;
+    private static final int MAX = BUCKETS + 2;
+
+    /** The buckets, followed by the count, sum and maximum of all samples. */
+    private final AtomicLongArray slots = new AtomicLongArray(BUCKETS + 3);
+
+    /**
+     * Records a sample.
+     * @param nanos the latency, in nanoseconds; negative values count as 0
+     */
+    public void record(long nanos) {
+        long value = Math.max(nanos, 0);
+        int bucket = BUCKETS - Long.numberOfLeadingZeros(value);
+        slots.setOpaque(bucket, slots.getPlain(bucket) + 1);
+        slots.setOpaque(COUNT, slots.getPlain(COUNT) + 1);
+        slots.setOpaque(SUM, slots.getPlain(SUM) + value);
+        if (value > slots.getPlain(MAX)) {
+            slots.setOpaque(MAX, value);
+        }
+    }
+
+    /** @return the number of samples recorded */
+    public long getCount() {
+        return slots.getOpaque(COUNT);
+    }
+
+    /** @return the mean of the samples recorded, in nanoseconds, or 0 if none */
+    public double getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : (double) slots.getOpaque(SUM) / count;
+    }
+
+    /** @return the largest sample recorded, in nanoseconds */
+    public long getMax() {
+        return slots.getOpaque(MAX);
+    }
+
+    /**
+     * @param fraction the fraction of samples, in <code>(0, 1]</code>, e.g.,
+     *                 0.99 for the 99th percentile
+     * @return an upper bound, within a factor of two, of the latency below
+     *         which the given fraction of samples fall, in nanoseconds; 0 if
+     *         there are no samples
+     */
+    public long getPercentile(double fraction) {
+        long count = getCount();
+        long target = (long) Math.ceil(fraction * count);
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += slots.getOpaque(bucket);
+            if (seen >= target && seen > 0) {
+                long upper = bucket == 0 ? 0 : (1L << bucket) - 1;
+                return Math.min(upper, getMax());
+            }
+        }
+        return getMax();
+    }
+}
@@ -0,0 +1,232 @@
+package com.gamewerks.bgm.net;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fans the frames of one match out to any number of spectators. The match
+ * encodes each tick's messages once and appends them to a fixed-size ring
+ * log, from which every spectator streams through its own cursor. The bytes
+ * are thus shared rather than copied per spectator, and the memory used does
+ * not grow with the number of spectators or with how far they lag.
+ *
+ * <p>A new spectator starts streaming at the next keyframe. A spectator more
+ * than half the log behind is dropped to the next keyframe: it finishes the
+ * message it is in the middle of, skips everything up to the next keyframe
+ * and resumes there, so a slow viewer sees a jump instead of holding back
+ * the match or buffering without limit. A spectator stalled for so long that
+ * even that message is overwritten is disconnected.
+ *
+ * <p>Like its match, a broadcaster is used by one thread at a time: the
+ * worker stepping the match appends to it, the selector thread subscribes
+ * and flushes.
+ */
+class Broadcaster {
+    /** The size of the log, a power of two. */
+    private static final int CAPACITY = 1 << 16;
+    /** How far behind the end of the log a spectator may fall before it is dropped. */
+    private static final int MAX_LAG = CAPACITY / 2;
+
+    private final ByteBuffer log = ByteBuffer.allocateDirect(CAPACITY);
+    private final List<Subscriber> subscribers = new ArrayList<>();
+    private final LongAdder skips;
+    /** The number of bytes ever appended, i.e., the end of the log. */
+    private long head;
+    /** Where the {@link Protocol#END} message starts in the log, or -1 until the match ends. */
+    private long end = -1;
+
+    /**
+     * @param skips counts the times a spectator is dropped to a keyframe
+     */
+    Broadcaster(LongAdder skips) {
+        this.skips = skips;
+    }
+
+    /**
+     * Adds a spectator, who is sent every message from the next keyframe on.
+     * @param connection the spectator's connection
+     */
+    void subscribe(Connection connection) {
+        Subscriber subscriber = new Subscriber(connection);
+        subscribers.add(subscriber);
+        connection.setSubscription(subscriber);
+        if (end >= 0) {
+            subscriber.startAt(end);
+        }
+    }
+
+    /**
+     * Appends one tick's messages to the log.
+     * @param messages the messages, which are left unchanged
+     * @param keyframe true iff spectators can start streaming at these
+     *                 messages, i.e., they hold a keyframe of every game
+     */
+    void append(ByteBuffer messages, boolean keyframe) {
+        long start = head;
+        int length = messages.remaining();
+        int at = (int) start & (CAPACITY - 1);
+        int first = Math.min(length, CAPACITY - at);
+        log.put(at, messages, messages.position(), first);
+        log.put(0, messages, messages.position() + first, length - first);
+        head += length;
+        for (Subscriber subscriber : subscribers) {
+            subscriber.appended(start, keyframe);
+        }
+    }
+
+    /** Appends the {@link Protocol#END} message, at which every spectator ends up. */
+    void end() {
+        ByteBuffer message = ByteBuffer.allocate(Protocol.HEADER_SIZE);
+        Protocol.writeEnd(message);
+        message.flip();
+        long start = head;
+        append(message, true);
+        end = start;
+    }
+
+    /** Writes what every spectator's socket takes, dropping those who are done or broken. */
+    void flush() {
+        // Backwards, as flushing may remove the spectator
+        for (int i = subscribers.size() - 1; i >= 0; i--) {
+            subscribers.get(i).flush();
+        }
+    }
+
+    /** @return the number of spectators */
+    int getSubscribers() {
+        return subscribers.size();
+    }
+
+    /**
+     * @param position a position in the log where a message starts
+     * @return the position where that message ends
+     */
+    private long messageEnd(long position) {
+        int high = log.get((int) position & (CAPACITY - 1)) & 0xFF;
+        int low = log.get((int) (position + 1) & (CAPACITY - 1)) & 0xFF;
+        return position + 2 + (high << 8 | low);
+    }
+
+    /** A spectator's cursor into the log. */
+    final class Subscriber {
+        private final Connection connection;
+        /** A view of the log to write from, so that the log's own position never moves. */
+        private final ByteBuffer view = log.duplicate();
+        /** True while waiting for a keyframe to start streaming at. */
+        private boolean waiting = true;
+        /** True while finishing the current message before skipping to a keyframe. */
+        private boolean dropping;
+        /** The position in the log of the next byte to send. */
+        private long position;
+        /** The position in the log where the message holding {@link #position} starts. */
+        private long boundary;
+
+        /**
+         * @param connection the spectator's connection
+         */
+        private Subscriber(Connection connection) {
+            this.connection = connection;
+        }
+
+        /**
+         * Starts streaming at the given position.
+         * @param start a position in the log where a message starts
+         */
+        private void startAt(long start) {
+            waiting = false;
+            position = start;
+            boundary = start;
+        }
+
+        /**
+         * Updates the cursor after messages were appended to the log.
+         * @param start where the messages start
+         * @param keyframe true iff the messages hold a keyframe
+         */
+        private void appended(long start, boolean keyframe) {
+            if (waiting) {
+                if (keyframe) {
+                    startAt(start);
+                }
+            } else if (head - position > MAX_LAG) {
+                dropping = true;
+            }
+        }
+
+        /**
+         * Writes as much of the log as the socket takes without blocking.
+         * Unsubscribes the spectator once it has been sent the end of the
+         * match, and disconnects it if it fell too far behind or its socket
+         * fails.
+         */
+        void flush() {
+            try {
+                if (connection.hasPendingOutput()) {
+                    // The welcome message goes first
+                    connection.flush();
+                    if (connection.hasPendingOutput()) {
+                        return;
+                    }
+                }
+                if (!waiting) {
+                    if (head - boundary > CAPACITY) {
+                        throw new IOException("Spectator fell too far behind");
+                    }
+                    if (!dropping) {
+                        write(head);
+                    } else if (position != boundary) {
+                        write(messageEnd(boundary));
+                    }
+                    while (boundary < position && messageEnd(boundary) <= position) {
+                        boundary = messageEnd(boundary);
+                    }
+                    if (dropping && position == boundary) {
+                        dropping = false;
+                        waiting = true;
+                        skips.increment();
+                        if (end >= position) {
+                            startAt(end);
+                            write(head);
+                        }
+                    }
+                }
+                if (end >= 0 && position == head) {
+                    cancel();
+                }
+                connection.setWriteInterest(!waiting && position < head);
+            } catch (IOException ex) {
+                cancel();
+                connection.close();
+            }
+        }
+
+        /**
+         * Writes the log up to the given position, as far as the socket takes it.
+         * @param limit the position to write up to
+         * @throws IOException if the socket fails
+         */
+        private void write(long limit) throws IOException {
+            while (position < limit) {
+                int at = (int) position & (CAPACITY - 1);
+                int length = (int) Math.min(limit - position, CAPACITY - at);
+                view.clear();
+                view.position(at).limit(at + length);
+                connection.write(view);
+                int written = view.position() - at;
+                position += written;
+                if (written < length) {
+                    return;
+                }
+            }
+        }
+
+        /** Stops streaming to this spectator, who may then watch another match. */
+        void cancel() {
+            subscribers.remove(this);
+            connection.setSubscription(null);
+        }
+    }
+}
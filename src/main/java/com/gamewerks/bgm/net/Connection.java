@@ -0,0 +1,198 @@
+package com.gamewerks.bgm.net;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A non-blocking socket with its input and output buffers, splitting the
+ * input into {@link Protocol} messages. Used by both ends of a match; a
+ * connection must only be used by one thread at a time.
+ */
+class Connection {
+    /** The size of the input buffer, and thus of the largest message. */
+    private static final int IN_CAPACITY = 4 * 1024;
+    /** The size of the output buffer, i.e., how much a slow peer may lag. */
+    private static final int OUT_CAPACITY = 64 * 1024;
+
+    /** Handles the messages read from a connection. */
+    @FunctionalInterface
+    interface Handler {
+        /**
+         * Handles one message.
+         * @param connection the connection the message came from
+         * @param type the type of the message
+         * @param payload the message after its type, in a buffer of its own
+         *                that ends where the message does
+         * @throws IOException if the message is invalid
+         */
+        void onMessage(Connection connection, byte type, ByteBuffer payload) throws IOException;
+    }
+
+    private final SocketChannel channel;
+    private final ByteBuffer in = ByteBuffer.allocate(IN_CAPACITY);
+    /** The output not written yet, in write mode. */
+    private final ByteBuffer out = ByteBuffer.allocate(OUT_CAPACITY);
+    private SelectionKey key;
+    private boolean overflowed;
+    /** The server-side seat of this connection, or null while it has none. */
+    private Match.Player player;
+    /** The match this connection spectates, or null while it spectates none. */
+    private Broadcaster.Subscriber subscription;
+
+    /**
+     * @param channel the connected channel, which is made non-blocking
+     * @throws IOException if the channel cannot be made non-blocking
+     */
+    Connection(SocketChannel channel) throws IOException {
+        this.channel = channel;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+    }
+
+    /**
+     * @param key the key of this connection's channel, whose write interest
+     *            is kept in step with the pending output
+     */
+    void setKey(SelectionKey key) {
+        this.key = key;
+    }
+
+    /**
+     * Reads whatever input is available and hands every complete message to
+     * the given handler.
+     * @param handler the handler of the messages
+     * @return false iff the peer closed the connection
+     * @throws IOException if the channel fails or a message is invalid
+     */
+    boolean receive(Handler handler) throws IOException {
+        int read = channel.read(in);
+        in.flip();
+        try {
+            while (in.remaining() >= 2) {
+                int length = in.getShort(in.position()) & 0xFFFF;
+                if (length == 0 || length > IN_CAPACITY - 2) {
+                    throw new ProtocolException("Invalid message length " + length);
+                }
+                if (in.remaining() < 2 + length) {
+                    break;
+                }
+                int end = in.position() + 2 + length;
+                in.position(in.position() + 2);
+                byte type = in.get();
+                // A slice, so that a message shorter than its type says cannot read the next one
+                handler.onMessage(this, type, in.slice(in.position(), end - in.position()));
+                in.position(end);
+            }
+        } finally {
+            in.compact();
+        }
+        return read >= 0;
+    }
+
+    /**
+     * @return the output buffer, in write mode, to append messages to; the
+     *         caller must make sure there is room, see {@link #hasRoom(int)}
+     */
+    ByteBuffer output() {
+        return out;
+    }
+
+    /**
+     * @param bytes a number of bytes to send
+     * @return true iff that many bytes fit in the output buffer; if not,
+     *         the connection is marked as overflowed
+     */
+    boolean hasRoom(int bytes) {
+        if (out.remaining() < bytes) {
+            overflowed = true;
+        }
+        return !overflowed;
+    }
+
+    /** @return true iff output had to be dropped because the peer fell too far behind */
+    boolean isOverflowed() {
+        return overflowed;
+    }
+
+    /**
+     * Writes as much pending output as the socket takes without blocking,
+     * and registers interest in writing the rest, if any.
+     * @throws IOException if the channel fails
+     */
+    void flush() throws IOException {
+        if (out.position() > 0) {
+            out.flip();
+            channel.write(out);
+            out.compact();
+        }
+        setWriteInterest(out.position() > 0);
+    }
+
+    /** @return true iff output is still buffered, waiting for the socket to take it */
+    boolean hasPendingOutput() {
+        return out.position() > 0;
+    }
+
+    /**
+     * Writes from the given buffer as much as the socket takes without
+     * blocking, bypassing the output buffer.
+     * @param src the bytes to write
+     * @throws IOException if the channel fails
+     */
+    void write(ByteBuffer src) throws IOException {
+        channel.write(src);
+    }
+
+    /**
+     * Sets whether the selector should report when the socket can take more output.
+     * @param pending true iff there is output left to write
+     */
+    void setWriteInterest(boolean pending) {
+        if (key != null && key.isValid()) {
+            int ops = pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ;
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+    }
+
+    /** @return the server-side seat of this connection, or null while it has none */
+    Match.Player getPlayer() {
+        return player;
+    }
+
+    /** @param player the server-side seat of this connection, or null */
+    void setPlayer(Match.Player player) {
+        this.player = player;
+    }
+
+    /** @return the match this connection spectates, or null while it spectates none */
+    Broadcaster.Subscriber getSubscription() {
+        return subscription;
+    }
+
+    /** @param subscription the match this connection spectates, or null */
+    void setSubscription(Broadcaster.Subscriber subscription) {
+        this.subscription = subscription;
+    }
+
+    /** @return the channel of this connection */
+    SocketChannel channel() {
+        return channel;
+    }
+
+    /** Closes the channel, ignoring failures. */
+    void close() {
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ex) {
+            // Nothing left to do with a connection that cannot even be closed
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.gamewerks.bgm.net;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import com.gamewerks.bgm.engine.ScriptedInput;
+import com.gamewerks.bgm.metrics.LatencyHistogram;
+
+/**
+ * Loads a {@link MatchServer} with simulated clients over loopback and
+ * reports how many matches it sustains per core and how long its ticks take.
+ *
+ * <p>Every simulated client plays the standard scripted game: whenever it
+ * receives a frame of its own game, it sends the keys of the next frame.
+ * When its match ends, it joins another, so the number of running matches
+ * stays close to the number requested. Optional spectators each watch the
+ * match started last, and the one after that once it ends. All clients are
+ * driven by the main thread from one selector; the server runs in the same
+ * process.
+ */
+public class LoadTest {
+    /** Not instantiable. */
+    private LoadTest() {
+    }
+
+    /**
+     * Runs the load test.
+     * @param args optionally, the number of matches (default 500), the
+     *             number of seconds to measure (default 10), the number of
+     *             workers (default: all cores), the tick rate (default 60)
+     *             and the number of spectators (default 0)
+     * @throws IOException if the server or a client cannot be set up
+     */
+    public static void main(String[] args) throws IOException {
+        int matches = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        int threads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        int tickRate = args.length > 3 ? Integer.parseInt(args[3]) : 60;
+        int spectators = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+        int seats = 2;
+
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (MatchServer server = new MatchServer(address, seats, tickRate, threads, 0);
+                Selector selector = Selector.open()) {
+            server.start();
+            InetSocketAddress target = new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                    server.getPort());
+            ScriptedInput script = ScriptedInput.standard();
+            MatchClient.Listener player = new MatchClient.Listener() {
+                @Override
+                public void onState(MatchClient client, int seat) {
+                    RemoteGame game = client.getGame(seat);
+                    if (seat == client.getSeat() && !game.isGameOver()) {
+                        send(() -> client.sendInput(script.keysHeld(game.getFrame())));
+                    }
+                }
+
+                @Override
+                public void onEnd(MatchClient client) {
+                    send(client::hello);
+                }
+            };
+            MatchClient.Listener viewer = new MatchClient.Listener() {
+                @Override
+                public void onEnd(MatchClient client) {
+                    send(() -> client.watch(-1));
+                }
+            };
+            for (int i = 0; i < matches * seats; i++) {
+                MatchClient client = new MatchClient(target, player);
+                client.register(selector);
+                client.hello();
+            }
+
+            // Let the JIT warm up and the matches spread out before measuring
+            drive(selector, 1_000_000_000L);
+            for (int i = 0; i < spectators; i++) {
+                MatchClient client = new MatchClient(target, viewer);
+                client.register(selector);
+                client.watch(-1);
+            }
+            drive(selector, 1_000_000_000L);
+            server.resetStats();
+            drive(selector, seconds * 1_000_000_000L);
+
+            LatencyHistogram times = server.getTickTimes();
+            LatencyHistogram lateness = server.getTickLateness();
+            long periodNanos = 1_000_000_000L / tickRate;
+            double busy = times.getMean() / periodNanos;
+            System.out.printf("%d matches (%d running), %d spectators on %d workers,"
+                    + " %d ticks at %d Hz%n", matches, server.getRunningMatches(), spectators,
+                    threads, times.getCount(), tickRate);
+            System.out.printf("  tick time     p50 %8.1f us  p99 %8.1f us  max %8.1f us%n",
+                    times.getPercentile(0.5) / 1e3, times.getPercentile(0.99) / 1e3,
+                    times.getMax() / 1e3);
+            System.out.printf("  tick lateness p50 %8.1f us  p99 %8.1f us  max %8.1f us%n",
+                    lateness.getPercentile(0.5) / 1e3, lateness.getPercentile(0.99) / 1e3,
+                    lateness.getMax() / 1e3);
+            System.out.printf("  ticks busy %.1f%% of the period, %d skipped, %d slow clients,"
+                    + " %d spectator skips%n", 100 * busy, server.getSkippedTicks(),
+                    server.getDisconnectedSlow(), server.getSpectatorSkips());
+            System.out.printf("  ~%.0f matches per core at %d Hz%n",
+                    matches / (busy * threads), tickRate);
+        }
+    }
+
+    /**
+     * Serves the clients registered with the given selector for a while.
+     * @param selector the selector
+     * @param nanos how long to serve them, in nanoseconds
+     * @throws IOException if the selector fails
+     */
+    private static void drive(Selector selector, long nanos) throws IOException {
+        long end = System.nanoTime() + nanos;
+        while (System.nanoTime() - end < 0) {
+            selector.select(10);
+            for (SelectionKey key : selector.selectedKeys()) {
+                MatchClient client = (MatchClient) key.attachment();
+                if (!client.receive()) {
+                    client.close();
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+
+    /** An I/O action of a simulated client. */
+    @FunctionalInterface
+    private interface Send {
+        /**
+         * Runs the action.
+         * @throws IOException if it fails
+         */
+        void run() throws IOException;
+    }
+
+    /**
+     * Runs an I/O action from a listener, which may not throw checked exceptions.
+     * @param action the action
+     */
+    private static void send(Send action) {
+        try {
+            action.run();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.gamewerks.bgm.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.FrameSnapshot;
+import com.gamewerks.bgm.engine.InputSource;
+import com.gamewerks.bgm.util.Constants;
+
+/**
+ * A match hosted by {@link MatchServer}: one server-side engine per seat,
+ * all dealt from the same seed, which are the authority on how each game
+ * plays out. Every tick, each seat's engine is stepped one frame with the
+ * keys its client last sent, and a {@link Protocol#STATE} message for each
+ * seat is sent to every client of the match, encoded once. Every
+ * {@value Protocol#KEYFRAME_INTERVAL}th tick sends keyframes instead of
+ * deltas, including the last state of every game that is already over, and
+ * spectators stream the same bytes through a {@link Broadcaster}.
+ *
+ * <p>A match is stepped by one worker at a time, and only while the server's
+ * selector thread waits for the tick to complete, so neither the match nor
+ * the output buffers of its connections need locking.
+ */
+class Match {
+    private final int id;
+    private final long seed;
+    private final Player[] players;
+    private int seated;
+    /** The messages of the current tick, sent to every client of the match. */
+    private final ByteBuffer updates;
+    private boolean finished;
+    private long ticks;
+    /** The match's spectators, or null until the first one arrives. */
+    private Broadcaster broadcaster;
+
+    /**
+     * @param id the id of the match
+     * @param seed the seed every seat's game is dealt from
+     * @param seats the number of seats
+     */
+    Match(int id, long seed, int seats) {
+        this.id = id;
+        this.seed = seed;
+        players = new Player[seats];
+        updates = ByteBuffer.allocate(seats * Protocol.maxStateSize(Constants.BOARD_HEIGHT));
+    }
+
+    /**
+     * Seats the given client at the next free seat.
+     * @param connection the client's connection
+     * @return true iff the match is now full
+     */
+    boolean seat(Connection connection) {
+        Player player = new Player(seated, new Engine(seed), connection);
+        players[seated] = player;
+        seated += 1;
+        connection.setPlayer(player);
+        return seated == players.length;
+    }
+
+    /**
+     * Frees the seat of a client that left before the match started, moving
+     * the clients seated after it one seat down.
+     * @param player the client's seat
+     * @return true iff the client was seated in this match
+     */
+    boolean unseat(Player player) {
+        int seat = player.seat;
+        if (seat >= seated || players[seat] != player) {
+            return false;
+        }
+        for (int i = seat; i < seated - 1; i++) {
+            players[i] = players[i + 1];
+            players[i].seat = i;
+        }
+        seated -= 1;
+        players[seated] = null;
+        return true;
+    }
+
+    /** Welcomes every client of the match, once it is full. */
+    void welcome() {
+        for (Player player : players) {
+            Connection connection = player.connection;
+            if (connection != null && connection.hasRoom(Protocol.HEADER_SIZE + 14)) {
+                Protocol.writeWelcome(connection.output(), id, player.seat, players.length, seed);
+            }
+        }
+    }
+
+    /**
+     * Adds a spectator, who is welcomed right away and sent every frame from
+     * the next keyframe on.
+     * @param connection the spectator's connection
+     * @param skips counts the times a spectator is dropped to a keyframe
+     */
+    void watch(Connection connection, LongAdder skips) {
+        if (broadcaster == null) {
+            broadcaster = new Broadcaster(skips);
+        }
+        if (connection.hasRoom(Protocol.HEADER_SIZE + 14)) {
+            Protocol.writeWelcome(connection.output(), id, Protocol.SPECTATOR, players.length,
+                    seed);
+        }
+        broadcaster.subscribe(connection);
+    }
+
+    /** Steps every game one frame and queues the resulting states for every client. */
+    void step() {
+        updates.clear();
+        boolean keyframe = ticks % Protocol.KEYFRAME_INTERVAL == 0;
+        ticks += 1;
+        boolean playing = false;
+        for (Player player : players) {
+            if (player.step()) {
+                Protocol.writeState(updates, player.seat, player.previous, player.current,
+                        keyframe);
+            } else if (keyframe && player.current.getHeight() > 0) {
+                // A finished game no longer changes, but spectators joining now have yet to see it
+                Protocol.writeState(updates, player.seat, player.current, player.current, true);
+            }
+            playing |= !player.done;
+        }
+        updates.flip();
+        if (updates.hasRemaining()) {
+            for (Player player : players) {
+                Connection connection = player.connection;
+                if (connection != null && connection.hasRoom(updates.remaining())) {
+                    connection.output().put(updates.duplicate());
+                }
+            }
+        }
+        finished = !playing;
+        if (broadcaster != null) {
+            if (updates.hasRemaining()) {
+                broadcaster.append(updates, keyframe);
+            }
+            if (finished) {
+                broadcaster.end();
+            }
+        }
+    }
+
+    /** @return the id of the match */
+    int getId() {
+        return id;
+    }
+
+    /** @return the match's spectators, or null if it never had any */
+    Broadcaster getBroadcaster() {
+        return broadcaster;
+    }
+
+    /** @return true iff every game is over or has lost its client */
+    boolean isFinished() {
+        return finished;
+    }
+
+    /** @return the seats of the match, some of which may be null until it is full */
+    Player[] getPlayers() {
+        return players;
+    }
+
+    /** One seat of a match: a client, its game, and the keys it holds. */
+    static final class Player implements InputSource {
+        /** The seat, which only changes while the match fills up, see {@link #unseat}. */
+        private int seat;
+        private final Engine engine;
+        /** The client's connection, or null once it disconnected. */
+        private Connection connection;
+        private int keys;
+        private FrameSnapshot previous = new FrameSnapshot();
+        private FrameSnapshot current = new FrameSnapshot();
+        /** True once no more states are to be sent for this seat. */
+        private boolean done;
+
+        /**
+         * @param seat the seat
+         * @param engine the seat's game
+         * @param connection the client's connection
+         */
+        Player(int seat, Engine engine, Connection connection) {
+            this.seat = seat;
+            this.engine = engine;
+            this.connection = connection;
+        }
+
+        /**
+         * Sets the keys the client holds from the next frame on. Keys to
+         * re-press accumulate until a frame has been stepped, so that taps
+         * sent within one tick are not lost.
+         * @param keys the keys, see {@link InputSource#keysHeld(long)}
+         */
+        void setKeys(int keys) {
+            this.keys = keys | (this.keys & ~((1 << InputSource.REPRESS_SHIFT) - 1));
+        }
+
+        /** @return the connection of the client, or null once it disconnected */
+        Connection getConnection() {
+            return connection;
+        }
+
+        /** Forgets the client, whose game stops at the next tick. */
+        void disconnect() {
+            connection = null;
+        }
+
+        @Override
+        public int keysHeld(long frame) {
+            return keys;
+        }
+
+        /**
+         * Steps the game one frame, unless it is over or its client is gone.
+         * @return true iff the game was stepped and its state is to be sent
+         */
+        private boolean step() {
+            if (done || connection == null) {
+                done = true;
+                return false;
+            }
+            engine.stepMany(1, this);
+            keys &= (1 << InputSource.REPRESS_SHIFT) - 1;
+            FrameSnapshot swap = previous;
+            previous = current;
+            current = swap;
+            engine.copySnapshot(current);
+            done = engine.isGameOver();
+            return true;
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package com.gamewerks.bgm.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A client of {@link MatchServer}, playing or spectating a match and
+ * mirroring every game of it in a {@link RemoteGame}. The client is
+ * non-blocking: register it with a selector and call {@link #receive()}
+ * whenever its key is readable, so that one thread can drive many clients,
+ * e.g., in {@link LoadTest}.
+ */
+public class MatchClient implements Closeable {
+    /** Hears about what the server sends. */
+    public interface Listener {
+        /**
+         * Called when the client's match starts.
+         * @param client the client
+         */
+        default void onWelcome(MatchClient client) {
+        }
+
+        /**
+         * Called after a frame of a game of the client's match was applied
+         * to its mirror.
+         * @param client the client
+         * @param seat the seat whose game was updated
+         */
+        default void onState(MatchClient client, int seat) {
+        }
+
+        /**
+         * Called when the client's match is over.
+         * @param client the client
+         */
+        default void onEnd(MatchClient client) {
+        }
+    }
+
+    private final Connection connection;
+    private final Listener listener;
+    private final Connection.Handler handler = this::onMessage;
+    private int matchId = -1;
+    private boolean matchOver;
+    private int seat;
+    private long seed;
+    private RemoteGame[] games = new RemoteGame[0];
+
+    /**
+     * Connects to a server.
+     * @param address the server's address
+     * @param listener the listener to notify of the server's messages
+     * @throws IOException if the server cannot be reached
+     */
+    public MatchClient(InetSocketAddress address, Listener listener) throws IOException {
+        SocketChannel channel = SocketChannel.open(address);
+        connection = new Connection(channel);
+        this.listener = listener;
+    }
+
+    /**
+     * Registers this client for reading with the given selector, with itself
+     * as the key's attachment.
+     * @param selector the selector
+     * @return the key
+     * @throws IOException if the channel cannot be registered
+     */
+    public SelectionKey register(Selector selector) throws IOException {
+        SelectionKey key = connection.channel().register(selector, SelectionKey.OP_READ, this);
+        connection.setKey(key);
+        return key;
+    }
+
+    /**
+     * Asks to join a match, which the server starts once all its seats are
+     * taken. Also valid after the previous match of this client finished.
+     * @throws IOException if the request cannot be sent
+     */
+    public void hello() throws IOException {
+        matchId = -1;
+        matchOver = false;
+        send(Protocol.HEADER_SIZE);
+        Protocol.writeHello(connection.output());
+        connection.flush();
+    }
+
+    /**
+     * Asks to spectate a match. The server welcomes the client with
+     * {@link Protocol#SPECTATOR} as its seat and starts sending frames from
+     * the next keyframe on, or ends the match right away if it is not
+     * running.
+     * @param match the id of the match, or -1 for the match started last
+     * @throws IOException if the request cannot be sent
+     */
+    public void watch(int match) throws IOException {
+        matchId = -1;
+        matchOver = false;
+        send(Protocol.HEADER_SIZE + 4);
+        Protocol.writeWatch(connection.output(), match);
+        connection.flush();
+    }
+
+    /**
+     * Sends the keys to hold from the server's next frame on.
+     * @param keys the keys, see
+     *             {@link com.gamewerks.bgm.engine.InputSource#keysHeld(long)}
+     * @throws IOException if the keys cannot be sent
+     */
+    public void sendInput(int keys) throws IOException {
+        send(Protocol.HEADER_SIZE + 2);
+        Protocol.writeInput(connection.output(), keys);
+        connection.flush();
+    }
+
+    /**
+     * Makes sure there is room to queue a message.
+     * @param bytes the size of the message
+     * @throws IOException if the server has not been reading for so long that
+     *                     there is no room
+     */
+    private void send(int bytes) throws IOException {
+        if (!connection.hasRoom(bytes)) {
+            throw new IOException("Server is not reading");
+        }
+    }
+
+    /**
+     * Reads and applies whatever the server sent, without blocking, and
+     * writes pending output.
+     * @return false iff the server closed the connection
+     * @throws IOException if the connection fails
+     */
+    public boolean receive() throws IOException {
+        connection.flush();
+        return connection.receive(handler);
+    }
+
+    /**
+     * Handles a message from the server.
+     * @param from the connection the message came from
+     * @param type the type of the message
+     * @param payload the message after its type
+     * @throws IOException if the message is invalid
+     */
+    private void onMessage(Connection from, byte type, ByteBuffer payload) throws IOException {
+        if (type == Protocol.STATE) {
+            int state = payload.get();
+            if (state < 0 || state >= games.length) {
+                throw new ProtocolException("State of unknown seat " + state);
+            }
+            games[state].apply(payload);
+            listener.onState(this, state);
+        } else if (type == Protocol.WELCOME) {
+            matchId = payload.getInt();
+            seat = payload.get();
+            int seats = payload.get();
+            seed = payload.getLong();
+            if (games.length != seats) {
+                games = new RemoteGame[seats];
+                for (int i = 0; i < seats; i++) {
+                    games[i] = new RemoteGame();
+                }
+            }
+            for (RemoteGame game : games) {
+                game.reset();
+            }
+            listener.onWelcome(this);
+        } else if (type == Protocol.END) {
+            matchOver = true;
+            listener.onEnd(this);
+        } else {
+            throw new ProtocolException("Unknown message type " + type);
+        }
+    }
+
+    /** @return the id of the client's match, or -1 until it starts */
+    public int getMatchId() {
+        return matchId;
+    }
+
+    /** @return the client's seat in its match, or {@link Protocol#SPECTATOR} */
+    public int getSeat() {
+        return seat;
+    }
+
+    /** @return true iff the client spectates its match rather than playing in it */
+    public boolean isSpectator() {
+        return seat == Protocol.SPECTATOR;
+    }
+
+    /** @return the number of seats in the client's match */
+    public int getSeats() {
+        return games.length;
+    }
+
+    /** @return the seed every game of the match is dealt from */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * @param seat a seat of the client's match
+     * @return the mirror of that seat's game
+     */
+    public RemoteGame getGame(int seat) {
+        return games[seat];
+    }
+
+    /** @return true iff the server ended the client's match */
+    public boolean isMatchOver() {
+        return matchOver;
+    }
+
+    /** Closes the connection. */
+    @Override
+    public void close() {
+        connection.close();
+    }
+}
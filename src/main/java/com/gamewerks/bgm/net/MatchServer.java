@@ -0,0 +1,474 @@
+package com.gamewerks.bgm.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.gamewerks.bgm.metrics.LatencyHistogram;
+import com.gamewerks.bgm.util.SplitMix64;
+
+/**
+ * Hosts many concurrent matches on one node, the server-side engines being
+ * the source of truth. Clients join with {@link Protocol#HELLO}, are seated
+ * in the next match with a free seat, and from then on send the keys they
+ * hold and receive every frame of every game of their match, see
+ * {@link Protocol}.
+ *
+ * <p>A single selector thread does all network I/O and keeps a shared tick
+ * at a fixed rate. On each tick it steps every running match one frame, in
+ * batches of {@value #GRAIN} matches split over a fork-join pool of
+ * workers, waits for all of them, and then flushes the output they queued.
+ * The selector thread and the workers thus take turns with the matches and
+ * the connections' buffers, and nothing needs locking. A client that falls
+ * so far behind that its output buffer fills up is disconnected.
+ *
+ * <p>Clients may also spectate a match with {@link Protocol#WATCH}. Each
+ * match encodes its frames once, and its spectators all stream the same
+ * bytes from its {@link Broadcaster}; a spectator that falls behind skips
+ * ahead to the next keyframe rather than being buffered for.
+ *
+ * <p>The server records how long each tick takes, from starting to step the
+ * matches to having flushed their output, and how late each tick starts,
+ * see {@link #getTickTimes()} and {@link #getTickLateness()}.
+ */
+public class MatchServer implements Closeable {
+    /** The number of matches below which a batch is stepped sequentially. */
+    private static final int GRAIN = 16;
+    /** The most periods the tick may fall behind before it skips ahead. */
+    private static final int MAX_BEHIND = 5;
+
+    private final int seats;
+    private final long periodNanos;
+    private final ForkJoinPool workers;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    private final SplitMix64 seeds;
+    private final Connection.Handler handler = this::onMessage;
+
+    private final List<Match> matches = new ArrayList<>();
+    /** The running matches as an array, rebuilt whenever they change. */
+    private Match[] running = new Match[0];
+    private Match forming;
+    private int nextMatchId;
+
+    private Thread thread;
+    private volatile boolean open = true;
+    private volatile LatencyHistogram tickTimes = new LatencyHistogram();
+    private volatile LatencyHistogram tickLateness = new LatencyHistogram();
+    private volatile long skippedTicks;
+    private volatile int runningMatches;
+    private volatile long disconnectedSlow;
+    private final LongAdder spectatorSkips = new LongAdder();
+
+    /**
+     * Constructs a server listening on the given address. The server does
+     * not accept connections until started.
+     * @param address the address to listen on, e.g., port 0 of the loopback
+     *                address for an ephemeral port
+     * @param seats the number of players per match
+     * @param tickRate the number of frames per second
+     * @param parallelism the number of worker threads stepping matches
+     * @param seed the seed from which the seeds of the matches are drawn
+     * @throws IOException if the address cannot be bound
+     */
+    public MatchServer(InetSocketAddress address, int seats, int tickRate, int parallelism,
+            long seed) throws IOException {
+        if (seats < 1 || seats > Byte.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid number of seats: " + seats);
+        }
+        this.seats = seats;
+        periodNanos = 1_000_000_000L / tickRate;
+        workers = new ForkJoinPool(parallelism);
+        seeds = new SplitMix64(seed);
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.bind(address);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /** @return the port the server listens on */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /** Starts serving on a new thread. */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = new Thread(this::run, "match-server");
+            thread.start();
+        }
+    }
+
+    /**
+     * Stops serving and closes every connection.
+     * @throws IOException if the server's channels cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        open = false;
+        selector.wakeup();
+        Thread serving;
+        synchronized (this) {
+            serving = thread;
+        }
+        if (serving != null) {
+            try {
+                serving.join();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+        server.close();
+        selector.close();
+        workers.shutdown();
+    }
+
+    /** The selector loop: serves I/O between ticks and runs each tick when it is due. */
+    private void run() {
+        long deadline = System.nanoTime() + periodNanos;
+        try {
+            while (open) {
+                long wait = deadline - System.nanoTime();
+                if (wait > 0) {
+                    // Rounded up, so ticks are late by up to a millisecond rather than spinning
+                    selector.select((wait + 999_999) / 1_000_000);
+                } else {
+                    selector.selectNow();
+                }
+                for (SelectionKey key : selector.selectedKeys()) {
+                    handle(key);
+                }
+                selector.selectedKeys().clear();
+
+                long now = System.nanoTime();
+                if (now - deadline >= 0) {
+                    tickLateness.record(now - deadline);
+                    tick();
+                    tickTimes.record(System.nanoTime() - now);
+                    deadline += periodNanos;
+                    if (System.nanoTime() - deadline > MAX_BEHIND * periodNanos) {
+                        skippedTicks += 1;
+                        deadline = System.nanoTime() + periodNanos;
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            if (open) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    /**
+     * Handles a selected key.
+     * @param key the key
+     * @throws IOException if a new connection cannot be set up
+     */
+    private void handle(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            SocketChannel channel = server.accept();
+            if (channel != null) {
+                Connection connection = new Connection(channel);
+                connection.setKey(channel.register(selector, SelectionKey.OP_READ, connection));
+            }
+            return;
+        }
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isWritable()) {
+                Broadcaster.Subscriber subscription = connection.getSubscription();
+                if (subscription != null) {
+                    subscription.flush();
+                } else {
+                    connection.flush();
+                }
+            }
+            if (key.isValid() && key.isReadable() && !connection.receive(handler)) {
+                disconnect(connection);
+            }
+        } catch (IOException | RuntimeException ex) {
+            // Whatever a client sends only ever costs its own connection
+            disconnect(connection);
+        }
+    }
+
+    /**
+     * Handles a message from a client.
+     * @param connection the client's connection
+     * @param type the type of the message
+     * @param payload the message after its type
+     * @throws IOException if the message is invalid
+     */
+    private void onMessage(Connection connection, byte type, ByteBuffer payload)
+            throws IOException {
+        Match.Player player = connection.getPlayer();
+        if (type == Protocol.INPUT) {
+            checkLength(type, payload, 2);
+            if (player != null) {
+                player.setKeys(payload.getShort() & 0xFFFF);
+            }
+        } else if (type == Protocol.HELLO || type == Protocol.WATCH) {
+            checkLength(type, payload, type == Protocol.HELLO ? 0 : 4);
+            if (player != null || connection.getSubscription() != null) {
+                throw new ProtocolException("Already in a match");
+            }
+            if (type == Protocol.HELLO) {
+                seat(connection);
+            } else {
+                watch(connection, payload.getInt());
+            }
+        } else {
+            throw new ProtocolException("Unknown message type " + type);
+        }
+    }
+
+    /**
+     * @param type the type of a message
+     * @param payload the message after its type
+     * @param length the length of the payload of messages of that type
+     * @throws ProtocolException if the payload is of another length
+     */
+    private static void checkLength(byte type, ByteBuffer payload, int length)
+            throws ProtocolException {
+        if (payload.remaining() != length) {
+            throw new ProtocolException("Message type " + type + " with a payload of "
+                    + payload.remaining() + " bytes rather than " + length);
+        }
+    }
+
+    /**
+     * Seats a client in the forming match, starting the match once it is full.
+     * @param connection the client's connection
+     * @throws IOException if the welcome messages cannot be sent
+     */
+    private void seat(Connection connection) throws IOException {
+        if (forming == null) {
+            forming = new Match(nextMatchId++, seeds.nextLong(), seats);
+        }
+        if (forming.seat(connection)) {
+            Match match = forming;
+            forming = null;
+            match.welcome();
+            for (Match.Player player : match.getPlayers()) {
+                flush(player.getConnection());
+            }
+            matches.add(match);
+            matchesChanged();
+        }
+    }
+
+    /**
+     * Makes a client spectate a running match, or ends its spectating right
+     * away if there is no such match.
+     * @param connection the client's connection
+     * @param id the id of the match, or -1 for the match started last
+     */
+    private void watch(Connection connection, int id) {
+        Match match = null;
+        for (int i = matches.size() - 1; i >= 0 && match == null; i--) {
+            if (id < 0 || matches.get(i).getId() == id) {
+                match = matches.get(i);
+            }
+        }
+        if (match != null) {
+            match.watch(connection, spectatorSkips);
+        } else if (connection.hasRoom(Protocol.HEADER_SIZE)) {
+            Protocol.writeEnd(connection.output());
+        }
+        flush(connection);
+    }
+
+    /** Steps every running match one frame and sends the resulting states. */
+    private void tick() {
+        Match[] batch = running;
+        if (batch.length > GRAIN) {
+            workers.invoke(new Batch(batch, 0, batch.length));
+        } else {
+            for (Match match : batch) {
+                match.step();
+            }
+        }
+        boolean changed = false;
+        for (Match match : batch) {
+            boolean finished = match.isFinished();
+            for (Match.Player player : match.getPlayers()) {
+                Connection connection = player.getConnection();
+                if (connection == null) {
+                    continue;
+                }
+                if (connection.isOverflowed()) {
+                    disconnectedSlow += 1;
+                    disconnect(connection);
+                    continue;
+                }
+                if (finished) {
+                    // Free the client to join another match
+                    if (connection.hasRoom(Protocol.HEADER_SIZE)) {
+                        Protocol.writeEnd(connection.output());
+                    }
+                    connection.setPlayer(null);
+                }
+                flush(connection);
+            }
+            Broadcaster broadcaster = match.getBroadcaster();
+            if (broadcaster != null) {
+                broadcaster.flush();
+            }
+            if (finished) {
+                matches.remove(match);
+                changed = true;
+            }
+        }
+        if (changed) {
+            matchesChanged();
+        }
+    }
+
+    /** Rebuilds the array of running matches. */
+    private void matchesChanged() {
+        running = matches.toArray(new Match[0]);
+        runningMatches = running.length;
+    }
+
+    /**
+     * Flushes a connection's output, disconnecting it if that fails.
+     * @param connection the connection, or null
+     */
+    private void flush(Connection connection) {
+        if (connection != null) {
+            try {
+                connection.flush();
+            } catch (IOException ex) {
+                disconnect(connection);
+            }
+        }
+    }
+
+    /**
+     * Closes a connection. Its seat is freed if its match has not started
+     * yet, and otherwise its game stops at the next tick.
+     * @param connection the connection
+     */
+    private void disconnect(Connection connection) {
+        Match.Player player = connection.getPlayer();
+        if (player != null) {
+            if (forming == null || !forming.unseat(player)) {
+                player.disconnect();
+            }
+            connection.setPlayer(null);
+        }
+        if (connection.getSubscription() != null) {
+            connection.getSubscription().cancel();
+        }
+        connection.close();
+    }
+
+    /** @return the number of matches being played */
+    public int getRunningMatches() {
+        return runningMatches;
+    }
+
+    /** @return how long each tick took, from stepping the matches to flushing their output */
+    public LatencyHistogram getTickTimes() {
+        return tickTimes;
+    }
+
+    /** @return how late each tick started */
+    public LatencyHistogram getTickLateness() {
+        return tickLateness;
+    }
+
+    /** @return the number of times the tick fell so far behind that it skipped ahead */
+    public long getSkippedTicks() {
+        return skippedTicks;
+    }
+
+    /** @return the number of clients disconnected for falling too far behind */
+    public long getDisconnectedSlow() {
+        return disconnectedSlow;
+    }
+
+    /** @return the number of times a spectator fell behind and skipped to a keyframe */
+    public long getSpectatorSkips() {
+        return spectatorSkips.sum();
+    }
+
+    /** Starts recording tick times and lateness afresh, e.g., after a warm-up. */
+    public void resetStats() {
+        tickTimes = new LatencyHistogram();
+        tickLateness = new LatencyHistogram();
+    }
+
+    /** A contiguous range of matches, stepped by one worker or split in two. */
+    // Batches live for one tick inside the pool and are never written out
+    @SuppressWarnings("serial")
+    private static final class Batch extends RecursiveAction {
+        private final Match[] matches;
+        private final int from;
+        private final int to;
+
+        /**
+         * @param matches the running matches
+         * @param from the index of the first match (inclusive)
+         * @param to the index of the last match (exclusive)
+         */
+        Batch(Match[] matches, int from, int to) {
+            this.matches = matches;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                for (int i = from; i < to; i++) {
+                    matches[i].step();
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Batch(matches, from, mid), new Batch(matches, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Serves matches until killed.
+     * @param args optionally, the port (default 7777), the number of players
+     *             per match (default 2), the tick rate (default 60) and the
+     *             number of workers (default: all cores)
+     * @throws IOException if the port cannot be bound
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+        int seats = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        int tickRate = args.length > 2 ? Integer.parseInt(args[2]) : 60;
+        int threads = args.length > 3 ? Integer.parseInt(args[3])
+                : Runtime.getRuntime().availableProcessors();
+        MatchServer server = new MatchServer(new InetSocketAddress(port), seats, tickRate,
+                threads, System.nanoTime());
+        server.start();
+        System.out.printf("Serving %d-player matches at %d Hz on port %d%n",
+                seats, tickRate, server.getPort());
+    }
+}
@@ -0,0 +1,176 @@
+package com.gamewerks.bgm.net;
+
+import java.nio.ByteBuffer;
+
+import com.gamewerks.bgm.engine.FrameSnapshot;
+import com.gamewerks.bgm.engine.PieceKind;
+
+/**
+ * The binary protocol spoken between {@link MatchClient} and
+ * {@link MatchServer} over TCP. Every message starts with its length, as an
+ * unsigned short counting the bytes that follow it, and a type byte; all
+ * numbers are big-endian.
+ *
+ * <p>Clients send:
+ * <ul>
+ * <li>{@link #HELLO}, with no payload, to join the next match with a free
+ *     seat,</li>
+ * <li>{@link #WATCH}, with a match id (int), or -1 for the match started
+ *     last, to spectate a match, and</li>
+ * <li>{@link #INPUT}, once per frame, with the keys to hold as a short in the
+ *     format of {@link com.gamewerks.bgm.engine.InputSource#keysHeld(long)}.</li>
+ * </ul>
+ * The server sends:
+ * <ul>
+ * <li>{@link #WELCOME} once a match is full, or a spectator is admitted to
+ *     one: the match id (int), the client's seat, or {@link #SPECTATOR}, and
+ *     the number of seats (bytes), and the seed every seat's game is dealt
+ *     from (long),</li>
+ * <li>{@link #STATE} after every frame of every game of the match: the seat
+ *     (byte), the frame (int), flags (byte, {@link #HAS_PIECE},
+ *     {@link #GAME_OVER} and {@link #KEYFRAME}), the active piece's kind,
+ *     orientation, row and column and the next piece's kind (bytes), the
+ *     lines cleared (int), and the rows of the well that changed since the
+ *     previous state of that seat, or all of them in a keyframe, as a count
+ *     (byte) followed by a row index (byte) and a row mask (short) for each,
+ *     and</li>
+ * <li>{@link #END}, with no payload, once every game of the match is over or
+ *     has lost its client, after which the client may join another match.</li>
+ * </ul>
+ * Row masks are shorts, so wells may be at most 16 cells wide.
+ *
+ * <p>Every {@value #KEYFRAME_INTERVAL}th frame of a match is a keyframe, from
+ * which a spectator who joined late, or who fell behind and was skipped
+ * ahead, can rebuild every game without the frames before it.
+ */
+public final class Protocol {
+    /** Client to server: join a match. */
+    public static final byte HELLO = 1;
+    /** Client to server: the keys to hold from the next frame on. */
+    public static final byte INPUT = 2;
+    /** Client to server: spectate a match. */
+    public static final byte WATCH = 3;
+    /** Server to client: the match has started. */
+    public static final byte WELCOME = 65;
+    /** Server to client: one frame of one game. */
+    public static final byte STATE = 66;
+    /** Server to client: the match is over. */
+    public static final byte END = 67;
+
+    /** The {@link #STATE} flag set iff there is an active piece. */
+    public static final int HAS_PIECE = 1;
+    /** The {@link #STATE} flag set iff the game is over. */
+    public static final int GAME_OVER = 2;
+    /** The {@link #STATE} flag set iff the message holds every row of the well. */
+    public static final int KEYFRAME = 4;
+    /** The seat of a spectator in a {@link #WELCOME} message. */
+    public static final int SPECTATOR = -1;
+    /** The number of frames from one keyframe to the next. */
+    public static final int KEYFRAME_INTERVAL = 60;
+
+    /** The size of the length and type that start every message. */
+    public static final int HEADER_SIZE = 3;
+    /** The size of a {@link #STATE} message with no changed rows. */
+    static final int STATE_SIZE = HEADER_SIZE + 16;
+    /** The size of each changed row of a {@link #STATE} message. */
+    static final int ROW_SIZE = 3;
+
+    /** Not instantiable. */
+    private Protocol() {
+    }
+
+    /**
+     * @param height the height of the well
+     * @return the size of the largest {@link #STATE} message for the given well
+     */
+    public static int maxStateSize(int height) {
+        return STATE_SIZE + height * ROW_SIZE;
+    }
+
+    /**
+     * Writes a {@link #HELLO} message.
+     * @param out the buffer to write to
+     */
+    public static void writeHello(ByteBuffer out) {
+        out.putShort((short) 1).put(HELLO);
+    }
+
+    /**
+     * Writes a {@link #WATCH} message.
+     * @param out the buffer to write to
+     * @param match the id of the match to spectate, or -1 for the match
+     *              started last
+     */
+    public static void writeWatch(ByteBuffer out, int match) {
+        out.putShort((short) 5).put(WATCH).putInt(match);
+    }
+
+    /**
+     * Writes an {@link #END} message.
+     * @param out the buffer to write to
+     */
+    public static void writeEnd(ByteBuffer out) {
+        out.putShort((short) 1).put(END);
+    }
+
+    /**
+     * Writes an {@link #INPUT} message.
+     * @param out the buffer to write to
+     * @param keys the keys to hold, see
+     *             {@link com.gamewerks.bgm.engine.InputSource#keysHeld(long)}
+     */
+    public static void writeInput(ByteBuffer out, int keys) {
+        out.putShort((short) 3).put(INPUT).putShort((short) keys);
+    }
+
+    /**
+     * Writes a {@link #WELCOME} message.
+     * @param out the buffer to write to
+     * @param match the id of the match
+     * @param seat the recipient's seat in the match
+     * @param seats the number of seats in the match
+     * @param seed the seed of the match's games
+     */
+    public static void writeWelcome(ByteBuffer out, int match, int seat, int seats, long seed) {
+        out.putShort((short) 15).put(WELCOME).putInt(match);
+        out.put((byte) seat).put((byte) seats).putLong(seed);
+    }
+
+    /**
+     * Writes a {@link #STATE} message describing a frame relative to the
+     * previous one sent for the same seat.
+     * @param out the buffer to write to, with room for
+     *            {@link #maxStateSize(int)} bytes
+     * @param seat the seat whose game the frame belongs to
+     * @param previous the previous frame sent, or an empty snapshot if none
+     * @param current the frame to send
+     * @param keyframe true to write every row rather than only those that changed
+     */
+    public static void writeState(ByteBuffer out, int seat, FrameSnapshot previous,
+            FrameSnapshot current, boolean keyframe) {
+        int start = out.position();
+        out.position(start + 2);
+        out.put(STATE).put((byte) seat).putInt((int) current.getFrame());
+        PieceKind kind = current.getPieceKind();
+        int flags = (kind != null ? HAS_PIECE : 0) | (current.isGameOver() ? GAME_OVER : 0)
+                | (keyframe ? KEYFRAME : 0);
+        out.put((byte) flags);
+        out.put((byte) (kind != null ? kind.ordinal() : 0)).put((byte) current.getOrientation());
+        out.put((byte) current.getPieceRow()).put((byte) current.getPieceCol());
+        out.put((byte) current.getNextPiece().ordinal()).putInt(current.getLinesCleared());
+
+        int countAt = out.position();
+        out.put((byte) 0);
+        int count = 0;
+        for (int row = 0; row < current.getHeight(); row++) {
+            int mask = current.getRowMask(row);
+            int before = row < previous.getHeight() ? previous.getRowMask(row) : 0;
+            if (keyframe || mask != before) {
+                out.put((byte) row).putShort((short) mask);
+                count += 1;
+            }
+        }
+        out.put(countAt, (byte) count);
+        out.putShort(start, (short) (out.position() - start - 2));
+    }
+}
@@ -0,0 +1,126 @@
+package com.gamewerks.bgm.net;
+
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.util.Constants;
+
+/**
+ * A client's mirror of one seat's game in a match, kept up to date by
+ * applying the server's {@link Protocol#STATE} messages in order. A
+ * spectator's mirror starts at a keyframe, which sets every row.
+ */
+public class RemoteGame {
+    private final int[] rows = new int[Constants.BOARD_HEIGHT];
+    private long frame;
+    private PieceKind pieceKind;
+    private int orientation;
+    private int pieceRow;
+    private int pieceCol;
+    private PieceKind nextPiece;
+    private int linesCleared;
+    private boolean gameOver;
+
+    /** Resets this mirror to an empty game, e.g., at the start of a match. */
+    void reset() {
+        Arrays.fill(rows, 0);
+        frame = 0;
+        pieceKind = null;
+        nextPiece = null;
+        linesCleared = 0;
+        gameOver = false;
+    }
+
+    /**
+     * Applies a {@link Protocol#STATE} message.
+     * @param in the message, positioned just after its seat
+     * @throws ProtocolException if the message names an unknown piece or row
+     */
+    void apply(ByteBuffer in) throws ProtocolException {
+        frame = in.getInt();
+        int flags = in.get();
+        PieceKind kind = pieceKind(in.get());
+        pieceKind = (flags & Protocol.HAS_PIECE) != 0 ? kind : null;
+        orientation = in.get();
+        pieceRow = in.get();
+        pieceCol = in.get();
+        nextPiece = pieceKind(in.get());
+        linesCleared = in.getInt();
+        gameOver = (flags & Protocol.GAME_OVER) != 0;
+        for (int count = in.get(); count > 0; count--) {
+            int row = in.get();
+            if (row < 0 || row >= rows.length) {
+                throw new ProtocolException("State of unknown row " + row);
+            }
+            rows[row] = in.getShort() & 0xFFFF;
+        }
+    }
+
+    /**
+     * @param ordinal the ordinal of a piece kind, as sent by the server
+     * @return the piece kind
+     * @throws ProtocolException if there is no such piece kind
+     */
+    private static PieceKind pieceKind(int ordinal) throws ProtocolException {
+        if (ordinal < 0 || ordinal >= PieceKind.ALL.length) {
+            throw new ProtocolException("Unknown piece kind " + ordinal);
+        }
+        return PieceKind.ALL[ordinal];
+    }
+
+    /** @return the frame this mirror is at */
+    public long getFrame() {
+        return frame;
+    }
+
+    /** @return the height of the well */
+    public int getHeight() {
+        return rows.length;
+    }
+
+    /**
+     * @param row the row of the well
+     * @return the filled cells of the given row, bit <code>col</code> being
+     *         set iff that cell is filled
+     */
+    public int getRowMask(int row) {
+        return rows[row];
+    }
+
+    /** @return the kind of the active piece, or null if there is none */
+    public PieceKind getPieceKind() {
+        return pieceKind;
+    }
+
+    /** @return the orientation of the active piece */
+    public int getOrientation() {
+        return orientation;
+    }
+
+    /** @return the row of the active piece's position */
+    public int getPieceRow() {
+        return pieceRow;
+    }
+
+    /** @return the column of the active piece's position */
+    public int getPieceCol() {
+        return pieceCol;
+    }
+
+    /** @return the kind of the next piece to spawn, or null before the first frame */
+    public PieceKind getNextPiece() {
+        return nextPiece;
+    }
+
+    /** @return the number of lines cleared */
+    public int getLinesCleared() {
+        return linesCleared;
+    }
+
+    /** @return true iff the game is over */
+    public boolean isGameOver() {
+        return gameOver;
+    }
+}
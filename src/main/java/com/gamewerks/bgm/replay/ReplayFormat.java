@@ -0,0 +1,41 @@
+package com.gamewerks.bgm.replay;
+
+/**
+ * The binary layout of a replay file. All multi-byte values are big-endian.
+ *
+ * <pre>
+ * header:
+ *   int   magic, "BGMR"
+ *   byte  format version
+ *   long  seed of the game's 7-bag randomizer
+ *   int   number of frames
+ *   int   number of lines cleared
+ *   int   number of pieces spawned
+ * runs of identical frames, until every frame is covered:
+ *   byte  keys held (bits 0-6); bit 7 is set iff a re-press byte follows
+ *   byte  keys re-pressed, only present if flagged
+ *   varint number of frames in the run, at least 1, 7 bits per byte with
+ *          the least significant group first
+ * </pre>
+ *
+ * Since a frame's keys fit in a byte and most frames repeat the previous
+ * frame's keys, long idle or held stretches cost only a couple of bytes.
+ */
+final class ReplayFormat {
+    /** "BGMR" in ASCII. */
+    static final int MAGIC = 0x42474D52;
+    /** The current version of the format. */
+    static final byte VERSION = 1;
+    /** The size of the header in bytes. */
+    static final int HEADER_BYTES = 4 + 1 + 8 + 4 + 4 + 4;
+    /** The offset of the frame count within the header. */
+    static final int FRAMES_OFFSET = 4 + 1 + 8;
+    /** The flag marking that a re-press byte follows the held keys. */
+    static final int REPRESS_FLAG = 0x80;
+    /** The largest number of bytes one run can take up. */
+    static final int MAX_RUN_BYTES = 2 + 5;
+
+    /** Not instantiable. */
+    private ReplayFormat() {
+    }
+}
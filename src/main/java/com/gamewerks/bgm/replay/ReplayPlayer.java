@@ -0,0 +1,118 @@
+package com.gamewerks.bgm.replay;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.ScriptedInput;
+
+/**
+ * Plays replays back on headless engines as fast as possible and checks that
+ * each game ends exactly as recorded, which makes a directory of replays a
+ * regression suite for the engine.
+ */
+public class ReplayPlayer {
+    /** The file extension of replay files. */
+    public static final String EXTENSION = ".bgmr";
+    /** The number of frames after which a recorded scripted game is cut off (one hour). */
+    private static final int MAX_RECORD_FRAMES = 60 * 60 * 60;
+
+    /**
+     * Plays the given replay to the end.
+     * @param replay the replay to play
+     * @return true iff the game lasted as many frames, cleared as many lines
+     *         and spawned as many pieces as recorded
+     */
+    public static boolean play(ReplayReader replay) {
+        Engine game = new Engine(replay.getSeed());
+        int frames = game.stepMany(replay.getFrames(), replay);
+        return frames == replay.getFrames()
+                && game.getLinesCleared() == replay.getLines()
+                && game.getPieceCount() == replay.getPieces();
+    }
+
+    /**
+     * Records the given number of standard scripted games, with seeds
+     * counting up from 0, into the given directory.
+     * @param dir the directory to record into
+     * @param games the number of games to record
+     * @throws IOException if a replay cannot be written
+     */
+    public static void record(Path dir, int games) throws IOException {
+        Files.createDirectories(dir);
+        ScriptedInput script = ScriptedInput.standard();
+        for (int seed = 0; seed < games; seed++) {
+            Engine game = new Engine(seed);
+            ReplayWriter writer = new ReplayWriter(dir.resolve(seed + EXTENSION), seed);
+            game.setInputRecorder(writer);
+            game.stepMany(MAX_RECORD_FRAMES, script);
+            writer.finish(game);
+        }
+    }
+
+    /**
+     * Records or plays replays.
+     * @param args either <code>record DIR GAMES</code> to record standard
+     *             scripted games, or <code>play PATH...</code> to play every
+     *             replay in the given files and directories
+     * @throws IOException if a replay cannot be read or written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length == 3 && args[0].equals("record")) {
+            record(Paths.get(args[1]), Integer.parseInt(args[2]));
+            return;
+        }
+        if (args.length < 2 || !args[0].equals("play")) {
+            System.err.println("usage: ReplayPlayer record DIR GAMES | play PATH...");
+            System.exit(2);
+        }
+
+        List<Path> files = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            Path path = Paths.get(args[i]);
+            if (Files.isDirectory(path)) {
+                try (Stream<Path> entries = Files.list(path)) {
+                    Stream<Path> replays = entries.filter(p -> p.toString().endsWith(EXTENSION));
+                    replays.sorted().forEach(files::add);
+                }
+            } else {
+                files.add(path);
+            }
+        }
+
+        AtomicLong frames = new AtomicLong();
+        List<Path> failed = new ArrayList<>();
+        long start = System.nanoTime();
+        files.parallelStream().forEach(file -> {
+            try {
+                ReplayReader replay = ReplayReader.open(file);
+                frames.addAndGet(replay.getFrames());
+                if (!play(replay)) {
+                    synchronized (failed) {
+                        failed.add(file);
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        });
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("%d replays, %d frames in %.2f s: %.0f replays/s, %.0f frames/s%n",
+                files.size(), frames.get(), seconds,
+                files.size() / seconds, frames.get() / seconds);
+        for (Path file : failed) {
+            System.out.println("MISMATCH " + file);
+        }
+        if (!failed.isEmpty()) {
+            System.exit(1);
+        }
+    }
+}
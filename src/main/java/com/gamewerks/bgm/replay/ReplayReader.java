@@ -0,0 +1,112 @@
+package com.gamewerks.bgm.replay;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.gamewerks.bgm.engine.InputSource;
+
+/**
+ * Reads a replay file, see {@link ReplayFormat}. The file is memory-mapped
+ * and its runs are decoded lazily, one frame at a time, as the reader is
+ * polled as the input source of a headless engine.
+ */
+public class ReplayReader implements InputSource {
+    private ByteBuffer data;
+    private long seed;
+    private int frames;
+    private int lines;
+    private int pieces;
+    private int runInput;
+    private int runRemaining;
+
+    /**
+     * Reads a replay from the given buffer, starting at its position.
+     * @param data the replay
+     * @throws IOException if the buffer does not hold a replay
+     */
+    public ReplayReader(ByteBuffer data) throws IOException {
+        this.data = data;
+        if (data.remaining() < ReplayFormat.HEADER_BYTES
+                || data.getInt() != ReplayFormat.MAGIC) {
+            throw new IOException("Not a replay");
+        }
+        byte version = data.get();
+        if (version != ReplayFormat.VERSION) {
+            throw new IOException("Unsupported replay version " + version);
+        }
+        seed = data.getLong();
+        frames = data.getInt();
+        lines = data.getInt();
+        pieces = data.getInt();
+    }
+
+    /**
+     * Memory-maps the given replay file.
+     * @param path the replay file
+     * @return a reader over the file
+     * @throws IOException if the file cannot be read or does not hold a replay
+     */
+    public static ReplayReader open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return new ReplayReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /** @return the seed of the recorded game */
+    public long getSeed() {
+        return seed;
+    }
+
+    /** @return the number of frames recorded */
+    public int getFrames() {
+        return frames;
+    }
+
+    /** @return the number of lines the recorded game cleared */
+    public int getLines() {
+        return lines;
+    }
+
+    /** @return the number of pieces the recorded game spawned */
+    public int getPieces() {
+        return pieces;
+    }
+
+    /**
+     * Decodes the input of the next frame. Frames must be polled in order,
+     * exactly once each.
+     * @param frame the number of the frame (ignored)
+     * @return the input of the next frame
+     */
+    @Override
+    public int keysHeld(long frame) {
+        if (runRemaining == 0) {
+            readRun();
+        }
+        runRemaining -= 1;
+        return runInput;
+    }
+
+    /** Decodes the next run. */
+    private void readRun() {
+        int held = data.get() & 0xFF;
+        if ((held & ReplayFormat.REPRESS_FLAG) != 0) {
+            int repressed = data.get() & 0xFF;
+            runInput = (held & ~ReplayFormat.REPRESS_FLAG) | repressed << REPRESS_SHIFT;
+        } else {
+            runInput = held;
+        }
+        int length = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = data.get();
+            length |= (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        runRemaining = length;
+    }
+}
@@ -0,0 +1,126 @@
+package com.gamewerks.bgm.replay;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.InputRecorder;
+import com.gamewerks.bgm.engine.InputSource;
+
+/**
+ * Records a game to a replay file, see {@link ReplayFormat}. Attach a writer
+ * to a freshly seeded engine with {@link Engine#setInputRecorder} and call
+ * {@link #finish(Engine)} once the game is over.
+ */
+public class ReplayWriter implements InputRecorder {
+    /** The size of the buffer runs are collected in before writing them out. */
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    private FileChannel channel;
+    private ByteBuffer buffer;
+    private int frames;
+    private int prevHeld;
+    private int runInput;
+    private int runLength;
+
+    /**
+     * Creates (or truncates) the given replay file.
+     * @param path the replay file
+     * @param seed the seed of the engine being recorded, see {@link Engine#Engine(long)}
+     * @throws IOException if the file cannot be written
+     */
+    public ReplayWriter(Path path, long seed) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        buffer = ByteBuffer.allocate(BUFFER_BYTES);
+        buffer.putInt(ReplayFormat.MAGIC);
+        buffer.put(ReplayFormat.VERSION);
+        buffer.putLong(seed);
+        // Frame, line and piece counts are filled in by finish()
+        buffer.putInt(0).putInt(0).putInt(0);
+    }
+
+    @Override
+    public void record(int held, int pressed) {
+        // A key just pressed that was already held last frame was released
+        // and pressed again in between, which a plain held mask cannot show.
+        int repressed = pressed & prevHeld;
+        prevHeld = held;
+        int input = held | repressed << InputSource.REPRESS_SHIFT;
+        frames += 1;
+        if (runLength > 0 && input == runInput) {
+            runLength += 1;
+            return;
+        }
+        try {
+            writeRun();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        runInput = input;
+        runLength = 1;
+    }
+
+    /**
+     * Writes out the remaining input along with the game's final counts and
+     * closes the file.
+     * @param game the recorded engine
+     * @throws IOException if the file cannot be written
+     */
+    public void finish(Engine game) throws IOException {
+        try {
+            writeRun();
+            drain();
+            ByteBuffer counts = ByteBuffer.allocate(12);
+            counts.putInt(frames).putInt(game.getLinesCleared()).putInt(game.getPieceCount());
+            counts.flip();
+            channel.write(counts, ReplayFormat.FRAMES_OFFSET);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Appends the current run, if any, to the buffer.
+     * @throws IOException if the buffer must be drained and cannot be
+     */
+    private void writeRun() throws IOException {
+        if (runLength == 0) {
+            return;
+        }
+        if (buffer.remaining() < ReplayFormat.MAX_RUN_BYTES) {
+            drain();
+        }
+        int held = runInput & 0xFF;
+        int repressed = runInput >>> InputSource.REPRESS_SHIFT;
+        if (repressed != 0) {
+            buffer.put((byte) (held | ReplayFormat.REPRESS_FLAG));
+            buffer.put((byte) repressed);
+        } else {
+            buffer.put((byte) held);
+        }
+        int length = runLength;
+        while (length >= 0x80) {
+            buffer.put((byte) (length | 0x80));
+            length >>>= 7;
+        }
+        buffer.put((byte) length);
+        runLength = 0;
+    }
+
+    /**
+     * Writes out the buffer to the file.
+     * @throws IOException if the file cannot be written
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,202 @@
+package com.gamewerks.bgm.search;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Well;
+import com.gamewerks.bgm.util.SplitMix64;
+
+/**
+ * A fixed-size cache of position evaluations, shared without locks by any
+ * number of search threads. Positions are identified by a 64-bit key, see
+ * {@link #key(Well, PieceKind, PieceKind)}.
+ *
+ * <p>The table is an array of buckets of {@value #BUCKET_SIZE} entries, 64
+ * bytes per bucket, so that probing a bucket touches about one cache line.
+ * Each entry is two <code>long</code>s: its data and the XOR of its key and
+ * data. Entries are read and written without locks, so two threads storing
+ * into the same slot may interleave; a reader only accepts an entry whose
+ * two halves XOR back to the key it is probing, so a torn entry reads as a
+ * miss rather than as another position's data.
+ *
+ * <p>When a bucket is full, a store replaces the entry of that position if
+ * there is one, and otherwise the least valuable entry: entries left over
+ * from earlier searches (see {@link #newSearch()}) go first, then those
+ * searched to the lowest depth.
+ */
+public class TranspositionTable {
+    /** The number of entries per bucket. */
+    public static final int BUCKET_SIZE = 4;
+    /** The value {@link #probe(long)} returns when the position is not cached. */
+    public static final long MISS = 0;
+
+    /** The bound an evaluation is known to be: exact. */
+    public static final int EXACT = 0;
+    /** The bound an evaluation is known to be: a lower bound of the true value. */
+    public static final int LOWER_BOUND = 1;
+    /** The bound an evaluation is known to be: an upper bound of the true value. */
+    public static final int UPPER_BOUND = 2;
+
+    /** Set in every stored entry's data, so that stored data is never {@link #MISS}. */
+    private static final long VALID = 1L << 63;
+    private static final int DEPTH_SHIFT = 32;
+    private static final int GENERATION_SHIFT = 40;
+    private static final int BOUND_SHIFT = 48;
+    private static final int BYTE_MASK = 0xff;
+    /** How much more one search's age weighs than one ply of depth when replacing. */
+    private static final int AGE_WEIGHT = 16;
+
+    /** The Zobrist keys of the current and the next piece kinds. */
+    private static final long[] CURRENT_KEYS = new long[PieceKind.ALL.length];
+    private static final long[] NEXT_KEYS = new long[PieceKind.ALL.length];
+
+    static {
+        for (PieceKind kind : PieceKind.ALL) {
+            int k = kind.ordinal();
+            CURRENT_KEYS[k] = SplitMix64.mix64(0x4ea7_1d5e_77c1_0b3fL + k);
+            NEXT_KEYS[k] = SplitMix64.mix64(0x0c83_a6e2_95fd_4417L + k);
+        }
+    }
+
+    private AtomicLongArray slots;
+    private int bucketMask;
+    private volatile int generation;
+
+    /**
+     * Constructs an empty table.
+     * @param sizeBytes the most memory the table may use; rounded down to a
+     *                  power of two number of buckets, of at least one
+     */
+    public TranspositionTable(long sizeBytes) {
+        long buckets = Long.highestOneBit(Math.max(1, sizeBytes / (BUCKET_SIZE * 2 * Long.BYTES)));
+        if (buckets > (1 << 26)) {
+            throw new IllegalArgumentException("Transposition table too large: " + sizeBytes);
+        }
+        bucketMask = (int) buckets - 1;
+        slots = new AtomicLongArray((int) buckets * BUCKET_SIZE * 2);
+    }
+
+    /**
+     * @param well the well of the position
+     * @param current the kind of the piece to place
+     * @param next the kind of the piece after it, i.e., the preview piece
+     * @return the key identifying the given position
+     */
+    public static long key(Well well, PieceKind current, PieceKind next) {
+        return well.getHash() ^ CURRENT_KEYS[current.ordinal()] ^ NEXT_KEYS[next.ordinal()];
+    }
+
+    /** @return the number of entries the table holds at most */
+    public int getCapacity() {
+        return slots.length() / 2;
+    }
+
+    /**
+     * Starts a new search, so that entries stored by earlier searches are
+     * replaced before those of the new search. Entries from earlier searches
+     * can still be probed.
+     */
+    public void newSearch() {
+        generation = (generation + 1) & BYTE_MASK;
+    }
+
+    /** Empties the table. Must not be called while other threads use it. */
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.setPlain(i, 0);
+        }
+    }
+
+    /**
+     * Looks up the given position.
+     * @param key the key of the position
+     * @return the cached entry, to be decoded with {@link #scoreOf(long)},
+     *         {@link #depthOf(long)} and {@link #boundOf(long)}, or
+     *         {@link #MISS} if the position is not cached
+     */
+    public long probe(long key) {
+        int base = bucketOf(key);
+        for (int i = base; i < base + BUCKET_SIZE * 2; i += 2) {
+            long data = slots.getOpaque(i);
+            if ((slots.getOpaque(i + 1) ^ data) == key && data != MISS) {
+                return data;
+            }
+        }
+        return MISS;
+    }
+
+    /**
+     * Caches the evaluation of the given position.
+     * @param key the key of the position
+     * @param score the evaluation
+     * @param depth the depth the position was searched to, clamped to
+     *              <code>[0, 256)</code>
+     * @param bound how the score bounds the true value: {@link #EXACT},
+     *              {@link #LOWER_BOUND} or {@link #UPPER_BOUND}
+     */
+    public void store(long key, int score, int depth, int bound) {
+        int gen = generation;
+        int clamped = Math.max(0, Math.min(depth, BYTE_MASK));
+        long data = VALID | (long) (bound & BYTE_MASK) << BOUND_SHIFT
+                | (long) gen << GENERATION_SHIFT | (long) clamped << DEPTH_SHIFT
+                | (score & 0xffff_ffffL);
+        int base = bucketOf(key);
+        int victim = base;
+        int victimValue = Integer.MAX_VALUE;
+        for (int i = base; i < base + BUCKET_SIZE * 2; i += 2) {
+            long old = slots.getOpaque(i);
+            if (old == MISS || (slots.getOpaque(i + 1) ^ old) == key) {
+                victim = i;
+                break;
+            }
+            int age = (gen - generationOf(old)) & BYTE_MASK;
+            int value = depthOf(old) - AGE_WEIGHT * age;
+            if (value < victimValue) {
+                victim = i;
+                victimValue = value;
+            }
+        }
+        slots.setOpaque(victim, data);
+        slots.setOpaque(victim + 1, key ^ data);
+    }
+
+    /**
+     * @param key the key of a position
+     * @return the index of the first slot of the position's bucket
+     */
+    private int bucketOf(long key) {
+        return ((int) (key >>> 32) & bucketMask) * BUCKET_SIZE * 2;
+    }
+
+    /**
+     * @param entry an entry returned by {@link #probe(long)}
+     * @return the cached evaluation
+     */
+    public static int scoreOf(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * @param entry an entry returned by {@link #probe(long)}
+     * @return the depth the position was searched to
+     */
+    public static int depthOf(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & BYTE_MASK;
+    }
+
+    /**
+     * @param entry an entry returned by {@link #probe(long)}
+     * @return how the evaluation bounds the true value
+     */
+    public static int boundOf(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & BYTE_MASK;
+    }
+
+    /**
+     * @param entry a stored entry
+     * @return the generation of the search that stored it
+     */
+    private static int generationOf(long entry) {
+        return (int) (entry >>> GENERATION_SHIFT) & BYTE_MASK;
+    }
+}
@@ -0,0 +1,169 @@
+package com.gamewerks.bgm.sim;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import com.gamewerks.bgm.engine.Engine;
+
+/**
+ * Parks game states off the heap, {@link Engine#STATE_BYTES} bytes apiece,
+ * so that simulations can keep millions of paused games (checkpoints, search
+ * frontiers) without building an engine for each or burdening the garbage
+ * collector with them.
+ *
+ * <p>States live in fixed-size slots of direct buffers, allocated a chunk at
+ * a time as the store grows and never given back. A slot is named by an
+ * <code>int</code>; freeing it pushes it onto a free list threaded through
+ * the freed slots themselves, so reusing it costs no allocation either.
+ * Saving copies an engine's state into a slot, and loading overwrites a live
+ * engine with it, so a handful of engines can play through any number of
+ * stored games.
+ *
+ * <p>A store is not safe to share between threads. Loading a freed slot, or
+ * freeing a slot twice, is not detected and corrupts the store.
+ */
+public class GameStateStore {
+    /** The number of slots per chunk used by default, about 6.5 MB worth. */
+    public static final int DEFAULT_CHUNK_SLOTS = 1 << 16;
+
+    private static final int NO_SLOT = -1;
+
+    /** The base 2 logarithm of the number of slots per chunk. */
+    private final int chunkShift;
+    private final int chunkMask;
+    private ByteBuffer[] chunks;
+    private int chunkCount;
+    /** The number of slots ever handed out, i.e., the first never used. */
+    private int top;
+    /** The most recently freed slot, or {@link #NO_SLOT}. */
+    private int freeHead;
+    private int size;
+
+    /** Constructs a new, empty store with {@link #DEFAULT_CHUNK_SLOTS} slots per chunk. */
+    public GameStateStore() {
+        this(DEFAULT_CHUNK_SLOTS);
+    }
+
+    /**
+     * Constructs a new, empty store.
+     * @param chunkSlots the number of slots allocated at a time, a power of
+     *                   two small enough for a chunk to fit a direct buffer
+     */
+    public GameStateStore(int chunkSlots) {
+        if (Integer.bitCount(chunkSlots) != 1
+                || chunkSlots > Integer.MAX_VALUE / Engine.STATE_BYTES) {
+            throw new IllegalArgumentException("Unsupported chunk size: " + chunkSlots);
+        }
+        chunkShift = Integer.numberOfTrailingZeros(chunkSlots);
+        chunkMask = chunkSlots - 1;
+        chunks = new ByteBuffer[8];
+        freeHead = NO_SLOT;
+    }
+
+    /**
+     * Saves the state of the given game into a new slot.
+     * @param engine the game
+     * @return the slot holding its state
+     * @throws IllegalStateException if every slot an <code>int</code> can
+     *         name is in use
+     */
+    public int save(Engine engine) {
+        int slot = allocate();
+        save(slot, engine);
+        return slot;
+    }
+
+    /**
+     * Overwrites the state held by a slot in use with the state of the given game.
+     * @param slot the slot
+     * @param engine the game
+     */
+    public void save(int slot, Engine engine) {
+        engine.writeState(chunk(slot), offset(slot));
+    }
+
+    /**
+     * Overwrites the given game with the state held by a slot in use, which
+     * keeps it. The engine's randomizer must be of the same kind as that of
+     * the game saved there.
+     * @param slot the slot
+     * @param engine the game to overwrite
+     */
+    public void load(int slot, Engine engine) {
+        engine.readState(chunk(slot), offset(slot));
+    }
+
+    /**
+     * Frees a slot in use, to be reused by a later save.
+     * @param slot the slot
+     */
+    public void free(int slot) {
+        chunk(slot).putInt(offset(slot), freeHead);
+        freeHead = slot;
+        size -= 1;
+    }
+
+    /** Frees every slot at once, keeping the memory allocated so far. */
+    public void clear() {
+        top = 0;
+        freeHead = NO_SLOT;
+        size = 0;
+    }
+
+    /** @return the number of slots in use */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of bytes allocated off the heap so far */
+    public long getOffHeapBytes() {
+        return (long) chunkCount * (chunkMask + 1) * Engine.STATE_BYTES;
+    }
+
+    /**
+     * @return a free slot, taken from the free list if any, else the first
+     *         slot never used, allocating a new chunk if needed
+     */
+    private int allocate() {
+        int slot = freeHead;
+        if (slot != NO_SLOT) {
+            freeHead = chunk(slot).getInt(offset(slot));
+        } else {
+            if (top == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Game state store is full");
+            }
+            slot = top++;
+            if (slot >>> chunkShift == chunkCount) {
+                addChunk();
+            }
+        }
+        size += 1;
+        return slot;
+    }
+
+    /** Allocates one more chunk of slots. */
+    private void addChunk() {
+        if (chunkCount == chunks.length) {
+            chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+        }
+        ByteBuffer chunk = ByteBuffer.allocateDirect((chunkMask + 1) * Engine.STATE_BYTES);
+        chunks[chunkCount++] = chunk.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @param slot a slot
+     * @return the chunk holding the given slot
+     */
+    private ByteBuffer chunk(int slot) {
+        return chunks[slot >>> chunkShift];
+    }
+
+    /**
+     * @param slot a slot
+     * @return the index of the given slot's first byte in its chunk
+     */
+    private int offset(int slot) {
+        return (slot & chunkMask) * Engine.STATE_BYTES;
+    }
+}
@@ -0,0 +1,131 @@
+package com.gamewerks.bgm.sim;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.LongFunction;
+
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.InputSource;
+import com.gamewerks.bgm.engine.ScriptedInput;
+
+/**
+ * Plays large numbers of independent headless games across all cores. Game
+ * <code>i</code> of a run is seeded with <code>firstSeed + i</code>, so any
+ * game can be reproduced on its own. The seed range is split recursively on
+ * a fork-join pool, whose work stealing evens out games of very different
+ * lengths; games share no mutable state, so throughput scales with cores.
+ */
+public class SimulationFarm {
+    /** The number of games below which a shard is played sequentially. */
+    private static final int GRAIN = 8;
+
+    private ForkJoinPool pool;
+    private int maxFrames;
+    private LongFunction<InputSource> inputs;
+
+    /**
+     * Constructs a new farm.
+     * @param parallelism the number of worker threads
+     * @param maxFrames the number of frames after which a game is cut off
+     * @param inputs the input source for the game with a given seed. Sources
+     *               may be shared between games as long as they are stateless.
+     */
+    public SimulationFarm(int parallelism, int maxFrames, LongFunction<InputSource> inputs) {
+        pool = new ForkJoinPool(parallelism);
+        this.maxFrames = maxFrames;
+        this.inputs = inputs;
+    }
+
+    /**
+     * Plays the given number of games from consecutive seeds, blocking until
+     * all of them are over or cut off.
+     * @param firstSeed the seed of the first game
+     * @param games the number of games to play
+     * @return the results of every game
+     */
+    public SimulationResults run(long firstSeed, int games) {
+        SimulationResults results = new SimulationResults(firstSeed, games);
+        long start = System.nanoTime();
+        pool.invoke(new Shard(results, 0, games));
+        results.setElapsedNanos(System.nanoTime() - start);
+        return results;
+    }
+
+    /** Stops the farm's worker threads. */
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    /** A contiguous range of games, played by one worker or split in two. */
+    // Serializable only because every ForkJoinTask is; a shard never leaves its pool
+    @SuppressWarnings("serial")
+    private class Shard extends RecursiveAction {
+        private SimulationResults results;
+        private int from;
+        private int to;
+
+        /**
+         * @param results the results to record into
+         * @param from the index of the first game (inclusive)
+         * @param to the index of the last game (exclusive)
+         */
+        Shard(SimulationResults results, int from, int to) {
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= GRAIN) {
+                for (int game = from; game < to; game++) {
+                    play(game);
+                }
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Shard(results, from, mid), new Shard(results, mid, to));
+            }
+        }
+
+        /**
+         * Plays one game to completion, or until it is cut off.
+         * @param game the index of the game
+         */
+        private void play(int game) {
+            long seed = results.getSeed(game);
+            Engine engine = new Engine(seed);
+            int frames = engine.stepMany(maxFrames, inputs.apply(seed));
+            results.record(game, engine.getLinesCleared(), engine.getPieceCount(), frames);
+        }
+    }
+
+    /**
+     * Plays a batch of standard scripted games and reports throughput.
+     * @param args optionally, the number of games (default 10000), the first
+     *             seed (default 0), the number of threads (default: all
+     *             cores) and the frame cut-off per game (default one hour)
+     */
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        long firstSeed = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        int threads = args.length > 2 ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        int maxFrames = args.length > 3 ? Integer.parseInt(args[3]) : 60 * 60 * 60;
+
+        ScriptedInput script = ScriptedInput.standard();
+        SimulationFarm farm = new SimulationFarm(threads, maxFrames, seed -> script);
+        // Warm up the JIT on a separate seed range before measuring
+        farm.run(firstSeed - games / 10 - 1, games / 10 + 1);
+        SimulationResults results = farm.run(firstSeed, games);
+        farm.shutdown();
+
+        System.out.printf("%d games on %d threads in %.2f s%n",
+                games, threads, results.getElapsedNanos() / 1e9);
+        System.out.printf("  %.0f games/s, %.0f frames/s%n",
+                results.getGamesPerSecond(), results.getFramesPerSecond());
+        System.out.printf("  %.2f lines, %.1f pieces, %.0f frames per game on average%n",
+                results.getTotalLines() / (double) games,
+                results.getTotalPieces() / (double) games,
+                results.getTotalFrames() / (double) games);
+    }
+}
@@ -0,0 +1,127 @@
+package com.gamewerks.bgm.sim;
+
+/**
+ * The outcome of a batch of simulated games played from consecutive seeds.
+ * Per-game results are kept in primitive arrays indexed by the game's offset
+ * from the first seed, so that each shard of a simulation writes only to its
+ * own slots and no results are boxed.
+ */
+public class SimulationResults {
+    private long firstSeed;
+    private int[] lines;
+    private int[] pieces;
+    private int[] frames;
+    private long elapsedNanos;
+
+    /**
+     * Constructs empty results for the given games.
+     * @param firstSeed the seed of the first game
+     * @param games the number of games
+     */
+    SimulationResults(long firstSeed, int games) {
+        this.firstSeed = firstSeed;
+        lines = new int[games];
+        pieces = new int[games];
+        frames = new int[games];
+    }
+
+    /**
+     * Records the outcome of one game.
+     * @param game the index of the game
+     * @param lines the number of lines the game cleared
+     * @param pieces the number of pieces the game spawned
+     * @param frames the number of frames the game survived
+     */
+    void record(int game, int lines, int pieces, int frames) {
+        this.lines[game] = lines;
+        this.pieces[game] = pieces;
+        this.frames[game] = frames;
+    }
+
+    /**
+     * Records how long the whole simulation took.
+     * @param nanos the wall-clock time of the simulation in nanoseconds
+     */
+    void setElapsedNanos(long nanos) {
+        elapsedNanos = nanos;
+    }
+
+    /** @return the number of games played */
+    public int getGameCount() {
+        return lines.length;
+    }
+
+    /**
+     * @param game the index of the game, <code>0 &lt;= game &lt; getGameCount()</code>
+     * @return the seed the given game was played with
+     */
+    public long getSeed(int game) {
+        return firstSeed + game;
+    }
+
+    /**
+     * @param game the index of the game
+     * @return the number of lines the given game cleared
+     */
+    public int getLines(int game) {
+        return lines[game];
+    }
+
+    /**
+     * @param game the index of the game
+     * @return the number of pieces the given game spawned
+     */
+    public int getPieces(int game) {
+        return pieces[game];
+    }
+
+    /**
+     * @param game the index of the game
+     * @return the number of frames the given game survived
+     */
+    public int getFrames(int game) {
+        return frames[game];
+    }
+
+    /** @return the total number of lines cleared over all games */
+    public long getTotalLines() {
+        return sum(lines);
+    }
+
+    /** @return the total number of pieces spawned over all games */
+    public long getTotalPieces() {
+        return sum(pieces);
+    }
+
+    /** @return the total number of frames stepped over all games */
+    public long getTotalFrames() {
+        return sum(frames);
+    }
+
+    /** @return the wall-clock time of the simulation in nanoseconds */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /** @return the number of games played per second of wall-clock time */
+    public double getGamesPerSecond() {
+        return getGameCount() / (elapsedNanos / 1e9);
+    }
+
+    /** @return the number of frames stepped per second of wall-clock time */
+    public double getFramesPerSecond() {
+        return getTotalFrames() / (elapsedNanos / 1e9);
+    }
+
+    /**
+     * @param values the values to add up
+     * @return the sum of the given values
+     */
+    private static long sum(int[] values) {
+        long total = 0;
+        for (int v : values) {
+            total += v;
+        }
+        return total;
+    }
+}
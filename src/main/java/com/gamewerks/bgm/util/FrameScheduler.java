@@ -0,0 +1,188 @@
+package com.gamewerks.bgm.util;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.LongPredicate;
+
+/**
+ * Runs a game loop at a fixed timestep without pinning a core. Between
+ * frames the loop thread parks, waking up a little early and spinning only
+ * for the last {@value #SPIN_NANOS} nanoseconds to hit the deadline
+ * precisely.
+ *
+ * <p>The scheduler wakes once per period. Each wake steps the game as many
+ * frames as have come due, times the speed multiplier, and then renders
+ * once. When wakes fall behind (e.g., after a GC pause or while the window
+ * is dragged), at most {@value #MAX_CATCH_UP} periods' worth of frames are
+ * caught up in one burst; anything older is dropped rather than fast
+ * forwarding the game to catch up. The frames of a wake are spread evenly
+ * over the periods they were due in, and each is told the time it was due,
+ * so that input can be applied to the frame it belongs to. How late every
+ * wake is gets recorded as jitter statistics.
+ *
+ * <p>The statistics are written by the loop thread only and may be read
+ * from any thread, with no guarantee that they are mutually consistent.
+ */
+public class FrameScheduler {
+    /** How long before a deadline the loop stops parking and starts spinning. */
+    private static final long SPIN_NANOS = 250_000;
+    /** The most periods whose frames are run in a single wake. */
+    private static final int MAX_CATCH_UP = 5;
+
+    private long periodNanos;
+    private volatile double speed = 1;
+    private volatile boolean running;
+
+    private volatile long wakes;
+    private volatile long droppedPeriods;
+    private volatile double meanLateNanos;
+    private volatile long maxLateNanos;
+    /** The sum of squared deviations from the mean lateness, see {@link #getJitterNanos()}. */
+    private double lateSquares;
+
+    /**
+     * Constructs a new scheduler.
+     * @param fps the number of periods per second
+     */
+    public FrameScheduler(int fps) {
+        periodNanos = 1_000_000_000L / fps;
+    }
+
+    /**
+     * Sets the number of frames stepped per period, e.g., 10 or 100 to fast
+     * forward a demo or a replay. Takes effect from the next wake.
+     * @param speed the speed multiplier, fractions included
+     */
+    public void setSpeed(double speed) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("Speed must be positive: " + speed);
+        }
+        this.speed = speed;
+    }
+
+    /** @return the number of frames stepped per period */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /**
+     * Runs the loop on the calling thread until <code>step</code> returns
+     * false or {@link #stop()} is called, for games rendered elsewhere.
+     * @param step steps the game one frame, given the time the frame was due
+     *             in {@link System#nanoTime()} time, returning false to stop
+     *             the loop
+     */
+    public void run(LongPredicate step) {
+        run(step, () -> { });
+    }
+
+    /**
+     * Runs the loop on the calling thread until <code>step</code> returns
+     * false or {@link #stop()} is called.
+     * @param step steps the game one frame, given the time the frame was due
+     *             in {@link System#nanoTime()} time, returning false to stop
+     *             the loop
+     * @param render renders the game, after the frames of each wake
+     */
+    public void run(LongPredicate step, Runnable render) {
+        running = true;
+        double owed = 0;
+        long deadline = System.nanoTime() + periodNanos;
+        while (running) {
+            waitUntil(deadline);
+            long late = System.nanoTime() - deadline;
+            recordLateness(late);
+
+            long periods = 1 + late / periodNanos;
+            // The time the last period of this wake was due
+            long last;
+            if (periods > MAX_CATCH_UP) {
+                droppedPeriods += periods - MAX_CATCH_UP;
+                periods = MAX_CATCH_UP;
+                last = System.nanoTime();
+            } else {
+                last = deadline + (periods - 1) * periodNanos;
+            }
+            deadline = last + periodNanos;
+
+            owed += periods * speed;
+            int frames = (int) owed;
+            owed -= frames;
+            long span = periods * periodNanos;
+            for (int i = 0; i < frames && running; i++) {
+                long due = last - span + span * (i + 1) / frames;
+                if (!step.test(due)) {
+                    running = false;
+                }
+            }
+            render.run();
+        }
+    }
+
+    /** Makes the loop return after its current wake. May be called from any thread. */
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Parks until shortly before the given deadline, then spins up to it.
+     * @param deadline the deadline, in {@link System#nanoTime()} time
+     */
+    private static void waitUntil(long deadline) {
+        long remaining = deadline - System.nanoTime();
+        while (remaining > 0) {
+            if (remaining > SPIN_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_NANOS);
+            } else {
+                Thread.onSpinWait();
+            }
+            remaining = deadline - System.nanoTime();
+        }
+    }
+
+    /**
+     * Adds one wake's lateness to the statistics, using Welford's online
+     * algorithm for the variance.
+     * @param late how many nanoseconds after its deadline the loop woke up
+     */
+    private void recordLateness(long late) {
+        long n = wakes + 1;
+        double delta = late - meanLateNanos;
+        meanLateNanos += delta / n;
+        lateSquares += delta * (late - meanLateNanos);
+        maxLateNanos = Math.max(maxLateNanos, late);
+        wakes = n;
+    }
+
+    /** @return the number of times the loop has woken up, i.e., rendered */
+    public long getWakes() {
+        return wakes;
+    }
+
+    /** @return the number of periods whose frames were dropped rather than caught up */
+    public long getDroppedPeriods() {
+        return droppedPeriods;
+    }
+
+    /** @return how late the loop woke up on average, in nanoseconds */
+    public double getMeanLateNanos() {
+        return meanLateNanos;
+    }
+
+    /** @return how late the loop woke up at worst, in nanoseconds */
+    public long getMaxLateNanos() {
+        return maxLateNanos;
+    }
+
+    /** @return the standard deviation of how late the loop woke up, in nanoseconds */
+    public double getJitterNanos() {
+        long n = wakes;
+        return n < 2 ? 0 : Math.sqrt(lateSquares / (n - 1));
+    }
+
+    /** @return a one-line summary of the jitter statistics */
+    public String getStatsSummary() {
+        return String.format("%d wakes, late by %.1f us on average (jitter %.1f us, max %.1f us),"
+                + " %d periods dropped", getWakes(), getMeanLateNanos() / 1e3,
+                getJitterNanos() / 1e3, getMaxLateNanos() / 1e3, getDroppedPeriods());
+    }
+}
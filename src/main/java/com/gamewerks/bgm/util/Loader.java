@@ -1,54 +1,65 @@
 package com.gamewerks.bgm.util;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.HashMap;
-import java.util.Scanner;
+import java.util.List;
 
 import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Rotation;
 
 /**
  * The loader provides static methods for reading in the rotation data for each piece.
+ *
+ * <p>The files in the {@value Constants#DATA_PATH} directory are the source
+ * of the layouts, but the game does not read them. {@link RotationCompiler}
+ * compiles them into {@link RotationTables}, one 16-bit mask per layout,
+ * which ship as part of the classes. Starting a game thus involves no I/O
+ * and works from any working directory.
  */
 public class Loader {
+    /** The width and height of the grid a layout is drawn in. */
+    public static final int LAYOUT_SIZE = 4;
+
     /**
-     * @param in a <code>Scanner</code> attached to a data file
-     * @return the rotational data parsed from one data file
+     * @param lines the lines of a data file
+     * @param first the index of the layout's top line
+     * @return the rotational data parsed from one layout of a data file
      */
-    private static boolean[][] readRotation(Scanner in) {
-        boolean[][] rotation = new boolean[4][4];
-        for (int row = 3; row >= 0; row--) {
-            String line = in.nextLine();
-            for (int col = 0; col < 4; col++) {
+    private static boolean[][] readRotation(List<String> lines, int first) {
+        boolean[][] rotation = new boolean[LAYOUT_SIZE][LAYOUT_SIZE];
+        for (int row = LAYOUT_SIZE - 1; row >= 0; row--) {
+            String line = lines.get(first + LAYOUT_SIZE - 1 - row);
+            for (int col = 0; col < LAYOUT_SIZE; col++) {
                 rotation[row][col] = line.charAt(col) == 'x';
             }
         }
         return rotation;
     }
-    
-   
+
     /**
+     * Reads the rotation data of a piece from its data file, relative to the
+     * working directory.
      * @param piece the kind of piece
      * @return the rotational data for the given piece-kind
-     * @throws IOException
+     * @throws IOException if the data file cannot be read
      */
     public static boolean[][][] loadRotationData(PieceKind piece) throws IOException {
+        List<String> lines = Files.readAllLines(Path.of(Constants.DATA_PATH, piece + ".data"));
         boolean[][][] data = new boolean[4][][];
-        File file = new File(Constants.DATA_PATH, piece.toString() + ".data");
-        Scanner in = new Scanner(file);
-        for (int i = 0; i < 4; i++) {
-            data[i] = readRotation(in);
-            if (in.hasNextLine()) {
-                in.nextLine();
-            }
+        for (int i = 0; i < data.length; i++) {
+            // Layouts are separated by a blank line
+            data[i] = readRotation(lines, i * (LAYOUT_SIZE + 1));
         }
-        in.close();
         return data;
     }
 
     /**
+     * Reads the rotation data of every piece from the data files, relative
+     * to the working directory.
      * @return the rotation data for all pieces
-     * @throws IOException
+     * @throws IOException if a data file cannot be read
      */
     public static HashMap<PieceKind, boolean[][][]> loadAllRotationData() throws IOException {
         HashMap<PieceKind, boolean[][][]> ret = new HashMap<>();
@@ -58,4 +69,67 @@ public class Loader {
         }
         return ret;
     }
+
+    /**
+     * @return the rotation data for all pieces, as compiled into {@link RotationTables}
+     */
+    public static HashMap<PieceKind, boolean[][][]> loadCompiledRotationData() {
+        HashMap<PieceKind, boolean[][][]> ret = new HashMap<>();
+        for (PieceKind piece : PieceKind.values()) {
+            int[] layouts = RotationTables.LAYOUTS[piece.ordinal()];
+            boolean[][][] data = new boolean[layouts.length][][];
+            for (int i = 0; i < layouts.length; i++) {
+                data[i] = decodeLayout(layouts[i]);
+            }
+            ret.put(piece, data);
+        }
+        return ret;
+    }
+
+    /**
+     * @return the precompiled rotations for all pieces, indexed first by
+     *         {@link PieceKind#ordinal()} and then by orientation
+     */
+    public static Rotation[][] loadAllRotations() {
+        Rotation[][] ret = new Rotation[PieceKind.values().length][];
+        for (PieceKind piece : PieceKind.values()) {
+            int[] layouts = RotationTables.LAYOUTS[piece.ordinal()];
+            ret[piece.ordinal()] = new Rotation[layouts.length];
+            for (int i = 0; i < layouts.length; i++) {
+                ret[piece.ordinal()][i] = new Rotation(decodeLayout(layouts[i]));
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * @param layout a layout, <code>layout[0]</code> being its bottom row
+     * @return the layout as a mask, bit <code>row * 4 + col</code> being set
+     *         iff that cell is occupied
+     */
+    public static int encodeLayout(boolean[][] layout) {
+        int bits = 0;
+        for (int row = 0; row < LAYOUT_SIZE; row++) {
+            for (int col = 0; col < LAYOUT_SIZE; col++) {
+                if (layout[row][col]) {
+                    bits |= 1 << (row * LAYOUT_SIZE + col);
+                }
+            }
+        }
+        return bits;
+    }
+
+    /**
+     * @param bits a layout as a mask, see {@link #encodeLayout(boolean[][])}
+     * @return the layout, <code>layout[0]</code> being its bottom row
+     */
+    public static boolean[][] decodeLayout(int bits) {
+        boolean[][] layout = new boolean[LAYOUT_SIZE][LAYOUT_SIZE];
+        for (int row = 0; row < LAYOUT_SIZE; row++) {
+            for (int col = 0; col < LAYOUT_SIZE; col++) {
+                layout[row][col] = (bits & 1 << (row * LAYOUT_SIZE + col)) != 0;
+            }
+        }
+        return layout;
+    }
 }
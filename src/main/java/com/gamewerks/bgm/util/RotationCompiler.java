@@ -0,0 +1,77 @@
+package com.gamewerks.bgm.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Locale;
+
+import com.gamewerks.bgm.engine.PieceKind;
+
+/**
+ * Compiles the rotation data files into the source of {@link RotationTables}.
+ * Run it from the project root after editing a data file; the tests check
+ * that the tables and the data files agree.
+ *
+ * <pre>
+ * mvn -q compile &amp;&amp; java -cp target/classes com.gamewerks.bgm.util.RotationCompiler
+ * </pre>
+ */
+public final class RotationCompiler {
+    /** The source file of {@link RotationTables}, relative to the project root. */
+    public static final String TABLES_PATH =
+            "src/main/java/com/gamewerks/bgm/util/RotationTables.java";
+
+    /** Not instantiable. */
+    private RotationCompiler() {
+    }
+
+    /**
+     * @param data the rotation data of every piece, see
+     *             {@link Loader#loadAllRotationData()}
+     * @return the source of {@link RotationTables} holding the given data
+     */
+    public static String compile(HashMap<PieceKind, boolean[][][]> data) {
+        StringBuilder out = new StringBuilder();
+        out.append("package com.gamewerks.bgm.util;\n\n");
+        out.append("/**\n");
+        out.append(" * The layouts of every piece, generated by {@link RotationCompiler} from\n");
+        out.append(" * the files in the data directory. Do not edit: edit the data files and\n");
+        out.append(" * run the compiler instead.\n");
+        out.append(" */\n");
+        out.append("final class RotationTables {\n");
+        out.append("    /**\n");
+        out.append("     * The layouts, indexed first by piece kind ordinal and then by\n");
+        out.append("     * orientation, as masks, see {@link Loader#encodeLayout(boolean[][])}.\n");
+        out.append("     */\n");
+        out.append("    static final int[][] LAYOUTS = {\n");
+        for (PieceKind piece : PieceKind.values()) {
+            out.append("        {");
+            boolean[][][] layouts = data.get(piece);
+            for (int i = 0; i < layouts.length; i++) {
+                out.append(i > 0 ? ", " : "").append(String.format(Locale.ROOT, "0x%04X",
+                        Loader.encodeLayout(layouts[i])));
+            }
+            out.append("}, // ").append(piece).append('\n');
+        }
+        out.append("    };\n\n");
+        out.append("    /** Not instantiable. */\n");
+        out.append("    private RotationTables() {\n");
+        out.append("    }\n");
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * Regenerates {@link RotationTables} from the data files.
+     * @param args optionally, the file to write the source to (default
+     *             {@value #TABLES_PATH})
+     * @throws IOException if a data file cannot be read or the source cannot
+     *                     be written
+     */
+    public static void main(String[] args) throws IOException {
+        Path target = Path.of(args.length > 0 ? args[0] : TABLES_PATH);
+        Files.writeString(target, compile(Loader.loadAllRotationData()));
+        System.out.println("Wrote " + target);
+    }
+}
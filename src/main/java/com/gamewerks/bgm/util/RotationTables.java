@@ -0,0 +1,26 @@
+package com.gamewerks.bgm.util;
+
+/**
+ * The layouts of every piece, generated by {@link RotationCompiler} from
+ * the files in the data directory. Do not edit: edit the data files and
+ * run the compiler instead.
+ */
+final class RotationTables {
+    /**
+     * The layouts, indexed first by piece kind ordinal and then by
+     * orientation, as masks, see {@link Loader#encodeLayout(boolean[][])}.
+     */
+    static final int[][] LAYOUTS = {
+        {0x0F00, 0x4444, 0x0F00, 0x4444}, // I
+        {0x0740, 0x0223, 0x0170, 0x6220}, // J
+        {0x0710, 0x0322, 0x0470, 0x0226}, // L
+        {0x0660, 0x0660, 0x0660, 0x0660}, // O
+        {0x0630, 0x0132, 0x0630, 0x0132}, // S
+        {0x0720, 0x0232, 0x0270, 0x0262}, // T
+        {0x0360, 0x0462, 0x0360, 0x0462}, // Z
+    };
+
+    /** Not instantiable. */
+    private RotationTables() {
+    }
+}
@@ -0,0 +1,87 @@
+package com.gamewerks.bgm.util;
+
+/**
+ * A small, fast, seedable pseudo-random number generator (Steele, Lea and
+ * Flood's SplitMix64). Its whole state is a single <code>long</code>, so a
+ * generator is cheap to create, copy and jump ahead, and two generators
+ * built from the same seed produce the same sequence on any JVM.
+ *
+ * <p>Unlike <code>ThreadLocalRandom</code>, a generator is owned by whoever
+ * created it and is not safe to share between threads.
+ */
+public final class SplitMix64 {
+    /** The odd increment added to the state on every draw (the golden ratio). */
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long state;
+
+    /**
+     * Constructs a new generator from the given seed.
+     * @param seed the seed
+     */
+    public SplitMix64(long seed) {
+        state = seed;
+    }
+
+    /** @return the next pseudo-random <code>long</code> */
+    public long nextLong() {
+        state += GOLDEN_GAMMA;
+        return mix64(state);
+    }
+
+    /**
+     * @param bound the upper bound (exclusive), must be positive
+     * @return a uniformly distributed pseudo-random int in <code>[0, bound)</code>
+     */
+    public int nextInt(int bound) {
+        // Rejection sampling over 31 bits, as in java.util.SplittableRandom,
+        // so that every value is equally likely.
+        int r = (int) (nextLong() >>> 33);
+        int m = bound - 1;
+        for (int u = r; u - (r = u % bound) + m < 0; u = (int) (nextLong() >>> 33)) {
+            // retry
+        }
+        return r;
+    }
+
+    /**
+     * Splits off a new generator, seeded from this one, whose sequence is
+     * statistically independent of this generator's. Advances this generator.
+     * @return the new generator
+     */
+    public SplitMix64 split() {
+        return new SplitMix64(mix64(nextLong()));
+    }
+
+    /**
+     * Advances this generator as if {@link #nextLong()} had been called the
+     * given number of times, in constant time.
+     * @param draws the number of draws to skip
+     */
+    public void jump(long draws) {
+        state += draws * GOLDEN_GAMMA;
+    }
+
+    /** @return the internal state of this generator */
+    public long getState() {
+        return state;
+    }
+
+    /**
+     * Restores the internal state of this generator.
+     * @param state a state previously returned by {@link #getState()}
+     */
+    public void setState(long state) {
+        this.state = state;
+    }
+
+    /**
+     * @param z a 64-bit value
+     * @return the given value with its bits thoroughly mixed
+     */
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
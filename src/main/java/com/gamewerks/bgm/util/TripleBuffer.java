@@ -0,0 +1,84 @@
+package com.gamewerks.bgm.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Hands values over from one writer thread to one reader thread without
+ * locks, blocking or allocation. Of three buffers, the writer owns one (the
+ * back buffer), the reader owns one (the front buffer), and the third sits
+ * in between. Publishing swaps the back buffer with the middle one and
+ * flags it fresh; acquiring swaps the front buffer with the middle one if it
+ * is fresh. Each swap is a single atomic exchange, so neither side ever
+ * waits, and neither ever sees a buffer the other is using.
+ *
+ * <p>The reader always gets the latest published value and may skip values
+ * published in between, which suits rendering the latest state of a
+ * simulation that runs at its own rate.
+ *
+ * @param <T> the type of the buffers
+ */
+public class TripleBuffer<T> {
+    /** Set in {@link #middle} when the middle buffer was published but not yet acquired. */
+    private static final int FRESH = 4;
+    private static final int INDEX_MASK = 3;
+
+    private final Object[] buffers = new Object[3];
+    /** The index of the middle buffer, possibly flagged {@link #FRESH}. */
+    private final AtomicInteger middle = new AtomicInteger(1);
+    /** The index of the back buffer, owned by the writer. */
+    private int back = 0;
+    /** The index of the front buffer, owned by the reader. */
+    private int front = 2;
+
+    /**
+     * Constructs a new triple buffer.
+     * @param factory creates each of the three buffers
+     */
+    public TripleBuffer(Supplier<T> factory) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = factory.get();
+        }
+    }
+
+    /**
+     * Must only be called by the writer thread.
+     * @return the back buffer, to be filled in and then published
+     */
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T) buffers[back];
+    }
+
+    /**
+     * Publishes the back buffer, making it the reader's next value, and
+     * gives the writer a new back buffer. Must only be called by the writer
+     * thread.
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * May only be called by the reader thread.
+     * @return true iff a value was published since the last acquire
+     */
+    public boolean hasFresh() {
+        return (middle.get() & FRESH) != 0;
+    }
+
+    /**
+     * Takes the latest published value, which the writer will not touch
+     * until the next acquire. Must only be called by the reader thread.
+     * @return the latest published value, the same as last time if none was
+     *         published since; before the first publish, one of the buffers
+     *         as built by the factory
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if (hasFresh()) {
+            front = middle.getAndSet(front) & INDEX_MASK;
+        }
+        return (T) buffers[front];
+    }
+}
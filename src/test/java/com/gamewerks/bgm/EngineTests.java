@@ -0,0 +1,331 @@
+package com.gamewerks.bgm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import com.gamewerks.bgm.engine.BatchEngine;
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.FrameSnapshot;
+import com.gamewerks.bgm.engine.InputSource;
+import com.gamewerks.bgm.engine.KeyKind;
+import com.gamewerks.bgm.engine.MoveGenerator;
+import com.gamewerks.bgm.engine.RewindBuffer;
+import com.gamewerks.bgm.engine.Rotation;
+import com.gamewerks.bgm.engine.ScriptedInput;
+import com.gamewerks.bgm.engine.Well;
+import com.gamewerks.bgm.metrics.EngineMetrics;
+import com.gamewerks.bgm.metrics.LatencyHistogram;
+import com.gamewerks.bgm.replay.ReplayPlayer;
+import com.gamewerks.bgm.replay.ReplayReader;
+import com.gamewerks.bgm.replay.ReplayWriter;
+import com.gamewerks.bgm.sim.SimulationFarm;
+import com.gamewerks.bgm.sim.SimulationResults;
+import com.gamewerks.bgm.util.Constants;
+import com.gamewerks.bgm.util.SplitMix64;
+import com.gamewerks.bgm.util.TripleBuffer;
+
+public class EngineTests {
+
+    /**
+     * Tests that stepping a fresh game headless runs every requested frame.
+     */
+    @Test
+    public void stepManyRunsAllFramesTest() {
+        Engine game = new Engine();
+        assertEquals(100, game.stepMany(100, InputSource.NONE));
+        assertEquals(100, game.getFrameCount());
+        assertFalse(game.isGameOver());
+    }
+
+    /**
+     * Tests that sonic dropping every piece straight down eventually tops out,
+     * and that topping out is reported as a state rather than ending the process.
+     * Once over, the game no longer advances.
+     */
+    @Test
+    public void topOutEndsGameTest() {
+        Engine game = new Engine();
+        InputSource drop = new ScriptedInput(new int[] { KeyKind.SONIC_DROP.mask(), 0 });
+        int stepped = game.stepMany(1_000_000, drop);
+        assertTrue(game.isGameOver());
+        assertTrue(stepped < 1_000_000);
+        assertEquals(0, game.stepMany(10, drop));
+        assertEquals(stepped, game.getFrameCount());
+    }
+
+    /**
+     * Tests that games played in parallel by the simulation farm record the
+     * same results as playing each seed on its own.
+     */
+    @Test
+    public void farmMatchesSequentialGamesTest() {
+        ScriptedInput script = ScriptedInput.standard();
+        SimulationFarm farm = new SimulationFarm(4, 100_000, seed -> script);
+        SimulationResults results = farm.run(500, 40);
+        farm.shutdown();
+        assertEquals(40, results.getGameCount());
+        for (int i = 0; i < results.getGameCount(); i++) {
+            Engine game = new Engine(results.getSeed(i));
+            int frames = game.stepMany(100_000, script);
+            assertEquals(frames, results.getFrames(i));
+            assertEquals(game.getLinesCleared(), results.getLines(i));
+            assertEquals(game.getPieceCount(), results.getPieces(i));
+        }
+    }
+
+    /**
+     * Tests that a recorded game plays back to the same end state, and that
+     * the replay is much smaller than one byte per frame.
+     */
+    @Test
+    public void replayRoundTripTest(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("game" + ReplayPlayer.EXTENSION);
+        Engine game = new Engine(42);
+        ReplayWriter writer = new ReplayWriter(file, 42);
+        game.setInputRecorder(writer);
+        int frames = game.stepMany(100_000, ScriptedInput.standard());
+        writer.finish(game);
+
+        ReplayReader replay = ReplayReader.open(file);
+        assertEquals(42, replay.getSeed());
+        assertEquals(frames, replay.getFrames());
+        assertEquals(game.getLinesCleared(), replay.getLines());
+        assertTrue(Files.size(file) < frames / 2);
+        assertTrue(ReplayPlayer.play(replay));
+    }
+
+    /**
+     * Tests that a reader polling snapshots while the game runs on another
+     * thread only ever sees whole frames, in order: the active piece never
+     * overlaps the well it was captured with.
+     */
+    @Test
+    public void snapshotsAreConsistentTest() throws InterruptedException {
+        Engine game = new Engine(3);
+        TripleBuffer<FrameSnapshot> frames = new TripleBuffer<>(FrameSnapshot::new);
+        game.setSnapshotBuffer(frames);
+        Thread writer = new Thread(() -> game.stepMany(200_000, ScriptedInput.standard()));
+        writer.start();
+
+        long lastFrame = -1;
+        int polled = 0;
+        while (writer.isAlive() || frames.hasFresh()) {
+            FrameSnapshot frame = frames.acquire();
+            assertTrue(frame.getFrame() >= lastFrame);
+            lastFrame = frame.getFrame();
+            Rotation rot = frame.getPieceRotation();
+            for (int i = 0; rot != null && !frame.isGameOver() && i < rot.getCellCount(); i++) {
+                int row = frame.getPieceRow() + rot.getCellRow(i);
+                int col = frame.getPieceCol() + rot.getCellCol(i);
+                assertFalse(frame.isOccupied(row, col));
+            }
+            polled += 1;
+        }
+        writer.join();
+        assertEquals(game.getFrameCount(), frames.acquire().getFrame());
+        assertTrue(polled > 1);
+    }
+
+    /**
+     * Tests that a queued key event is only applied to frames due at or after
+     * the time it happened.
+     */
+    @Test
+    public void queuedKeysApplyOnTheirFrameTest() {
+        Engine game = new Engine(5);
+        while (game.getActivePiece() == null) {
+            game.step();
+        }
+        int col = game.getActivePiece().getCol();
+        long before = System.nanoTime() - 1;
+        game.keyDown(KeyKind.MOVE_LEFT);
+        game.step(before);
+        assertEquals(col, game.getActivePiece().getCol());
+        game.step(System.nanoTime());
+        assertEquals(col - 1, game.getActivePiece().getCol());
+        game.keyUp(KeyKind.MOVE_LEFT);
+        game.keyDown(KeyKind.MOVE_LEFT);
+        game.step();
+        assertEquals(col - 2, game.getActivePiece().getCol());
+    }
+
+    /**
+     * Tests that the metrics of a game count what the game reports and time
+     * every frame.
+     */
+    @Test
+    public void metricsCountGameEventsTest() {
+        Engine game = new Engine(11);
+        EngineMetrics metrics = new EngineMetrics();
+        game.setMetrics(metrics);
+        int frames = game.stepMany(100_000, ScriptedInput.standard());
+
+        LatencyHistogram frameTimes = metrics.getHistogram(EngineMetrics.Phase.FRAME);
+        assertEquals(frames, frameTimes.getCount());
+        assertEquals(game.getPieceCount(), metrics.getPiecesSpawned());
+        assertEquals(game.getLinesCleared(), metrics.getLinesCleared());
+        assertTrue(metrics.getLocks() <= metrics.getPiecesSpawned());
+        assertTrue(frameTimes.getPercentile(0.5) <= frameTimes.getPercentile(0.99));
+        assertTrue(frameTimes.getPercentile(0.99) <= frameTimes.getMax());
+    }
+
+    /**
+     * Tests that every game of a batch plays out frame by frame exactly as
+     * an engine built from the same seed and fed the same input, whether
+     * the input is scripted, absent or random key mashing with re-presses,
+     * and that a batch stepped all at once ends up the same.
+     */
+    @Test
+    public void batchMatchesEnginesTest() {
+        int games = 48;
+        long[] seeds = new long[games];
+        InputSource[] sources = new InputSource[games];
+        Engine[] engines = new Engine[games];
+        ScriptedInput script = ScriptedInput.standard();
+        for (int g = 0; g < games; g++) {
+            long seed = 1000 + g;
+            seeds[g] = seed;
+            engines[g] = new Engine(seed);
+            if (g % 3 == 0) {
+                sources[g] = script;
+            } else if (g % 3 == 1) {
+                sources[g] = InputSource.NONE;
+            } else {
+                sources[g] = frame -> (int) SplitMix64.mix64(seed * 31 + frame / 3) & 0x3f3f;
+            }
+        }
+        BatchEngine batch = new BatchEngine(seeds);
+        FrameSnapshot expected = new FrameSnapshot();
+        int frames = 0;
+        while (batch.stepMany(1, sources) > 0) {
+            frames += 1;
+            for (int g = 0; g < games; g++) {
+                engines[g].stepMany(1, sources[g]);
+                engines[g].copySnapshot(expected);
+                assertEquals(expected.isGameOver(), batch.isGameOver(g));
+                assertEquals(expected.getFrame(), batch.getFrameCount(g));
+                assertEquals(engines[g].getPieceCount(), batch.getPieceCount(g));
+                assertEquals(expected.getLinesCleared(), batch.getLinesCleared(g));
+                assertEquals(expected.getPieceKind(), batch.getPieceKind(g));
+                assertEquals(expected.getNextPiece(), batch.getNextPiece(g));
+                if (expected.getPieceKind() != null) {
+                    assertEquals(expected.getOrientation(), batch.getOrientation(g));
+                    assertEquals(expected.getPieceRow(), batch.getPieceRow(g));
+                    assertEquals(expected.getPieceCol(), batch.getPieceCol(g));
+                }
+                for (int row = 0; row < expected.getHeight(); row++) {
+                    assertEquals(expected.getRowMask(row), batch.getRowMask(g, row));
+                }
+            }
+        }
+        assertEquals(0, batch.getRunningGames());
+
+        BatchEngine whole = new BatchEngine(seeds);
+        assertEquals(frames, whole.stepMany(Integer.MAX_VALUE, sources));
+        for (int g = 0; g < games; g++) {
+            assertEquals(batch.getFrameCount(g), whole.getFrameCount(g));
+            assertEquals(batch.getLinesCleared(g), whole.getLinesCleared(g));
+            for (int row = 0; row < Constants.BOARD_HEIGHT; row++) {
+                assertEquals(batch.getRowMask(g, row), whole.getRowMask(g, row));
+            }
+        }
+    }
+
+    /**
+     * Tests that a rewind buffer small enough to wrap around many times
+     * rebuilds every frame it still holds exactly as it was played, that a
+     * game restored to one of them plays on the same, that rewinding
+     * keeps the well version moving on, and that a game that is over can be
+     * rewound back into play.
+     */
+    @Test
+    public void rewindRebuildsPastFramesTest() {
+        Engine game = new Engine(7);
+        RewindBuffer rewind = new RewindBuffer(16, 2 * RewindBuffer.minCapacity(16));
+        game.setRewindBuffer(rewind);
+        InputSource script = ScriptedInput.standard();
+        byte[][] states = new byte[3000][Engine.STATE_BYTES];
+        game.writeState(ByteBuffer.wrap(states[0]), 0);
+        ByteBuffer rebuilt = ByteBuffer.allocate(Engine.STATE_BYTES);
+        for (int frame = 1; frame < states.length && game.stepMany(1, script) == 1; frame++) {
+            game.writeState(ByteBuffer.wrap(states[frame]), 0);
+            assertEquals(frame, rewind.getLatestFrame());
+            assertTrue(rewind.getLatestFrame() - rewind.getOldestFrame() >= Math.min(frame, 15));
+            for (long f = rewind.getOldestFrame(); f <= frame; f += 7) {
+                rewind.copyState(f, rebuilt, 0);
+                assertArrayEquals(states[(int) f], rebuilt.array());
+            }
+        }
+        long latest = rewind.getLatestFrame();
+        assertTrue(latest > 1000 && rewind.getOldestFrame() > 0);
+        assertFalse(rewind.contains(rewind.getOldestFrame() - 1));
+
+        // Rewinding drops the frames after, but replaying them records them again
+        rewind.restore(latest - 40, game);
+        game.stepMany(20, script);
+        assertEquals(latest - 20, rewind.getLatestFrame());
+        game.stepMany(20, script);
+        for (long f = rewind.getOldestFrame(); f <= latest; f++) {
+            rewind.copyState(f, rebuilt, 0);
+            assertArrayEquals(states[(int) f], rebuilt.array());
+        }
+
+        int version = game.getWellVersion();
+        assertFalse(game.rewindTo(rewind.getOldestFrame() - 1));
+        assertTrue(game.rewindTo(rewind.getOldestFrame()));
+        assertEquals(rewind.getOldestFrame(), game.getFrameCount());
+        assertEquals(version + 1, game.getWellVersion());
+
+        Engine over = new Engine(7);
+        over.setRewindBuffer(new RewindBuffer(16, RewindBuffer.minCapacity(16)));
+        over.stepMany(Integer.MAX_VALUE, InputSource.NONE);
+        assertTrue(over.isGameOver());
+        assertTrue(over.rewindTo(over.getFrameCount() - 16));
+        assertFalse(over.isGameOver());
+        assertEquals(1, over.stepMany(1, InputSource.NONE));
+    }
+
+    /**
+     * Tests that placing the active piece locks it where it comes to rest
+     * and plays on to the next piece, and that a placement that collides
+     * or would fall further is rejected.
+     */
+    @Test
+    public void placeTest() {
+        Engine game = new Engine(3);
+        while (game.getActivePiece() == null) {
+            game.stepMany(1, InputSource.NONE);
+        }
+        Well well = new Well();
+        game.copyWell(well);
+        MoveGenerator generator = new MoveGenerator();
+        int[] out = new int[generator.getMaxPlacements()];
+        assertTrue(generator.generate(well, game.getActivePiece().getKind(), out) > 0);
+        int orientation = MoveGenerator.orientationOf(out[0]);
+        int row = MoveGenerator.rowOf(out[0]);
+        int col = MoveGenerator.colOf(out[0]);
+        assertThrows(IllegalArgumentException.class, () -> game.place(orientation, row - 1, col));
+        assertThrows(IllegalArgumentException.class, () -> game.place(orientation, row + 2, col));
+
+        int pieces = game.getPieceCount();
+        assertTrue(game.place(orientation, row, col) > 0);
+        assertEquals(pieces + 1, game.getPieceCount());
+        assertTrue(game.getActivePiece() != null || game.isGameOver());
+        game.copyWell(well);
+        int cells = 0;
+        for (int r = 0; r < well.getHeight(); r++) {
+            cells += Integer.bitCount(well.getRowMask(r));
+        }
+        assertEquals(4, cells);
+    }
+}
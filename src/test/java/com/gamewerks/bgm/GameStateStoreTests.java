@@ -0,0 +1,91 @@
+package com.gamewerks.bgm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.nio.ByteBuffer;
+
+import org.junit.jupiter.api.Test;
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.FrameSnapshot;
+import com.gamewerks.bgm.engine.HistoryRandomizer;
+import com.gamewerks.bgm.engine.InputSource;
+import com.gamewerks.bgm.sim.GameStateStore;
+import com.gamewerks.bgm.util.SplitMix64;
+
+public class GameStateStoreTests {
+
+    /**
+     * Tests that games saved mid-play across several chunks, some of them
+     * into slots freed and reused along the way, load into other engines
+     * that then play on exactly as the original games do, with either
+     * randomizer, and that a state only loads into an engine whose
+     * randomizer is of the same kind.
+     */
+    @Test
+    public void saveAndLoadTest() {
+        int games = 40;
+        GameStateStore store = new GameStateStore(8);
+        Engine[] originals = new Engine[games];
+        InputSource[] sources = new InputSource[games];
+        int[] slots = new int[games];
+        for (int g = 0; g < games; g++) {
+            long seed = 2000 + g;
+            originals[g] = g % 2 == 0 ? new Engine(seed)
+                    : new Engine(new HistoryRandomizer(seed));
+            // Keys held for several frames at a time, so that some auto-shift
+            sources[g] = frame -> (int) SplitMix64.mix64(seed * 31 + frame / 8) & 0x3f;
+            originals[g].stepMany(50 * g, sources[g]);
+            slots[g] = store.save(originals[g]);
+            if (g % 3 == 0) {
+                // Free a slot and take it right back for the same game
+                store.free(slots[g]);
+                assertEquals(slots[g], store.save(originals[g]));
+            }
+        }
+        assertEquals(games, store.size());
+        assertEquals(8L * 5 * Engine.STATE_BYTES, store.getOffHeapBytes());
+
+        Engine bag = new Engine(0);
+        Engine history = new Engine(new HistoryRandomizer(0));
+        ByteBuffer buf = ByteBuffer.allocate(Engine.STATE_BYTES);
+        bag.writeState(buf, 0);
+        assertThrows(IllegalArgumentException.class, () -> history.readState(buf, 0));
+        FrameSnapshot expected = new FrameSnapshot();
+        FrameSnapshot actual = new FrameSnapshot();
+        for (int g = 0; g < games; g++) {
+            Engine copy = g % 2 == 0 ? bag : history;
+            store.load(slots[g], copy);
+            for (int frames = 0; frames < 2000; frames += 100) {
+                originals[g].copySnapshot(expected);
+                copy.copySnapshot(actual);
+                assertSameFrame(expected, actual);
+                assertEquals(originals[g].getPieceCount(), copy.getPieceCount());
+                assertEquals(originals[g].getWellVersion(), copy.getWellVersion());
+                originals[g].stepMany(100, sources[g]);
+                copy.stepMany(100, sources[g]);
+            }
+            store.free(slots[g]);
+        }
+        assertEquals(0, store.size());
+    }
+
+    /**
+     * Asserts that two snapshots show the same frame of the same game.
+     * @param expected the snapshot of the original game
+     * @param actual the snapshot of the restored game
+     */
+    private static void assertSameFrame(FrameSnapshot expected, FrameSnapshot actual) {
+        assertEquals(expected.getFrame(), actual.getFrame());
+        assertEquals(expected.isGameOver(), actual.isGameOver());
+        assertEquals(expected.getLinesCleared(), actual.getLinesCleared());
+        assertEquals(expected.getPieceKind(), actual.getPieceKind());
+        assertEquals(expected.getOrientation(), actual.getOrientation());
+        assertEquals(expected.getPieceRow(), actual.getPieceRow());
+        assertEquals(expected.getPieceCol(), actual.getPieceCol());
+        assertEquals(expected.getNextPiece(), actual.getNextPiece());
+        for (int row = 0; row < expected.getHeight(); row++) {
+            assertEquals(expected.getRowMask(row), actual.getRowMask(row));
+        }
+    }
+}
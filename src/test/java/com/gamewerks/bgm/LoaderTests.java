@@ -0,0 +1,37 @@
+package com.gamewerks.bgm;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import org.junit.jupiter.api.Test;
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.util.Loader;
+import com.gamewerks.bgm.util.RotationCompiler;
+
+public class LoaderTests {
+
+    /**
+     * Tests that the compiled rotation tables hold exactly the layouts of
+     * the data files, and that they are up to date with the compiler.
+     */
+    @Test
+    public void compiledTablesMatchDataFilesTest() throws IOException {
+        HashMap<PieceKind, boolean[][][]> files = Loader.loadAllRotationData();
+        HashMap<PieceKind, boolean[][][]> compiled = Loader.loadCompiledRotationData();
+        for (PieceKind piece : PieceKind.values()) {
+            boolean[][][] expected = files.get(piece);
+            assertEquals(expected.length, compiled.get(piece).length);
+            for (int i = 0; i < expected.length; i++) {
+                assertArrayEquals(expected[i], compiled.get(piece)[i], piece + " " + i);
+            }
+        }
+        assertEquals(RotationCompiler.compile(files),
+                Files.readString(Path.of(RotationCompiler.TABLES_PATH)),
+                "RotationTables is stale, run RotationCompiler");
+    }
+}
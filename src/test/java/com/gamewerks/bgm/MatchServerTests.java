@@ -0,0 +1,228 @@
+package com.gamewerks.bgm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+
+import org.junit.jupiter.api.Test;
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.FrameSnapshot;
+import com.gamewerks.bgm.engine.InputSource;
+import com.gamewerks.bgm.engine.KeyKind;
+import com.gamewerks.bgm.net.MatchClient;
+import com.gamewerks.bgm.net.MatchServer;
+import com.gamewerks.bgm.net.RemoteGame;
+import com.gamewerks.bgm.util.Constants;
+
+public class MatchServerTests {
+
+    /**
+     * Tests that two clients over loopback are seated in the same match, and
+     * that the states the server sends rebuild every game of the match
+     * exactly as a local engine plays it, both for the players and for a
+     * spectator joining mid-match, who syncs up at a keyframe.
+     */
+    @Test
+    public void loopbackMatchTest() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        InetSocketAddress any = new InetSocketAddress(loopback, 0);
+        try (MatchServer server = new MatchServer(any, 2, 1000, 2, 5);
+                Selector selector = Selector.open()) {
+            server.start();
+            InetSocketAddress address = new InetSocketAddress(loopback, server.getPort());
+            MatchClient[] clients = new MatchClient[2];
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = new MatchClient(address, new MatchClient.Listener() { });
+                clients[i].register(selector);
+                clients[i].hello();
+            }
+
+            long deadline = System.nanoTime() + 30_000_000_000L;
+            while (clients[0].getMatchId() < 0 || clients[1].getMatchId() < 0) {
+                poll(selector, deadline);
+            }
+            MatchClient spectator = new MatchClient(address, new MatchClient.Listener() { });
+            spectator.register(selector);
+            spectator.watch(-1);
+            while (!(clients[0].isMatchOver() && clients[1].isMatchOver()
+                    && spectator.isMatchOver())) {
+                poll(selector, deadline);
+            }
+
+            assertTrue(spectator.isSpectator());
+            assertEquals(clients[0].getMatchId(), spectator.getMatchId());
+            assertEquals(clients[0].getMatchId(), clients[1].getMatchId());
+            assertEquals(clients[0].getSeed(), clients[1].getSeed());
+            assertEquals(1, clients[0].getSeat() + clients[1].getSeat());
+            Engine local = new Engine(clients[0].getSeed());
+            local.stepMany(Integer.MAX_VALUE, InputSource.NONE);
+            FrameSnapshot expected = new FrameSnapshot();
+            local.copySnapshot(expected);
+            for (MatchClient client : new MatchClient[] {clients[0], clients[1], spectator}) {
+                for (int seat = 0; seat < client.getSeats(); seat++) {
+                    RemoteGame game = client.getGame(seat);
+                    assertTrue(game.isGameOver());
+                    assertEquals(expected.getFrame(), game.getFrame());
+                    assertEquals(expected.getLinesCleared(), game.getLinesCleared());
+                    assertEquals(expected.getPieceKind(), game.getPieceKind());
+                    assertEquals(expected.getNextPiece(), game.getNextPiece());
+                    for (int row = 0; row < expected.getHeight(); row++) {
+                        assertEquals(expected.getRowMask(row), game.getRowMask(row));
+                    }
+                }
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Tests that a spectator joining after one game of a match is over, while
+     * another plays on, still gets the finished game from the next keyframe.
+     */
+    @Test
+    public void lateSpectatorTest() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        InetSocketAddress any = new InetSocketAddress(loopback, 0);
+        try (MatchServer server = new MatchServer(any, 2, 1000, 1, 5);
+                Selector selector = Selector.open()) {
+            server.start();
+            InetSocketAddress address = new InetSocketAddress(loopback, server.getPort());
+            MatchClient[] clients = new MatchClient[2];
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = new MatchClient(address, new MatchClient.Listener() { });
+                clients[i].register(selector);
+                clients[i].hello();
+            }
+            long deadline = System.nanoTime() + 30_000_000_000L;
+            while (clients[0].getMatchId() < 0 || clients[1].getMatchId() < 0) {
+                poll(selector, deadline);
+            }
+            // Soft dropping all the way tops out long before the other game does
+            int dropper = clients[0].getSeat();
+            clients[0].sendInput(KeyKind.SOFT_DROP.mask());
+            while (!clients[1].getGame(dropper).isGameOver()) {
+                poll(selector, deadline);
+            }
+            assertFalse(clients[1].getGame(1 - dropper).isGameOver());
+            MatchClient spectator = new MatchClient(address, new MatchClient.Listener() { });
+            spectator.register(selector);
+            spectator.watch(-1);
+            while (!(clients[0].isMatchOver() && clients[1].isMatchOver()
+                    && spectator.isMatchOver())) {
+                poll(selector, deadline);
+            }
+
+            assertEquals(clients[0].getMatchId(), spectator.getMatchId());
+            assertTrue(clients[1].getGame(dropper).getFrame()
+                    < clients[1].getGame(1 - dropper).getFrame());
+            for (int seat = 0; seat < spectator.getSeats(); seat++) {
+                RemoteGame expected = clients[1].getGame(seat);
+                RemoteGame game = spectator.getGame(seat);
+                assertTrue(game.isGameOver());
+                assertEquals(expected.getFrame(), game.getFrame());
+                assertEquals(expected.getLinesCleared(), game.getLinesCleared());
+                for (int row = 0; row < Constants.BOARD_HEIGHT; row++) {
+                    assertEquals(expected.getRowMask(row), game.getRowMask(row));
+                }
+            }
+            for (MatchClient client : new MatchClient[] {clients[0], clients[1], spectator}) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Tests that a message shorter than its type says only disconnects the
+     * client that sent it, and that the server goes on serving others.
+     */
+    @Test
+    public void malformedMessageTest() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        InetSocketAddress any = new InetSocketAddress(loopback, 0);
+        try (MatchServer server = new MatchServer(any, 2, 1000, 1, 5);
+                Selector selector = Selector.open()) {
+            server.start();
+            InetSocketAddress address = new InetSocketAddress(loopback, server.getPort());
+            // A WATCH without its match id, and an INPUT followed by a HELLO
+            byte[][] messages = {{0, 1, 3}, {0, 1, 2, 0, 1, 1}};
+            for (byte[] message : messages) {
+                try (Socket socket = new Socket(loopback, server.getPort())) {
+                    socket.setSoTimeout(10_000);
+                    socket.getOutputStream().write(message);
+                    assertEquals(-1, socket.getInputStream().read());
+                }
+            }
+
+            MatchClient spectator = new MatchClient(address, new MatchClient.Listener() { });
+            spectator.register(selector);
+            spectator.watch(-1);
+            long deadline = System.nanoTime() + 30_000_000_000L;
+            while (!spectator.isMatchOver()) {
+                poll(selector, deadline);
+            }
+            assertEquals(0, server.getRunningMatches());
+            spectator.close();
+        }
+    }
+
+    /**
+     * Tests that a client leaving a match that is still filling up frees its
+     * seat, so that the match starts with the clients that stayed.
+     */
+    @Test
+    public void leaveBeforeStartTest() throws IOException {
+        InetAddress loopback = InetAddress.getLoopbackAddress();
+        InetSocketAddress any = new InetSocketAddress(loopback, 0);
+        try (MatchServer server = new MatchServer(any, 2, 1000, 1, 5);
+                Selector selector = Selector.open()) {
+            server.start();
+            InetSocketAddress address = new InetSocketAddress(loopback, server.getPort());
+            MatchClient leaver = new MatchClient(address, new MatchClient.Listener() { });
+            leaver.hello();
+            leaver.close();
+            // Once the server answers a later request, it has seen the leaver go
+            MatchClient spectator = new MatchClient(address, new MatchClient.Listener() { });
+            spectator.register(selector);
+            spectator.watch(-1);
+            long deadline = System.nanoTime() + 30_000_000_000L;
+            while (!spectator.isMatchOver()) {
+                poll(selector, deadline);
+            }
+            spectator.close();
+
+            MatchClient[] clients = new MatchClient[2];
+            for (int i = 0; i < clients.length; i++) {
+                clients[i] = new MatchClient(address, new MatchClient.Listener() { });
+                clients[i].register(selector);
+                clients[i].hello();
+            }
+            while (clients[0].getMatchId() < 0 || clients[1].getMatchId() < 0) {
+                poll(selector, deadline);
+            }
+            assertEquals(clients[0].getMatchId(), clients[1].getMatchId());
+            assertEquals(1, clients[0].getSeat() + clients[1].getSeat());
+            for (MatchClient client : clients) {
+                client.close();
+            }
+        }
+    }
+
+    /**
+     * Reads whatever the server sent to the clients registered with a selector.
+     */
+    private static void poll(Selector selector, long deadline) throws IOException {
+        assertTrue(System.nanoTime() < deadline, "Match did not end in time");
+        selector.select(10);
+        for (SelectionKey key : selector.selectedKeys()) {
+            assertTrue(((MatchClient) key.attachment()).receive());
+        }
+        selector.selectedKeys().clear();
+    }
+}
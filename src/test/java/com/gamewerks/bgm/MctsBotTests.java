@@ -0,0 +1,97 @@
+package com.gamewerks.bgm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import com.gamewerks.bgm.bot.MctsBot;
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.InputSource;
+import com.gamewerks.bgm.engine.MoveGenerator;
+import com.gamewerks.bgm.engine.Piece;
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Rotation;
+import com.gamewerks.bgm.engine.Well;
+import com.gamewerks.bgm.util.Constants;
+
+public class MctsBotTests {
+
+    /**
+     * Tests that the bot, searching on several threads, always picks one of
+     * the placements the move generator finds, running at most its budget of
+     * rollouts, and gives up only when the piece cannot spawn, and that each
+     * placement locks the piece and plays on to the next one. How well the
+     * bot plays on several threads depends on how they are scheduled, so is
+     * tested on one thread in {@link #tetrisTest()}.
+     */
+    @Test
+    public void playTest() {
+        MoveGenerator generator = new MoveGenerator();
+        int[] out = new int[generator.getMaxPlacements()];
+        Well well = new Well();
+        // A pool without room for every child of the root could not search at all
+        assertThrows(IllegalArgumentException.class,
+                () -> new MctsBot(1, 300, 4, generator.getMaxPlacements(), 5));
+        try (MctsBot bot = new MctsBot(4, 300, 4, 1 << 14, 5)) {
+            boolean[][] grid = new boolean[Constants.BOARD_HEIGHT][Constants.BOARD_WIDTH];
+            for (int col = 0; col < Constants.BOARD_WIDTH; col++) {
+                grid[Constants.BOARD_HEIGHT - 2][col] = true;
+                grid[Constants.BOARD_HEIGHT - 3][col] = true;
+            }
+            assertEquals(MctsBot.NO_PLACEMENT,
+                    bot.decide(new Well(grid), PieceKind.T, PieceKind.I));
+
+            Engine engine = new Engine(11);
+            while (engine.getActivePiece() == null) {
+                engine.stepMany(1, InputSource.NONE);
+            }
+            assertThrows(IllegalArgumentException.class, () -> engine.place(0, 0, -3));
+            int decisions = 0;
+            while (decisions < 60 && !engine.isGameOver()) {
+                PieceKind kind = engine.getActivePiece().getKind();
+                engine.copyWell(well);
+                Set<Integer> legal = new HashSet<>();
+                int count = generator.generate(well, kind, out);
+                for (int j = 0; j < count; j++) {
+                    legal.add(out[j]);
+                }
+                int move = bot.decide(well, kind, engine.getNextPiece());
+                assertTrue(legal.contains(move));
+                int pieceCount = engine.getPieceCount();
+                assertTrue(engine.place(MoveGenerator.orientationOf(move),
+                        MoveGenerator.rowOf(move), MoveGenerator.colOf(move)) > 0);
+                assertEquals(pieceCount + 1, engine.getPieceCount());
+                decisions += 1;
+            }
+            assertTrue(bot.getTotalRollouts() > 0);
+            assertTrue(bot.getTotalRollouts() <= decisions * 300L);
+        }
+    }
+
+    /**
+     * Tests that the bot, searching on one thread, drops an I piece into
+     * the one column left open four deep to clear four lines, running its
+     * whole budget of rollouts on a board where no piece can top out.
+     */
+    @Test
+    public void tetrisTest() {
+        boolean[][] grid = new boolean[Constants.BOARD_HEIGHT][Constants.BOARD_WIDTH];
+        for (int row = 0; row < 4; row++) {
+            for (int col = 0; col < Constants.BOARD_WIDTH - 1; col++) {
+                grid[row][col] = true;
+            }
+        }
+        Well well = new Well(grid);
+        try (MctsBot bot = new MctsBot(1, 300, 4, 1 << 14, 5)) {
+            int move = bot.decide(well, PieceKind.I, PieceKind.O);
+            assertEquals(300, bot.getTotalRollouts());
+            Rotation rot = Piece.getRotation(PieceKind.I, MoveGenerator.orientationOf(move));
+            well.addToWell(rot, MoveGenerator.rowOf(move), MoveGenerator.colOf(move));
+            assertEquals(4, well.clearCompletedRows());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.gamewerks.bgm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import com.gamewerks.bgm.engine.MoveGenerator;
+import com.gamewerks.bgm.engine.Piece;
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Rotation;
+import com.gamewerks.bgm.engine.Well;
+import com.gamewerks.bgm.util.Constants;
+
+public class MoveGeneratorTests {
+
+    /**
+     * Tests that every distinct placement of each piece is found on an empty
+     * well, with orientations occupying the same cells counted once.
+     */
+    @Test
+    public void emptyWellPlacementsTest() {
+        MoveGenerator generator = new MoveGenerator();
+        int[] out = new int[generator.getMaxPlacements()];
+        Well well = new Well();
+        assertEquals(17, generator.generate(well, PieceKind.I, out));
+        assertEquals(9, generator.generate(well, PieceKind.O, out));
+        assertEquals(17, generator.generate(well, PieceKind.S, out));
+        assertEquals(17, generator.generate(well, PieceKind.Z, out));
+        assertEquals(34, generator.generate(well, PieceKind.J, out));
+        assertEquals(34, generator.generate(well, PieceKind.L, out));
+        assertEquals(34, generator.generate(well, PieceKind.T, out));
+    }
+
+    /**
+     * Tests that every generated placement is free and resting on the stack,
+     * that a placement reachable only by sliding under an overhang is found,
+     * and that an enclosed hole is not reachable.
+     */
+    @Test
+    public void overhangPlacementsTest() {
+        boolean[][] grid = new boolean[Constants.BOARD_HEIGHT][Constants.BOARD_WIDTH];
+        // An overhang over columns 0-4 of rows 0-1, and a sealed hole at column 9
+        for (int col = 0; col < 5; col++) {
+            grid[2][col] = true;
+        }
+        for (int row = 0; row < 3; row++) {
+            grid[row][8] = true;
+        }
+        grid[1][9] = true;
+        grid[2][9] = true;
+        Well well = new Well(grid);
+
+        MoveGenerator generator = new MoveGenerator();
+        int[] out = new int[generator.getMaxPlacements()];
+        int count = generator.generate(well, PieceKind.O, out);
+        boolean tucked = false;
+        for (int i = 0; i < count; i++) {
+            Rotation rot = Piece.getRotation(PieceKind.O, MoveGenerator.orientationOf(out[i]));
+            int row = MoveGenerator.rowOf(out[i]);
+            int col = MoveGenerator.colOf(out[i]);
+            assertFalse(well.collides(rot, row, col));
+            assertTrue(well.collides(rot, row - 1, col));
+            Well placed = new Well(well);
+            placed.addToWell(rot, row, col);
+            assertFalse(well.isOccupied(0, 9) || placed.isOccupied(0, 9));
+            tucked |= placed.isOccupied(0, 0);
+        }
+        assertTrue(tucked);
+    }
+
+    /**
+     * Tests that the drop placements are exactly the placements on an empty
+     * well, and a subset of them without the tuck under an overhang, or
+     * without the orientations that cannot be rotated into at the spawn
+     * position of a crowded well.
+     */
+    @Test
+    public void dropPlacementsTest() {
+        MoveGenerator generator = new MoveGenerator();
+        int[] out = new int[generator.getMaxPlacements()];
+        int[] drops = new int[generator.getMaxPlacements()];
+        boolean[][] grid = new boolean[Constants.BOARD_HEIGHT][Constants.BOARD_WIDTH];
+        for (int col = 0; col < 5; col++) {
+            grid[2][col] = true;
+        }
+        Well overhang = new Well(grid);
+        // Orientations 1 and 3 of an L piece are blocked at spawn, but 2 is not
+        String[] crowded = {
+            "..x.......",
+            ".x....x..x",
+            "x.....x...",
+            ".x.xx.x.x.",
+            "x.....x..x"
+        };
+        grid = new boolean[Constants.BOARD_HEIGHT][Constants.BOARD_WIDTH];
+        for (int i = 0; i < crowded.length; i++) {
+            for (int col = 0; col < Constants.BOARD_WIDTH; col++) {
+                grid[Constants.BOARD_HEIGHT - 1 - i][col] = crowded[i].charAt(col) == 'x';
+            }
+        }
+        Well[] wells = {new Well(), overhang, new Well(grid)};
+        for (Well well : wells) {
+            for (PieceKind kind : PieceKind.ALL) {
+                Set<Integer> placements = new HashSet<>();
+                int count = generator.generate(well, kind, out);
+                for (int i = 0; i < count; i++) {
+                    placements.add(out[i]);
+                }
+                int dropCount = generator.generateDrops(well, kind, drops);
+                for (int i = 0; i < dropCount; i++) {
+                    assertTrue(placements.contains(drops[i]));
+                    Well placed = new Well(well);
+                    placed.addToWell(Piece.getRotation(kind, MoveGenerator.orientationOf(drops[i])),
+                            MoveGenerator.rowOf(drops[i]), MoveGenerator.colOf(drops[i]));
+                    assertTrue(well != overhang || !placed.isOccupied(0, 0));
+                }
+                if (well.getStackHeight() == 0) {
+                    assertEquals(count, dropCount);
+                } else if (well == overhang) {
+                    assertTrue(dropCount < count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tests that perft counts every sequence of placements, including
+     * placements only reachable under the overhangs left by earlier pieces.
+     */
+    @Test
+    public void perftTest() {
+        MoveGenerator generator = new MoveGenerator();
+        Well well = new Well();
+        PieceKind[] pieces = {PieceKind.T, PieceKind.T};
+        assertEquals(1, generator.perft(well, pieces, 0));
+        assertEquals(34, generator.perft(well, pieces, 1));
+        assertEquals(1178, generator.perft(well, pieces, 2));
+        assertTrue(well.getCompletedRows().isEmpty());
+        assertFalse(well.isOccupied(0, 0));
+    }
+}
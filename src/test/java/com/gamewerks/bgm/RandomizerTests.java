@@ -0,0 +1,90 @@
+package com.gamewerks.bgm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+import org.junit.jupiter.api.Test;
+import com.gamewerks.bgm.engine.BagRandomizer;
+import com.gamewerks.bgm.engine.Engine;
+import com.gamewerks.bgm.engine.HistoryRandomizer;
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Randomizer;
+import com.gamewerks.bgm.engine.ScriptedInput;
+
+public class RandomizerTests {
+
+    /**
+     * Tests that every group of seven pieces dealt by the bag randomizer
+     * contains each kind of piece exactly once, and that peeking shows the
+     * piece dealt next.
+     */
+    @Test
+    public void bagDealsEveryPiecePerBagTest() {
+        Randomizer randy = new BagRandomizer(42);
+        for (int bag = 0; bag < 100; bag++) {
+            EnumSet<PieceKind> seen = EnumSet.noneOf(PieceKind.class);
+            for (int i = 0; i < PieceKind.ALL.length; i++) {
+                PieceKind preview = randy.peek();
+                PieceKind kind = randy.next();
+                assertEquals(preview, kind);
+                seen.add(kind);
+            }
+            assertEquals(EnumSet.allOf(PieceKind.class), seen);
+        }
+    }
+
+    /**
+     * Tests that the history randomizer never starts with an S, Z or O piece.
+     */
+    @Test
+    public void historyFirstPieceTest() {
+        for (long seed = 0; seed < 1000; seed++) {
+            PieceKind first = new HistoryRandomizer(seed).next();
+            assertTrue(first != PieceKind.S && first != PieceKind.Z && first != PieceKind.O);
+        }
+    }
+
+    /**
+     * Tests that randomizers built from the same seed deal the same sequence,
+     * independently of one another, and that a split randomizer deals a
+     * different one.
+     */
+    @Test
+    public void sameSeedSameSequenceTest() {
+        Randomizer a = new HistoryRandomizer(7);
+        Randomizer b = new HistoryRandomizer(7);
+        Randomizer split = new HistoryRandomizer(7).split();
+        StringBuilder seqA = new StringBuilder();
+        StringBuilder seqB = new StringBuilder();
+        StringBuilder seqSplit = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            seqA.append(a.next());
+            seqB.append(b.next());
+            seqSplit.append(split.next());
+        }
+        assertEquals(seqA.toString(), seqB.toString());
+        assertNotEquals(seqA.toString(), seqSplit.toString());
+    }
+
+    /**
+     * Tests that two engines seeded alike and fed the same script play out
+     * identically, even when stepped interleaved with one another.
+     */
+    @Test
+    public void seededEnginesAreReproducibleTest() {
+        Engine a = new Engine(1234);
+        Engine b = new Engine(1234);
+        ScriptedInput script = ScriptedInput.standard();
+        while (!a.isGameOver()) {
+            a.stepMany(1, script);
+            b.stepMany(1, script);
+            assertTrue(Arrays.deepEquals(a.getWell(), b.getWell()));
+        }
+        assertTrue(b.isGameOver());
+        assertEquals(a.getFrameCount(), b.getFrameCount());
+    }
+}
@@ -0,0 +1,44 @@
+package com.gamewerks.bgm;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Well;
+import com.gamewerks.bgm.search.TranspositionTable;
+
+public class TranspositionTableTests {
+
+    /**
+     * Tests that stored evaluations can be probed back, that the key tells
+     * the current piece from the next piece, and that a full bucket replaces
+     * entries of earlier searches before those of the current one.
+     */
+    @Test
+    public void storeAndReplaceTest() {
+        // A single bucket, so that every key collides
+        TranspositionTable table = new TranspositionTable(64);
+        assertEquals(TranspositionTable.BUCKET_SIZE, table.getCapacity());
+
+        Well well = new Well();
+        long key = TranspositionTable.key(well, PieceKind.T, PieceKind.I);
+        assertTrue(key != TranspositionTable.key(well, PieceKind.I, PieceKind.T));
+        assertEquals(TranspositionTable.MISS, table.probe(key));
+        table.store(key, -42, 3, TranspositionTable.LOWER_BOUND);
+        long entry = table.probe(key);
+        assertEquals(-42, TranspositionTable.scoreOf(entry));
+        assertEquals(3, TranspositionTable.depthOf(entry));
+        assertEquals(TranspositionTable.LOWER_BOUND, TranspositionTable.boundOf(entry));
+
+        table.newSearch();
+        for (int i = 1; i < TranspositionTable.BUCKET_SIZE; i++) {
+            table.store(key + i, i, 0, TranspositionTable.EXACT);
+        }
+        table.store(key + TranspositionTable.BUCKET_SIZE, 0, 0, TranspositionTable.EXACT);
+        assertEquals(TranspositionTable.MISS, table.probe(key));
+        for (int i = 1; i <= TranspositionTable.BUCKET_SIZE; i++) {
+            assertTrue(table.probe(key + i) != TranspositionTable.MISS);
+        }
+    }
+}
@@ -1,12 +1,20 @@
 package com.gamewerks.bgm;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.jupiter.api.Test;
+import com.gamewerks.bgm.engine.PersistentWell;
+import com.gamewerks.bgm.engine.Piece;
+import com.gamewerks.bgm.engine.PieceKind;
+import com.gamewerks.bgm.engine.Rotation;
 import com.gamewerks.bgm.engine.Well;
+import com.gamewerks.bgm.util.SplitMix64;
 
 public class WellTests {
     private static boolean x = true;
@@ -121,4 +129,195 @@ public class WellTests {
         assertFalse(well.isCompletedRow(3));
         assertFalse(well.isCompletedRow(4));
     }
+
+    /**
+     * Tests that clearing completed rows that are not adjacent removes all of
+     * them in one go and drops every row above by the number of cleared rows
+     * beneath it.
+     */
+    @Test
+    public void clearCompletedRowsTest() {
+        boolean[][] grid = {
+                { x, x, x, x },
+                { x, o, o, o },
+                { x, x, x, x },
+                { o, o, x, o },
+                { o, o, o, o }
+        };
+        Well well = new Well(grid);
+
+        assertEquals(2, well.clearCompletedRows());
+
+        boolean[][] expected = {
+                { x, o, o, o },
+                { o, o, x, o },
+                { o, o, o, o },
+                { o, o, o, o },
+                { o, o, o, o }
+        };
+        assertTrue(Arrays.deepEquals(expected, well.getGrid()));
+        assertEquals(0, well.clearCompletedRows());
+        assertTrue(well.getCompletedRows().isEmpty());
+    }
+
+    /**
+     * Tests that the incrementally updated hash of a well only depends on
+     * which cells are filled, whatever order pieces were added in and rows
+     * were deleted in.
+     */
+    @Test
+    public void zobristHashTest() {
+        Rotation flat = Piece.getRotation(PieceKind.I, 0);
+        int flatRow = -flat.getMinRow();
+        Rotation square = Piece.getRotation(PieceKind.O, 0);
+        int squareRow = -square.getMinRow();
+
+        Well a = new Well(4, 6);
+        a.addToWell(square, squareRow + 1, -square.getMinCol());
+        a.addToWell(flat, flatRow, -flat.getMinCol());
+        Well b = new Well(4, 6);
+        b.addToWell(flat, flatRow, -flat.getMinCol());
+        b.addToWell(square, squareRow + 1, -square.getMinCol());
+        assertEquals(new Well(a.getGrid()).getHash(), a.getHash());
+        assertEquals(a.getHash(), b.getHash());
+        assertTrue(a.getHash() != new Well(4, 6).getHash());
+
+        Well c = new Well(b);
+        assertEquals(1, a.clearCompletedRows());
+        b.deleteRows(Arrays.asList(0));
+        c.deleteRow(0);
+        assertEquals(new Well(a.getGrid()).getHash(), a.getHash());
+        assertEquals(a.getHash(), b.getHash());
+        assertEquals(a.getHash(), c.getHash());
+        assertEquals(new Well(4, 6).getHash(), new Well(4, 6).getHash());
+    }
+
+    /**
+     * Tests that the incrementally updated column heights, stack height,
+     * hole count and completed rows match a scan of the grid as random
+     * pieces are dropped and rows are cleared and deleted.
+     */
+    @Test
+    public void surfaceMetricsTest() {
+        SplitMix64 random = new SplitMix64(11);
+        Well well = new Well(6, 12);
+        for (int step = 0; step < 2000; step++) {
+            int action = random.nextInt(10);
+            if (action == 0 && well.getStackHeight() > 0) {
+                well.deleteRow(random.nextInt(well.getStackHeight()));
+            } else if (action == 1) {
+                well.deleteRows(Arrays.asList(0, 2));
+            } else if (well.getStackHeight() > 8) {
+                well = new Well(6, 12);
+            } else {
+                PieceKind kind = PieceKind.ALL[random.nextInt(PieceKind.ALL.length)];
+                Rotation rot = Piece.getRotation(kind, random.nextInt(4));
+                int col = random.nextInt(6 - rot.getMaxCol() + rot.getMinCol())
+                        - rot.getMinCol();
+                int row = 11 - rot.getMaxRow();
+                row -= well.dropDistance(rot, row, col, Integer.MAX_VALUE);
+                well.addToWell(rot, row, col);
+                if (random.nextInt(2) == 0) {
+                    well.clearCompletedRows();
+                }
+            }
+            assertSurface(well);
+        }
+    }
+
+    /**
+     * Tests that a persistent well follows a mutable well through random
+     * drops and clears, cell for cell and with the same hash and metrics,
+     * while every earlier version of it stays as it was.
+     */
+    @Test
+    public void persistentWellTest() {
+        // A narrow well clears lines all the time, a standard one rarely does
+        for (int width : new int[] {4, 10}) {
+            SplitMix64 random = new SplitMix64(13);
+            PersistentWell empty = new PersistentWell(width, 22);
+            Well well = empty.toWell();
+            PersistentWell persistent = empty;
+            List<PersistentWell> versions = new ArrayList<>();
+            List<Well> copies = new ArrayList<>();
+            for (int step = 0; step < 3000; step++) {
+                if (well.getStackHeight() > 16) {
+                    well = new Well(width, 22);
+                    persistent = empty;
+                }
+                PieceKind kind = PieceKind.ALL[random.nextInt(PieceKind.ALL.length)];
+                Rotation rot = Piece.getRotation(kind, random.nextInt(4));
+                int col = random.nextInt(width - rot.getMaxCol() + rot.getMinCol())
+                        - rot.getMinCol();
+                int row = 21 - rot.getMaxRow();
+                int fall = well.dropDistance(rot, row, col, Integer.MAX_VALUE);
+                assertEquals(fall, persistent.dropDistance(rot, row, col, Integer.MAX_VALUE));
+                assertEquals(well.collides(rot, row - fall - 1, col),
+                        persistent.collides(rot, row - fall - 1, col));
+                well.addToWell(rot, row - fall, col);
+                persistent = persistent.place(rot, row - fall, col);
+                assertEquals(well.getCompletedRows().size(), persistent.getCompletedRowCount());
+                if (random.nextInt(2) == 0) {
+                    well.clearCompletedRows();
+                    persistent = persistent.clearCompletedRows();
+                }
+                for (int r = 0; r < 22; r++) {
+                    assertEquals(well.getRowMask(r), persistent.getRowMask(r));
+                }
+                assertEquals(well.getHash(), persistent.getHash());
+                assertEquals(well.getStackHeight(), persistent.getStackHeight());
+                assertEquals(well.getHoleCount(), persistent.getHoleCount());
+                if (step % 100 == 0) {
+                    versions.add(persistent);
+                    copies.add(new Well(well));
+                }
+            }
+            for (int i = 0; i < versions.size(); i++) {
+                PersistentWell version = versions.get(i);
+                assertEquals(version, PersistentWell.of(copies.get(i)));
+                assertEquals(copies.get(i).getHash(), version.toWell().getHash());
+                assertTrue(Arrays.deepEquals(copies.get(i).getGrid(),
+                        version.toWell().getGrid()));
+            }
+        }
+    }
+
+    /**
+     * Asserts that the surface metrics of a well match a scan of its grid.
+     */
+    private static void assertSurface(Well well) {
+        boolean[][] grid = well.getGrid();
+        int stack = 0;
+        int holes = 0;
+        int aggregate = 0;
+        int[] heights = new int[well.getWidth()];
+        for (int col = 0; col < well.getWidth(); col++) {
+            for (int row = 0; row < well.getHeight(); row++) {
+                if (grid[row][col]) {
+                    heights[col] = row + 1;
+                }
+            }
+            for (int row = 0; row < heights[col]; row++) {
+                holes += grid[row][col] ? 0 : 1;
+            }
+            assertEquals(heights[col], well.getColumnHeight(col));
+            stack = Math.max(stack, heights[col]);
+            aggregate += heights[col];
+        }
+        int completed = 0;
+        for (int row = 0; row < well.getHeight(); row++) {
+            completed += well.getRowFill(row) == well.getWidth() ? 1 : 0;
+        }
+        int bumpiness = 0;
+        for (int col = 1; col < well.getWidth(); col++) {
+            bumpiness += Math.abs(heights[col] - heights[col - 1]);
+        }
+        assertEquals(stack, well.getStackHeight());
+        assertEquals(holes, well.getHoleCount());
+        assertEquals(aggregate, well.getAggregateHeight());
+        assertEquals(bumpiness, well.getBumpiness());
+        assertEquals(completed, well.getCompletedRows().size());
+        assertEquals(well.getHash(), new Well(grid).getHash());
+        assertEquals(holes, new Well(grid).getHoleCount());
+    }
 }